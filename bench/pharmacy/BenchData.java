@@ -0,0 +1,134 @@
+package pharmacy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Data directory for the JMH benchmarks. Writes inventory.txt,
+ * customers.txt, orders.txt and order_details.txt with the requested number
+ * of records into a fresh temp directory and points
+ * {@link DataFiles} at it, so the domain classes read and write there.
+ *
+ * Must be created before the first use of {@link Order}, which reads the
+ * order counter when the class is initialized.
+ *
+ * @author elkhedewy-group
+ */
+public final class BenchData {
+    private static final String[] NAMES = {"Panadol", "Insulin", "Face Cream", "Aspirin", "Shampoo", "Sunscreen SPF50"};
+    private static final String[] CUSTOMERS = {"Farida", "Haneen", "Ahmed", "Ammar", "Mohammed"};
+    private static final String[] SKIN_TYPES = {"Normal", "Dry", "Oily", "Sensitive"};
+
+    private final File dir;
+    private final int records;
+
+    private BenchData(File dir, int records) {
+        this.dir = dir;
+        this.records = records;
+    }
+
+    public static BenchData create(int records) throws IOException {
+        File dir = Files.createTempDirectory("pharmacy-jmh-").toFile();
+        BenchData data = new BenchData(dir, records);
+        data.writeInventory();
+        data.writeCustomers();
+        data.writeOrders();
+        System.setProperty(DataFiles.DATA_DIR_PROPERTY, dir.getPath());
+        return data;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public File file(String name) {
+        return new File(dir, name);
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    public void delete() throws IOException {
+        System.clearProperty(DataFiles.DATA_DIR_PROPERTY);
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * The domain code logs every save to stdout; inside a benchmark that
+     * floods the JMH output, so the fork's stdout is discarded. Formatting
+     * the message is still measured.
+     */
+    public static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    private void writeInventory() throws IOException {
+        Random random = new Random(1);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file("inventory.txt")), 1 << 16)) {
+            for (int id = 1; id <= records; id++) {
+                String name = NAMES[id % NAMES.length] + " " + id;
+                double price = 5 + random.nextInt(20000) / 100.0;
+                int qty = 10 + random.nextInt(500);
+                String type;
+                String special;
+                if (id % 3 == 0) {
+                    type = "Cosmetic";
+                    special = SKIN_TYPES[random.nextInt(SKIN_TYPES.length)];
+                } else {
+                    type = "Medicine";
+                    special = String.valueOf(random.nextInt(4) == 0);
+                }
+                writer.write(id + "," + name + "," + price + "," + qty + "," + type + "," + special);
+                writer.newLine();
+            }
+        }
+    }
+
+    private void writeCustomers() throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file("customers.txt")), 1 << 16)) {
+            for (int id = 1; id <= records; id++) {
+                writer.write(id + "," + CUSTOMERS[id % CUSTOMERS.length] + " " + id + ",010" + (10000000 + id));
+                writer.newLine();
+            }
+        }
+    }
+
+    private void writeOrders() throws IOException {
+        Random random = new Random(2);
+        long time = 1735689600L;
+        TimestampCodec codec = TimestampCodec.system();
+        try (BufferedWriter orders = new BufferedWriter(new FileWriter(file("orders.txt")), 1 << 16);
+                BufferedWriter details = new BufferedWriter(new FileWriter(file("order_details.txt")), 1 << 16)) {
+            for (int id = 1; id <= records; id++) {
+                time += random.nextInt(60);
+                int customer = 1 + random.nextInt(records);
+                int lines = 1 + random.nextInt(3);
+                double total = 0;
+                for (int l = 0; l < lines; l++) {
+                    int product = 1 + random.nextInt(records);
+                    int qty = 1 + random.nextInt(5);
+                    double price = 5 + random.nextInt(20000) / 100.0;
+                    total += qty * price;
+                    details.write(id + "," + product + "," + NAMES[product % NAMES.length] + " " + product + "," + qty
+                            + "," + String.format("%.2f", price) + "," + String.format("%.2f", qty * price));
+                    details.newLine();
+                }
+                orders.write(id + "," + customer + "," + CUSTOMERS[customer % CUSTOMERS.length] + " " + customer + ","
+                        + codec.format(time) + ",Completed," + String.format("%.2f", total) + ",morning_user");
+                orders.newLine();
+            }
+        }
+    }
+}
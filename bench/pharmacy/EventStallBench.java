@@ -0,0 +1,174 @@
+package pharmacy;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that a stalled {@link EventBus} subscriber does not slow down
+ * checkout. Runs the same checkouts through {@link PharmacyService}
+ * without subscribers, then with a subscriber whose onNext never returns
+ * under each overflow policy, next to a healthy subscriber that counts
+ * what it receives.
+ *
+ * DROP and COALESCE must stay within 2x the baseline p99 (or 1 ms above
+ * it, on a noisy machine); the run exits with status 1 otherwise. BLOCK is
+ * expected to cost up to its timeout per checkout once the stalled buffer
+ * is full, and is reported for comparison only.
+ *
+ * Usage:
+ *   java -cp build/classes:build/bench/classes pharmacy.EventStallBench [checkouts] [records]
+ *
+ * @author elkhedewy-group
+ */
+public class EventStallBench {
+    private static final int BUFFER = 256;
+
+    private final PharmacyService service;
+    private final int records;
+    private final SplittableRandom random = new SplittableRandom(7);
+
+    EventStallBench(PharmacyService service, int records) {
+        this.service = service;
+        this.records = records;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int checkouts = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        System.setProperty("pharmacy.events.blockMillis", "2");
+        BenchData data = BenchData.create(records);
+        PrintStream out = System.out;
+        BenchData.silenceStdout();
+        boolean pass = true;
+        try {
+            EventStallBench bench = new EventStallBench(new PharmacyService(), records);
+            bench.run(checkouts); // warm up
+            LatencyHistogram.Snapshot baseline = bench.run(checkouts);
+            List<String> lines = new ArrayList<>();
+            lines.add(row("no subscribers", baseline, 0, 0));
+            for (EventBus.Overflow overflow : EventBus.Overflow.values()) {
+                Stalled stalled = new Stalled();
+                Counting counting = new Counting();
+                bench.service.getEvents().subscribe(stalled, BUFFER, overflow);
+                bench.service.getEvents().subscribe(counting, 1 << 16, EventBus.Overflow.DROP);
+                // BLOCK waits its timeout on every checkout once the buffer is full
+                LatencyHistogram.Snapshot s = bench.run(overflow == EventBus.Overflow.BLOCK ? checkouts / 10 : checkouts);
+                Thread.sleep(200); // let the counting subscriber catch up
+                lines.add(row("stalled " + overflow, s, stalled.received.get(), counting.received.get()));
+                stalled.release();
+                stalled.subscription.cancel();
+                counting.subscription.cancel();
+                if (overflow != EventBus.Overflow.BLOCK) {
+                    long limit = Math.max(2 * baseline.percentile(0.99), baseline.percentile(0.99) + 1_000_000);
+                    if (s.percentile(0.99) > limit) {
+                        pass = false;
+                        lines.add(String.format("  FAIL: p99 %.3f ms over the %.3f ms limit", ms(s.percentile(0.99)), ms(limit)));
+                    }
+                }
+            }
+            out.printf("%-22s %8s %9s %9s %9s %10s %10s%n", "scenario", "count", "p50 ms", "p99 ms", "max ms",
+                    "stalled", "healthy");
+            for (String line : lines) {
+                out.println(line);
+            }
+            out.println(pass ? "PASS: stalled DROP/COALESCE subscribers do not slow checkout" : "FAIL");
+        } finally {
+            data.delete();
+        }
+        System.exit(pass ? 0 : 1);
+    }
+
+    LatencyHistogram.Snapshot run(int checkouts) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < checkouts; i++) {
+            Map<Integer, Integer> quantities = new LinkedHashMap<>();
+            int lines = 1 + random.nextInt(3);
+            for (int l = 0; l < lines; l++) {
+                quantities.merge(1 + random.nextInt(records), 1, Integer::sum);
+            }
+            long start = System.nanoTime();
+            try {
+                service.checkout(1 + random.nextInt(records), quantities, "bench");
+            } catch (IllegalArgumentException e) {
+                // sold out; still a full pass through checkout
+            }
+            histogram.recordSince(start);
+        }
+        return histogram.snapshot();
+    }
+
+    private static String row(String name, LatencyHistogram.Snapshot s, long stalled, long healthy) {
+        return String.format("%-22s %8d %9.3f %9.3f %9.3f %10d %10d", name, s.getCount(), ms(s.percentile(0.50)),
+                ms(s.percentile(0.99)), ms(s.getMax()), stalled, healthy);
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /** Takes one event and then never returns until released. */
+    private static final class Stalled implements Flow.Subscriber<DomainEvent> {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong received = new AtomicLong();
+        Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(DomainEvent item) {
+            received.incrementAndGet();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        void release() {
+            latch.countDown();
+        }
+    }
+
+    private static final class Counting implements Flow.Subscriber<DomainEvent> {
+        final AtomicLong received = new AtomicLong();
+        Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(DomainEvent item) {
+            received.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
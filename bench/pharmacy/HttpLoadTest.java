@@ -0,0 +1,229 @@
+package pharmacy;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test for {@link PharmacyServer} over localhost. A number of
+ * terminals each run a closed loop of requests: mostly product lookups,
+ * with a share of checkouts of one to three lines. Reports throughput and
+ * the latency distribution per request type.
+ *
+ * Without --url it starts a server in-process on a fresh {@link BenchData}
+ * directory (with a "bench" user), so the numbers include the real file
+ * writes of every checkout. With --url it drives a running server.
+ *
+ * Closed loop: a slow response delays that terminal's next request, so
+ * under overload the latencies understate what an open arrival stream
+ * would see. Use enough terminals to keep the server saturated.
+ *
+ * Usage:
+ *   java -cp build/classes:build/bench/classes pharmacy.HttpLoadTest [options]
+ *
+ * Options (defaults in brackets):
+ *   --url        base URL of a running server [start one]
+ *   --user       basic auth user for checkouts [bench]
+ *   --password   basic auth password [bench]
+ *   --records    products/customers for the in-process server [10000]
+ *   --terminals  concurrent clients [32]
+ *   --seconds    measured duration [30]
+ *   --warmup     seconds before measuring [5]
+ *   --checkout   fraction of requests that are checkouts [0.1]
+ *
+ * @author elkhedewy-group
+ */
+public class HttpLoadTest {
+    private static final int LOOKUP = 0;
+    private static final int CUSTOMER = 1;
+    private static final int CHECKOUT = 2;
+    private static final String[] TYPE_NAMES = {"GET /inventory/{id}", "GET /customers/{id}", "POST /checkout"};
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final String authorization;
+    private final int records;
+    private final double checkoutShare;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[TYPE_NAMES.length];
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong stockRejects = new AtomicLong();
+    private volatile boolean measuring;
+    private volatile boolean running = true;
+
+    HttpLoadTest(String baseUrl, String user, String password, int records, double checkoutShare) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.baseUrl = baseUrl;
+        this.authorization = "Basic " + Base64.getEncoder()
+                .encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+        this.records = records;
+        this.checkoutShare = checkoutShare;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int records = Integer.parseInt(options.getOrDefault("records", "10000"));
+        int terminals = Integer.parseInt(options.getOrDefault("terminals", "32"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        double checkoutShare = Double.parseDouble(options.getOrDefault("checkout", "0.1"));
+        String user = options.getOrDefault("user", "bench");
+        String password = options.getOrDefault("password", "bench");
+
+        BenchData data = null;
+        PharmacyServer server = null;
+        String url = options.get("url");
+        if (url == null) {
+            data = BenchData.create(records);
+            try (FileWriter users = new FileWriter(new File(data.getDir(), "users.txt"))) {
+                users.write(user + "," + password + "\n");
+            }
+            BenchData.silenceStdout();
+            server = PharmacyServer.start(new PharmacyService(), "localhost", 0);
+            url = "http://localhost:" + server.getPort();
+        }
+
+        HttpLoadTest test = new HttpLoadTest(url, user, password, records, checkoutShare);
+        try {
+            test.run(terminals, warmup, seconds);
+        } finally {
+            if (server != null) {
+                server.stop(0);
+            }
+            if (data != null) {
+                data.delete();
+            }
+        }
+    }
+
+    void run(int terminals, int warmupSeconds, int seconds) throws InterruptedException {
+        ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor();
+        for (int t = 0; t < terminals; t++) {
+            long seed = 1000 + t;
+            pool.execute(() -> terminal(new SplittableRandom(seed)));
+        }
+        Thread.sleep(warmupSeconds * 1000L);
+        measuring = true;
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        measuring = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        running = false;
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+
+        report(System.err, terminals, elapsed);
+    }
+
+    private void terminal(SplittableRandom random) {
+        while (running) {
+            int type;
+            HttpRequest request;
+            if (random.nextDouble() < checkoutShare) {
+                type = CHECKOUT;
+                StringBuilder body = new StringBuilder();
+                body.append(1 + random.nextInt(records)).append('\n');
+                int lines = 1 + random.nextInt(3);
+                for (int i = 0; i < lines; i++) {
+                    body.append(1 + random.nextInt(records)).append(',').append(1 + random.nextInt(3)).append('\n');
+                }
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/checkout"))
+                        .header("Authorization", authorization)
+                        .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                        .build();
+            } else if (random.nextInt(4) == 0) {
+                type = CUSTOMER;
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/customers/" + (1 + random.nextInt(records))))
+                        .GET().build();
+            } else {
+                type = LOOKUP;
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/inventory/" + (1 + random.nextInt(records))))
+                        .GET().build();
+            }
+            long t0 = System.nanoTime();
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                long nanos = System.nanoTime() - t0;
+                if (!measuring) {
+                    continue;
+                }
+                int status = response.statusCode();
+                if (status == 200) {
+                    histograms[type].record(nanos);
+                } else if (status == 400 && type == CHECKOUT) {
+                    stockRejects.incrementAndGet(); // sold out: still a full round trip
+                    histograms[type].record(nanos);
+                } else {
+                    errors.incrementAndGet();
+                }
+            } catch (IOException e) {
+                if (measuring) {
+                    errors.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void report(PrintStream out, int terminals, double elapsed) {
+        long total = 0;
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < histograms.length; i++) {
+            LatencyHistogram.Snapshot s = histograms[i].snapshot();
+            total += s.getCount();
+            if (s.getCount() == 0) {
+                continue;
+            }
+            lines.add(String.format("%-22s %9d %9.0f %9.3f %9.3f %9.3f %9.3f %9.3f", TYPE_NAMES[i], s.getCount(),
+                    s.getCount() / elapsed, ms(s.percentile(0.50)), ms(s.percentile(0.90)), ms(s.percentile(0.99)),
+                    ms(s.percentile(0.999)), ms(s.getMax())));
+        }
+        out.printf("%d terminals, %.1f s, %d requests, %.0f req/s, %d errors, %d checkouts rejected for stock%n",
+                terminals, elapsed, total, total / elapsed, errors.get(), stockRejects.get());
+        out.printf("%-22s %9s %9s %9s %9s %9s %9s %9s%n", "request", "count", "req/s", "p50 ms", "p90 ms", "p99 ms",
+                "p99.9 ms", "max ms");
+        for (String line : lines) {
+            out.println(line);
+        }
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                System.err.println("Ignoring argument: " + args[i]);
+            }
+        }
+        return options;
+    }
+}
@@ -0,0 +1,63 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup loads of customers.txt and orders.txt with 1k, 100k and 1M
+ * records.
+ *
+ * @author elkhedewy-group
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LoadBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int records;
+
+    private BenchData data;
+    private String customersFile;
+    private List<Customer> customers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchData.silenceStdout();
+        data = BenchData.create(records);
+        customersFile = data.file("customers.txt").getPath();
+        customers = Customer.loadCustomersFromFile(customersFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        data.delete();
+    }
+
+    @Benchmark
+    public List<Customer> loadCustomersFromFile() {
+        return Customer.loadCustomersFromFile(customersFile);
+    }
+
+    @Benchmark
+    public List<Order> loadOrdersFromFile() {
+        return Order.loadOrdersFromFile(customers);
+    }
+}
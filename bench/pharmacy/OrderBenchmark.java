@@ -0,0 +1,73 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Checkout path of a single {@link Order}: totalling its lines and
+ * appending it to orders.txt / order_details.txt. The order files already
+ * hold {@code records} orders, the cart holds {@code lines} products.
+ *
+ * @author elkhedewy-group
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OrderBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int records;
+
+    @Param({"1", "10", "100"})
+    public int lines;
+
+    private BenchData data;
+    private Order order;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchData.silenceStdout();
+        data = BenchData.create(records);
+        Inventory inventory = new Inventory();
+        List<Product> products = inventory.getProducts();
+        Customer customer = new Customer(1, "Farida", "01012345678");
+        order = new Order(customer, "morning_user");
+        for (int i = 0; i < lines; i++) {
+            order.addItem(products.get(i % products.size()), 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        data.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public double calculateTotal() {
+        return order.calculateTotal();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void completeOrder() {
+        order.completeOrder();
+    }
+}
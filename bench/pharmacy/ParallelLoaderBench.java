@@ -0,0 +1,78 @@
+package pharmacy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Throughput of {@link ParallelOrderLoader} at 1, 2, 4 and 8 threads over a
+ * generated orders.txt / order_details.txt pair.
+ *
+ * Usage: java -cp build/classes:build/bench pharmacy.ParallelLoaderBench [orders] [dir]
+ *
+ * @author elkhedewy-group
+ */
+public class ParallelLoaderBench {
+
+    public static void main(String[] args) throws IOException {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        File dir = args.length > 1 ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir"), "pharmacy-loader-bench");
+        dir.mkdirs();
+        File orders = new File(dir, "orders.txt");
+        File details = new File(dir, "order_details.txt");
+        if (!orders.exists() || !details.exists()) {
+            generate(orderCount, orders, details);
+        }
+        double megabytes = (orders.length() + details.length()) / (1024.0 * 1024.0);
+        System.out.printf("Data: %s (%.1f MB)%n", dir, megabytes);
+
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            int loaded = 0;
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                OrderHistory history = ParallelOrderLoader.load(orders.getPath(), details.getPath(), pool);
+                best = Math.min(best, System.nanoTime() - start);
+                loaded = history.size();
+            }
+            pool.shutdown();
+            double seconds = best / 1e9;
+            System.out.printf("threads=%d  %8.1f ms  %8.1f MB/s  %,12.0f orders/s%n",
+                    threads, best / 1e6, megabytes / seconds, loaded / seconds);
+        }
+    }
+
+    private static void generate(int orderCount, File orders, File details) throws IOException {
+        String[] customers = {"Farida", "Haneen", "Ahmed", "Ammar", "Mohammed"};
+        String[] products = {"Panadol", "Insulin", "Face Cream", "Aspirin", "Shampoo", "Sunscreen SPF50"};
+        String[] cashiers = {"Farida", "Ammar", "morning_user", "evening_user"};
+        Random random = new Random(42);
+        long time = 1735689600L;
+        TimestampCodec codec = TimestampCodec.system();
+        try (BufferedWriter o = new BufferedWriter(new FileWriter(orders), 1 << 16);
+                BufferedWriter d = new BufferedWriter(new FileWriter(details), 1 << 16)) {
+            for (int id = 1; id <= orderCount; id++) {
+                time += random.nextInt(60);
+                int customer = random.nextInt(customers.length);
+                double total = 0;
+                int lines = 1 + random.nextInt(3);
+                for (int l = 0; l < lines; l++) {
+                    int product = random.nextInt(products.length);
+                    int qty = 1 + random.nextInt(5);
+                    double price = 10 + product * 12.5;
+                    total += qty * price;
+                    d.write(id + "," + (product + 1) + "," + products[product] + "," + qty + ","
+                            + String.format("%.2f", price) + "," + String.format("%.2f", qty * price));
+                    d.newLine();
+                }
+                o.write(id + "," + (customer + 1) + "," + customers[customer] + "," + codec.format(time)
+                        + ",Completed," + String.format("%.2f", total) + "," + cashiers[random.nextInt(cashiers.length)]);
+                o.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package pharmacy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Runs a primary and a {@link ReplicaStandby} as two processes on
+ * localhost: checkouts and shift changes on the primary, replicated to
+ * the standby's directory. Afterwards the two directories must hold the
+ * same files byte for byte, and a service opened on the standby's copy
+ * (a takeover) must see the same inventory. Reports checkout latency and
+ * the replication lag per batch; exits with status 1 if the copies
+ * differ.
+ *
+ * Usage:
+ *   java -cp build/classes:build/bench/classes pharmacy.ReplicationBench [checkouts] [records]
+ *
+ * @author elkhedewy-group
+ */
+public class ReplicationBench {
+    public static void main(String[] args) throws Exception {
+        int checkouts = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int records = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Path standbyDir = Files.createTempDirectory("pharmacy-standby");
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Process standby = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), "-Dpharmacy.data.dir=" + standbyDir,
+                "pharmacy.ReplicaStandby", String.valueOf(port)).redirectErrorStream(true).start();
+        BufferedReader standbyOut = new BufferedReader(new InputStreamReader(standby.getInputStream()));
+        String line;
+        while ((line = standbyOut.readLine()) != null && !line.contains("listening")) {
+            // wait for the standby to be up
+        }
+
+        BenchData data = BenchData.create(records);
+        System.setProperty("pharmacy.replica.target", "localhost:" + port);
+        PrintStream out = System.out;
+        BenchData.silenceStdout();
+        boolean pass;
+        try {
+            PharmacyService primary = new PharmacyService();
+            SplittableRandom random = new SplittableRandom(11);
+            LatencyHistogram latency = new LatencyHistogram();
+            for (int i = 0; i < checkouts; i++) {
+                Map<Integer, Integer> quantities = new LinkedHashMap<>();
+                quantities.put(1 + random.nextInt(records), 1 + random.nextInt(2));
+                long start = System.nanoTime();
+                try {
+                    primary.checkout(1 + random.nextInt(records), quantities, "bench");
+                } catch (IllegalArgumentException e) {
+                    // sold out
+                }
+                latency.recordSince(start);
+                if (i == checkouts / 2) {
+                    primary.endShift("bench");
+                }
+            }
+            primary.endShift("bench");
+            long lagBeforeClose = primary.getReplicationLagMillis();
+            primary.close();
+
+            List<String> differences = compare(data.getDir().toPath(), standbyDir);
+            System.clearProperty("pharmacy.replica.target");
+            System.setProperty(DataFiles.DATA_DIR_PROPERTY, standbyDir.toString());
+            PharmacyService takeover = new PharmacyService();
+            if (!stock(takeover).equals(stock(primary))) {
+                differences.add("inventory seen by a service on the standby differs");
+            }
+            pass = differences.isEmpty();
+
+            LatencyHistogram.Snapshot lag = Metrics.timer("replica.lag").snapshot();
+            LatencyHistogram.Snapshot s = latency.snapshot();
+            out.printf("checkouts %d, checkout p50 %.3f ms, p99 %.3f ms%n", s.getCount(), ms(s.percentile(0.50)),
+                    ms(s.percentile(0.99)));
+            out.printf("batches %d, %d bytes, lag p50 %.3f ms, p99 %.3f ms, max %.3f ms, lag at close %d ms%n",
+                    lag.getCount(), Metrics.counter("replica.bytes").getCount(), ms(lag.percentile(0.50)),
+                    ms(lag.percentile(0.99)), ms(lag.getMax()), lagBeforeClose);
+            for (String d : differences) {
+                out.println("  DIFF: " + d);
+            }
+            out.println(pass ? "PASS: standby holds the same files as the primary" : "FAIL");
+        } finally {
+            standby.destroy();
+            standby.waitFor();
+            data.delete();
+            try (Stream<Path> paths = Files.walk(standbyDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        System.exit(pass ? 0 : 1);
+    }
+
+    private static List<String> compare(Path primary, Path standby) throws IOException {
+        TreeSet<String> names = new TreeSet<>(files(primary));
+        names.addAll(files(standby));
+        List<String> differences = new ArrayList<>();
+        for (String name : names) {
+            Path a = primary.resolve(name);
+            Path b = standby.resolve(name);
+            if (!Files.exists(a) || !Files.exists(b)) {
+                differences.add(name + " only on the " + (Files.exists(a) ? "primary" : "standby"));
+            } else if (!Arrays.equals(Files.readAllBytes(a), Files.readAllBytes(b))) {
+                differences.add(name + " differs (" + Files.size(a) + " vs " + Files.size(b) + " bytes)");
+            }
+        }
+        return differences;
+    }
+
+    private static List<String> files(Path dir) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) paths::iterator) {
+                String rel = dir.relativize(p).toString().replace(File.separatorChar, '/');
+                if (Files.isRegularFile(p) && !Replicator.excluded(rel)) {
+                    names.add(rel);
+                }
+            }
+        }
+        return names;
+    }
+
+    private static Map<Integer, Integer> stock(PharmacyService service) {
+        Map<Integer, Integer> stock = new LinkedHashMap<>();
+        for (Product p : service.getProducts()) {
+            stock.put(p.getProductId(), p.getQuantity());
+        }
+        return stock;
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,91 @@
+package pharmacy;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Compares the order-file timestamp path before and after TimestampCodec:
+ * a new SimpleDateFormat per call (old Order.loadOrdersFromFile and
+ * saveOrderToFile) against the shared codec.
+ *
+ * Usage: java -cp build/classes:build/bench pharmacy.TimestampCodecBench [iterations]
+ *
+ * @author elkhedewy-group
+ */
+public class TimestampCodecBench {
+
+    public static void main(String[] args) throws ParseException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] samples = new String[1024];
+        long base = 1755800000L;
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = TimestampCodec.system().format(base + i * 7919L);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("--- round " + (round + 1) + " ---");
+            report("parse  SimpleDateFormat (new per call)", iterations, parseOld(samples, iterations));
+            report("parse  TimestampCodec", iterations, parseCodec(samples, iterations));
+            report("format SimpleDateFormat (new per call)", iterations, formatOld(base, iterations));
+            report("format TimestampCodec", iterations, formatCodec(base, iterations));
+        }
+    }
+
+    private static long parseOld(String[] samples, int iterations) throws ParseException {
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            sink += format.parse(samples[i & 1023]).getTime();
+        }
+        consume(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static long parseCodec(String[] samples, int iterations) {
+        TimestampCodec codec = TimestampCodec.system();
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.parseEpochSecond(samples[i & 1023]);
+        }
+        consume(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static long formatOld(long base, int iterations) {
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+            sink += format.format(new Date((base + i) * 1000L)).length();
+        }
+        consume(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static long formatCodec(long base, int iterations) {
+        TimestampCodec codec = TimestampCodec.system();
+        char[] buffer = new char[TimestampCodec.LENGTH];
+        long start = System.nanoTime();
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            codec.format(base + i, buffer, 0);
+            sink += buffer[18];
+        }
+        consume(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, int iterations, long nanos) {
+        System.out.printf("%-42s %8.1f ns/op %12.0f ops/s%n", name,
+                (double) nanos / iterations, iterations * 1e9 / nanos);
+    }
+
+    private static volatile long blackhole;
+
+    private static void consume(long value) {
+        blackhole = value;
+    }
+}
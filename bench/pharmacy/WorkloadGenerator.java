@@ -0,0 +1,483 @@
+package pharmacy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic data and load for scale testing.
+ *
+ * generate: writes inventory.txt, customers.txt, orders.txt,
+ * order_details.txt, shift_summaries.txt, the archived and current shift
+ * order files and current_shift.txt into a data directory, in exactly the
+ * formats the application writes. Product and customer popularity follow a
+ * Zipf distribution, orders arrive as a Poisson process and are split into
+ * morning (06:00-18:00) and evening shifts. Output is streamed, so millions
+ * of orders need no more memory than one shift's worth.
+ *
+ * replay: points the domain classes at a data directory and checks out
+ * orders through {@link Order} and {@link Inventory} at a fixed rate,
+ * recording the latency of each checkout from its scheduled start (so a
+ * stall is charged to the orders queued behind it).
+ *
+ * Usage:
+ *   java -cp build/classes:build/bench/classes pharmacy.WorkloadGenerator generate [options]
+ *   java -cp build/classes:build/bench/classes pharmacy.WorkloadGenerator replay [options]
+ *
+ * Options (defaults in brackets):
+ *   --dir          data directory [workload]
+ *   --products     catalog size [10000]
+ *   --customers    customer count [100000]
+ *   --orders       generate: orders to write [1000000]; replay: orders to check out [10000]
+ *   --days         generate: days of history the orders span [90]
+ *   --skew         Zipf exponent for product and customer popularity [1.1]
+ *   --max-lines    most lines in one order [5]
+ *   --seed         random seed [42]
+ *   --rate         replay: target orders per second [50]
+ *
+ * @author elkhedewy-group
+ */
+public class WorkloadGenerator {
+    private static final String[] MEDICINES = {"Panadol", "Paracetamol", "Ibuprofen", "Aspirin", "Amoxicillin",
+        "Insulin", "Omeprazole", "Metformin", "Vitamin C Tablets", "Vitamin D3", "Cough Syrup", "Antihistamine",
+        "Loratadine", "Cetirizine", "Azithromycin", "Diclofenac Gel", "Zinc Tablets", "Iron Supplement"};
+    private static final String[] STRENGTHS = {"100mg", "250mg", "500mg", "1g", "5ml", "10ml", "100ml"};
+    private static final String[] COSMETICS = {"Face Cream", "Sunscreen SPF50", "Moisturizer", "Shampoo",
+        "Conditioner", "Lip Balm", "Hand Cream", "Face Wash", "Body Lotion", "Serum", "Toner", "Night Cream"};
+    private static final String[] SIZES = {"30ml", "50ml", "100ml", "200ml", "400ml"};
+    private static final String[] SKIN_TYPES = {"normal", "dry", "oily", "sensitive", "combination"};
+    private static final String[] FIRST_NAMES = {"Farida", "Haneen", "Ahmed", "Ammar", "Mohammed", "Mona", "Omar",
+        "Nour", "Youssef", "Salma", "Karim", "Laila", "Hassan", "Aya", "Mostafa", "Dina", "Ali", "Rana"};
+    private static final String[] LAST_NAMES = {"Ibrahim", "Hassan", "Ali", "Mahmoud", "Khaled", "Emad",
+        "Elkhedewy", "Saeed", "Fathy", "Mostafa", "Adel", "Samir", "Nabil", "Fouad"};
+    private static final String[] MORNING_CASHIERS = {"morning_user", "Farida", "Ammar"};
+    private static final String[] EVENING_CASHIERS = {"evening_user", "admin"};
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || (!args[0].equals("generate") && !args[0].equals("replay"))) {
+            System.err.println("Usage: WorkloadGenerator generate|replay [--dir d] [--products n] [--customers n]"
+                    + " [--orders n] [--days n] [--skew s] [--max-lines n] [--seed n] [--rate r]");
+            System.exit(2);
+        }
+        Map<String, String> options = parseOptions(args);
+        if (args[0].equals("generate")) {
+            generate(options);
+        } else {
+            replay(options);
+        }
+    }
+
+    // ===================== Generate =====================
+
+    private static void generate(Map<String, String> options) throws IOException {
+        File dir = new File(options.getOrDefault("dir", "workload"));
+        int productCount = intOption(options, "products", 10_000);
+        int customerCount = intOption(options, "customers", 100_000);
+        int orderCount = intOption(options, "orders", 1_000_000);
+        int days = intOption(options, "days", 90);
+        double skew = Double.parseDouble(options.getOrDefault("skew", "1.1"));
+        int maxLines = intOption(options, "max-lines", 5);
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+        dir.mkdirs();
+
+        long started = System.nanoTime();
+        Catalog catalog = writeCatalog(new File(dir, "inventory.txt"), productCount, orderCount, random);
+        String[] customers = writeCustomers(new File(dir, "customers.txt"), customerCount, random);
+        ZipfSampler products = new ZipfSampler(productCount, skew, random);
+        ZipfSampler buyers = new ZipfSampler(customerCount, skew, random);
+
+        long end = Instant.now().getEpochSecond();
+        long start = end - days * 86400L;
+        double meanGap = (double) (end - start) / Math.max(1, orderCount);
+        TimestampCodec codec = TimestampCodec.system();
+        ShiftWriter shifts = new ShiftWriter(dir, start, random);
+
+        try (BufferedWriter orders = new BufferedWriter(new FileWriter(new File(dir, "orders.txt")), 1 << 16);
+                BufferedWriter details = new BufferedWriter(new FileWriter(new File(dir, "order_details.txt")), 1 << 16)) {
+            double time = start;
+            int[] lineProducts = new int[maxLines];
+            for (int orderId = 1; orderId <= orderCount; orderId++) {
+                time += -Math.log(1 - random.nextDouble()) * meanGap;
+                long second = Math.min((long) time, end);
+                shifts.advanceTo(second);
+
+                int customer = buyers.next();
+                int lines = 1 + (int) Math.min(maxLines - 1, -Math.log(1 - random.nextDouble()) * 0.8);
+                int distinct = 0;
+                double total = 0;
+                for (int l = 0; l < lines; l++) {
+                    int product = products.next();
+                    if (contains(lineProducts, distinct, product)) {
+                        continue;
+                    }
+                    lineProducts[distinct++] = product;
+                    int qty = 1 + (random.nextInt(10) == 0 ? random.nextInt(5) : 0);
+                    double price = catalog.prices[product];
+                    total += qty * price;
+                    details.write(orderId + "," + (product + 1) + "," + catalog.names[product] + "," + qty + ","
+                            + String.format("%.2f", price) + "," + String.format("%.2f", qty * price));
+                    details.newLine();
+                }
+                String cashier = shifts.cashier();
+                orders.write(orderId + "," + (customer + 1) + "," + customers[customer] + "," + codec.format(second)
+                        + ",Completed," + String.format("%.2f", total) + "," + cashier);
+                orders.newLine();
+                shifts.record(orderId, customers[customer], total, distinct);
+            }
+        }
+        shifts.finish();
+
+        System.out.printf("Generated %,d products, %,d customers, %,d orders over %d days (%d shifts) in %s in %.1f s%n",
+                productCount, customerCount, orderCount, days, shifts.count, dir, (System.nanoTime() - started) / 1e9);
+    }
+
+    private static Catalog writeCatalog(File file, int count, int orderCount, Random random) throws IOException {
+        Catalog catalog = new Catalog(count);
+        // enough stock that replaying the generated history never runs dry
+        int baseStock = 50 + orderCount / Math.max(1, count);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < count; i++) {
+                int id = i + 1;
+                String type;
+                String special;
+                String name;
+                double price;
+                if (random.nextInt(100) < 65) {
+                    type = "Medicine";
+                    name = MEDICINES[random.nextInt(MEDICINES.length)] + " " + STRENGTHS[random.nextInt(STRENGTHS.length)];
+                    special = String.valueOf(random.nextInt(5) == 0);
+                    price = Math.round(Math.exp(2.5 + random.nextGaussian() * 0.9) * 4) / 4.0 + 1;
+                } else {
+                    type = "Cosmetic";
+                    name = COSMETICS[random.nextInt(COSMETICS.length)] + " " + SIZES[random.nextInt(SIZES.length)];
+                    special = SKIN_TYPES[random.nextInt(SKIN_TYPES.length)];
+                    price = Math.round(Math.exp(4 + random.nextGaussian() * 0.6) * 4) / 4.0 + 1;
+                }
+                if (count > MEDICINES.length * STRENGTHS.length) {
+                    name = name + " #" + id;
+                }
+                catalog.names[i] = name;
+                catalog.prices[i] = price;
+                int qty = baseStock + random.nextInt(baseStock + 1);
+                writer.write(id + "," + name + "," + price + "," + qty + "," + type + "," + special);
+                writer.newLine();
+            }
+        }
+        return catalog;
+    }
+
+    private static String[] writeCustomers(File file, int count, Random random) throws IOException {
+        String[] names = new String[count];
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            for (int i = 0; i < count; i++) {
+                names[i] = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+                String phone = "01" + "0125".charAt(random.nextInt(4)) + String.format("%08d", random.nextInt(100_000_000));
+                writer.write((i + 1) + "," + names[i] + "," + phone);
+                writer.newLine();
+            }
+        }
+        return names;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Catalog {
+        final String[] names;
+        final double[] prices;
+
+        Catalog(int count) {
+            names = new String[count];
+            prices = new double[count];
+        }
+    }
+
+    /**
+     * Splits the order stream into morning and evening shifts and writes
+     * what the GUI leaves behind for each: a summary block, an archived
+     * order list, and for the last (still open) shift its state files.
+     */
+    private static final class ShiftWriter {
+        private final File dir;
+        private final Random random;
+        private final ZoneId zone = ZoneId.systemDefault();
+        private final PrintWriter summaries;
+        private final List<String> lines = new ArrayList<>();
+        private final List<Integer> orderIds = new ArrayList<>();
+
+        private long shiftStart;
+        private long shiftEnd;
+        private boolean morning;
+        private String cashier;
+        private int orders;
+        private int items;
+        private double revenue;
+        int count;
+
+        ShiftWriter(File dir, long start, Random random) throws IOException {
+            this.dir = dir;
+            this.random = random;
+            this.summaries = new PrintWriter(new BufferedWriter(new FileWriter(new File(dir, "shift_summaries.txt"))));
+            open(start);
+        }
+
+        void advanceTo(long second) throws IOException {
+            while (second >= shiftEnd) {
+                close(shiftEnd);
+                open(shiftEnd);
+            }
+        }
+
+        String cashier() {
+            return cashier;
+        }
+
+        void record(int orderId, String customer, double total, int lineCount) {
+            orders++;
+            orderIds.add(orderId);
+            items += lineCount;
+            revenue += total;
+            lines.add("  - Order #" + orderId + " | Customer: " + customer + " | Total: $" + String.format("%.2f", total));
+        }
+
+        void finish() throws IOException {
+            summaries.close();
+            String type = morning ? "morning" : "evening";
+            try (PrintWriter writer = new PrintWriter(new FileWriter(new File(dir, "current_shift.txt")))) {
+                writer.println("SHIFT_TYPE=" + (morning ? "MORNING" : "EVENING"));
+                writer.println("SHIFT_START_TIME=" + TimestampCodec.system().format(shiftStart));
+            }
+            writeOrderIds(new File(dir, type + "_shift_orders.txt"));
+        }
+
+        private void open(long start) {
+            ZonedDateTime at = Instant.ofEpochSecond(start).atZone(zone);
+            int hour = at.getHour();
+            morning = hour >= 6 && hour < 18;
+            LocalDate day = at.toLocalDate();
+            ZonedDateTime end = morning ? day.atTime(18, 0).atZone(zone)
+                    : (hour >= 18 ? day.plusDays(1) : day).atTime(6, 0).atZone(zone);
+            shiftStart = start;
+            shiftEnd = end.toEpochSecond();
+            String[] cashiers = morning ? MORNING_CASHIERS : EVENING_CASHIERS;
+            cashier = cashiers[random.nextInt(cashiers.length)];
+            orders = 0;
+            items = 0;
+            revenue = 0;
+            lines.clear();
+            orderIds.clear();
+            count++;
+        }
+
+        private void close(long end) throws IOException {
+            String type = morning ? "morning" : "evening";
+            summaries.println("=== " + (morning ? "MORNING SHIFT" : "EVENING SHIFT") + " SUMMARY ===");
+            summaries.println("Start Time: " + new Date(shiftStart * 1000));
+            summaries.println("End Time: " + new Date(end * 1000));
+            summaries.println("Total Orders: " + orders);
+            summaries.println("Total Items Sold: " + items);
+            summaries.println("Total Revenue: $" + String.format("%.2f", revenue));
+            summaries.println("Cashier: " + cashier);
+            summaries.println("Orders in this shift:");
+            for (String line : lines) {
+                summaries.println(line);
+            }
+            summaries.println("=====================================");
+            summaries.println();
+
+            String stamp = TimestampCodec.system().format(shiftStart).replace(":", "-").replace(" ", "_");
+            writeOrderIds(new File(dir, "archived_" + type + "_" + stamp + "_orders.txt"));
+        }
+
+        private void writeOrderIds(File file) throws IOException {
+            try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+                for (int orderId : orderIds) {
+                    writer.println("ORDER_ID=" + orderId);
+                }
+            }
+        }
+    }
+
+    // ===================== Replay =====================
+
+    private static void replay(Map<String, String> options) {
+        File dir = new File(options.getOrDefault("dir", "workload"));
+        if (!new File(dir, "inventory.txt").exists()) {
+            System.err.println("[ERR] No inventory.txt in " + dir + ", run generate first");
+            System.exit(1);
+        }
+        // must be set before Order is first used, it reads its counter on class init
+        System.setProperty(DataFiles.DATA_DIR_PROPERTY, dir.getPath());
+        int orderCount = intOption(options, "orders", 10_000);
+        double rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+        double skew = Double.parseDouble(options.getOrDefault("skew", "1.1"));
+        int maxLines = intOption(options, "max-lines", 5);
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "42")));
+
+        PrintStream out = System.out;
+        Inventory inventory = new Inventory();
+        List<Product> products = new ArrayList<>(inventory.getProducts());
+        List<Customer> customers = Customer.loadCustomersFromFile(DataFiles.path("customers.txt"));
+        if (products.isEmpty() || customers.isEmpty()) {
+            System.err.println("[ERR] Replay needs products and customers in " + dir);
+            System.exit(1);
+        }
+        ZipfSampler productSampler = new ZipfSampler(products.size(), skew, random);
+        ZipfSampler customerSampler = new ZipfSampler(customers.size(), skew, random);
+        out.printf("Replaying %,d orders at %.1f orders/s against %s (%,d products, %,d customers)%n",
+                orderCount, rate, dir, products.size(), customers.size());
+
+        // the domain classes log every save; keep the report readable
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long[] latencies = new long[orderCount];
+        long[] service = new long[orderCount];
+        int failed = 0;
+        long intervalNanos = (long) (1e9 / rate);
+        long startNanos = System.nanoTime();
+        try {
+            for (int i = 0; i < orderCount; i++) {
+                long scheduled = startNanos + i * intervalNanos;
+                long wait;
+                while ((wait = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long begin = System.nanoTime();
+                try {
+                    checkout(inventory, products, customers, productSampler, customerSampler, maxLines, random);
+                } catch (RuntimeException e) {
+                    failed++;
+                }
+                long done = System.nanoTime();
+                latencies[i] = done - scheduled;
+                service[i] = done - begin;
+            }
+        } finally {
+            System.setOut(out);
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        out.printf("Completed in %.1f s, %.1f orders/s achieved, %d failed%n", seconds, orderCount / seconds, failed);
+        report(out, "latency (from schedule)", latencies);
+        report(out, "service time", service);
+    }
+
+    /**
+     * Same sequence of domain calls as the checkout button in the GUI.
+     */
+    private static void checkout(Inventory inventory, List<Product> products, List<Customer> customers,
+            ZipfSampler productSampler, ZipfSampler customerSampler, int maxLines, Random random) {
+        Customer customer = customers.get(customerSampler.next());
+        Order order = new Order(customer, "replay");
+        int lines = 1 + random.nextInt(maxLines);
+        for (int l = 0; l < lines; l++) {
+            Product product = inventory.getProductById(products.get(productSampler.next()).getProductId());
+            if (product.getQuantity() < 10) {
+                // keep popular items in stock for long runs
+                product.setQuantity(product.getQuantity() + 1000);
+            }
+            order.addItem(product, 1);
+        }
+        order.completeOrder();
+        for (OrderItem item : order.getItems()) {
+            Product product = item.getProduct();
+            product.setQuantity(product.getQuantity() - item.getQuantity());
+        }
+        inventory.saveToFile();
+    }
+
+    private static void report(PrintStream out, String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        out.printf("%-24s p50=%.2f ms  p90=%.2f ms  p99=%.2f ms  p99.9=%.2f ms  max=%.2f ms%n", label,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    // ===================== Helpers =====================
+
+    /**
+     * Draws ranks 0..n-1 with probability proportional to 1 / (rank + 1)^skew.
+     * Ranks are shuffled onto ids once, so the best sellers are spread over
+     * the catalog instead of being the lowest ids.
+     */
+    static final class ZipfSampler {
+        private final double[] cdf;
+        private final int[] ids;
+        private final Random random;
+
+        ZipfSampler(int n, double skew, Random random) {
+            this.random = random;
+            this.cdf = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1.0 / Math.pow(k + 1, skew);
+                cdf[k] = sum;
+            }
+            for (int k = 0; k < n; k++) {
+                cdf[k] /= sum;
+            }
+            this.ids = new int[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = i;
+            }
+            for (int i = n - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = ids[i];
+                ids[i] = ids[j];
+                ids[j] = t;
+            }
+        }
+
+        int next() {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble());
+            if (rank < 0) {
+                rank = -rank - 1;
+            }
+            return ids[Math.min(rank, ids.length - 1)];
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                System.err.println("[ERR] Bad option: " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value.replace("_", ""));
+    }
+}
@@ -0,0 +1,252 @@
+package pharmacy;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Batch checkout of queued sales from a JSON Lines file, one order per
+ * line:
+ *
+ *   {"ref":"pos2-0017","customerId":3,"soldBy":"Ammar","items":[{"productId":1,"quantity":2}]}
+ *
+ * ref and soldBy are optional. Lines are read in windows of
+ * -Dpharmacy.batch.group lines (default 500). Within a window the lines are
+ * parsed in parallel, then each order is validated and its stock reserved
+ * through {@link PharmacyService#reserveOrder}. An order waits for the
+ * earlier orders in the file that share one of its products, so stock is
+ * handed out in file order; orders with no product in common run in
+ * parallel. The window's accepted orders are then written together with
+ * {@link PharmacyService#commitOrders}, one inventory save per window
+ * instead of one per order. If that write fails the window's orders are
+ * rejected and their stock is put back.
+ *
+ * Every non-blank input line gets a line in the result file, in input
+ * order: {"line":n,"ref":...,"status":"ok","orderId":..,"total":..} or
+ * {"line":n,"ref":...,"status":"rejected","error":"..."}.
+ *
+ * @author elkhedewy-group
+ */
+public final class BatchIngest {
+    private static final Log LOG = Log.get(BatchIngest.class);
+    private static final Metrics.Timer WINDOW_TIMER = Metrics.timer("batch.window");
+
+    private final PharmacyService service;
+    private final ExecutorService executor;
+    private final int groupSize;
+    private final String defaultCashier;
+    private int accepted;
+    private int rejected;
+
+    public BatchIngest(PharmacyService service, int threads, int groupSize, String defaultCashier) {
+        this.service = service;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "pharmacy-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        this.groupSize = groupSize;
+        this.defaultCashier = defaultCashier;
+    }
+
+    public static BatchIngest fromSystemProperties(PharmacyService service) {
+        int threads = Integer.getInteger("pharmacy.batch.threads", Runtime.getRuntime().availableProcessors());
+        int group = Integer.getInteger("pharmacy.batch.group", 500);
+        return new BatchIngest(service, Math.max(1, threads), Math.max(1, group), "batch");
+    }
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Ingests input and writes one result per order line to results.
+     */
+    public void run(Path input, Path results) throws IOException {
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+                BufferedWriter writer = Files.newBufferedWriter(results, StandardCharsets.UTF_8)) {
+            List<Entry> window = new ArrayList<>(groupSize);
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                window.add(new Entry(lineNo, line));
+                if (window.size() == groupSize) {
+                    processWindow(window, writer);
+                    window.clear();
+                }
+            }
+            processWindow(window, writer);
+        } finally {
+            executor.shutdown();
+        }
+        LOG.info("batch.done", "input", input.toString(), "accepted", accepted, "rejected", rejected,
+                "ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void processWindow(List<Entry> window, BufferedWriter writer) throws IOException {
+        if (window.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> parsing = new ArrayList<>(window.size());
+        for (Entry e : window) {
+            parsing.add(CompletableFuture.runAsync(e::parse, executor));
+        }
+        CompletableFuture.allOf(parsing.toArray(CompletableFuture<?>[]::new)).join();
+
+        // chain each order behind the last earlier order touching any of its products
+        Map<Integer, CompletableFuture<Void>> tails = new HashMap<>();
+        List<CompletableFuture<Void>> reserving = new ArrayList<>(window.size());
+        for (Entry e : window) {
+            if (e.error != null) {
+                continue;
+            }
+            List<CompletableFuture<Void>> before = new ArrayList<>();
+            for (Integer productId : e.quantities.keySet()) {
+                CompletableFuture<Void> tail = tails.get(productId);
+                if (tail != null) {
+                    before.add(tail);
+                }
+            }
+            CompletableFuture<Void> f = before.isEmpty()
+                    ? CompletableFuture.runAsync(e::reserve, executor)
+                    : CompletableFuture.allOf(before.toArray(CompletableFuture<?>[]::new)).thenRunAsync(e::reserve, executor);
+            for (Integer productId : e.quantities.keySet()) {
+                tails.put(productId, f);
+            }
+            reserving.add(f);
+        }
+        CompletableFuture.allOf(reserving.toArray(CompletableFuture<?>[]::new)).join();
+
+        List<Order> group = new ArrayList<>();
+        for (Entry e : window) {
+            if (e.order != null) {
+                group.add(e.order);
+            }
+        }
+        try {
+            service.commitOrders(group);
+        } catch (IllegalStateException ex) {
+            // the service put their stock back
+            LOG.error("batch.commitFailed", "orders", group.size(), "error", ex.getMessage());
+            for (Entry e : window) {
+                if (e.order != null) {
+                    e.order = null;
+                    e.error = ex.getMessage();
+                }
+            }
+        }
+
+        StringBuilder out = new StringBuilder(window.size() * 64);
+        for (Entry e : window) {
+            e.writeResult(out);
+            if (e.order != null) {
+                accepted++;
+            } else {
+                rejected++;
+            }
+        }
+        writer.write(out.toString());
+        writer.flush();
+        WINDOW_TIMER.recordSince(start);
+    }
+
+    private final class Entry {
+        final int lineNo;
+        final String text;
+        String ref;
+        int customerId;
+        String soldBy;
+        Map<Integer, Integer> quantities;
+        Order order;
+        String error;
+
+        Entry(int lineNo, String text) {
+            this.lineNo = lineNo;
+            this.text = text;
+        }
+
+        void parse() {
+            try {
+                Object value = Json.parse(text);
+                if (!(value instanceof Map)) {
+                    throw new IllegalArgumentException("Expected a JSON object");
+                }
+                Map<?, ?> map = (Map<?, ?>) value;
+                Object r = map.get("ref");
+                ref = r != null ? String.valueOf(r) : null;
+                customerId = intField(map, "customerId");
+                Object cashier = map.get("soldBy");
+                soldBy = cashier instanceof String && !((String) cashier).isBlank() ? (String) cashier : defaultCashier;
+                Object items = map.get("items");
+                if (!(items instanceof List) || ((List<?>) items).isEmpty()) {
+                    throw new IllegalArgumentException("items must be a non-empty array");
+                }
+                quantities = new LinkedHashMap<>();
+                for (Object item : (List<?>) items) {
+                    if (!(item instanceof Map)) {
+                        throw new IllegalArgumentException("Each item must be an object");
+                    }
+                    Map<?, ?> m = (Map<?, ?>) item;
+                    quantities.merge(intField(m, "productId"), intField(m, "quantity"), Integer::sum);
+                }
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+        }
+
+        void reserve() {
+            try {
+                order = service.reserveOrder(customerId, quantities, soldBy);
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            } catch (RuntimeException e) {
+                error = "Internal error: " + e;
+                LOG.error("batch.reserveFailed", "line", lineNo, "error", String.valueOf(e));
+            }
+        }
+
+        void writeResult(StringBuilder out) {
+            out.append("{\"line\":").append(lineNo);
+            if (ref != null) {
+                Json.quote(out.append(",\"ref\":"), ref);
+            }
+            if (order != null) {
+                out.append(",\"status\":\"ok\",\"orderId\":").append(order.getOrderId())
+                        .append(",\"total\":").append(String.format("%.2f", order.getTotalAmount()));
+            } else {
+                out.append(",\"status\":\"rejected\",\"error\":");
+                Json.quote(out, error);
+            }
+            out.append("}\n");
+        }
+    }
+
+    private static int intField(Map<?, ?> map, String name) {
+        Object v = map.get(name);
+        if (!(v instanceof Long) || (Long) v < Integer.MIN_VALUE || (Long) v > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(name + " must be an integer");
+        }
+        return ((Long) v).intValue();
+    }
+}
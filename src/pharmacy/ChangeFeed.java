@@ -0,0 +1,473 @@
+package pharmacy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change-data-capture log: every completed order, stock change, product
+ * edit and new customer as one NDJSON line, so accounting or the supplier
+ * portal can process deltas instead of re-reading orders.txt and
+ * inventory.txt.
+ *
+ *   {"offset":41,"time":1760870000000,"type":"STOCK_CHANGED","seq":42,"key":7,
+ *    "data":{"productId":7,"delta":-2,"quantity":98,"reason":"SALE"}}
+ *
+ * Offsets start at 0 and go up by one per line, across restarts. Lines are
+ * written to segments named changes-&lt;first offset&gt;.ndjson in
+ * -Dpharmacy.cdc.dir (default cdc in the data directory); a new segment is
+ * started once the current one reaches -Dpharmacy.cdc.segmentBytes
+ * (default 16 MB). Old segments are never rewritten and may be archived
+ * or deleted once every consumer is past them.
+ *
+ * The feed is a BLOCK subscriber of the service's {@link EventBus} with a
+ * large buffer, so checkout does not wait for its disk writes. If events
+ * are lost anyway (the buffer overflowed for longer than the block
+ * timeout) a {"type":"GAP","missed":n} line is written in their place:
+ * consumers should then resync from the data files.
+ *
+ * Instances sharing the data directory share the feed. Each line is written
+ * under the feed's {@link DataLocks} lease: the writer first follows what
+ * the others appended or rotated since, so offsets stay one sequence in
+ * file order.
+ *
+ * {@link Reader} follows the feed from a stored offset. -Dpharmacy.cdc=false
+ * turns the feed off.
+ *
+ * @author elkhedewy-group
+ */
+public final class ChangeFeed implements Flow.Subscriber<DomainEvent> {
+    private static final String PREFIX = "changes-";
+    private static final String SUFFIX = ".ndjson";
+    private static final Log LOG = Log.get(ChangeFeed.class);
+    private static final Metrics.Counter WRITTEN = Metrics.counter("cdc.written");
+    private static final Metrics.Counter GAPS = Metrics.counter("cdc.gaps");
+
+    private final Path dir;
+    private final String leasePath;
+    private final long segmentBytes;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private FileChannel segment;
+    private String segmentPath;
+    private long segmentSize;
+    private long nextOffset;
+    private long lastSequence;
+
+    private ChangeFeed(Path dir, long segmentBytes) {
+        this.dir = dir;
+        this.leasePath = dir.resolve("changes").toString();
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens the feed in dir, continuing after the last complete line of the
+     * newest segment. A line torn by a crash is cut off.
+     */
+    public static ChangeFeed open(Path dir, long segmentBytes) throws IOException {
+        Files.createDirectories(dir);
+        ChangeFeed feed = new ChangeFeed(dir, Math.max(1024, segmentBytes));
+        try (DataLocks.Lease lease = DataLocks.get().lease(feed.leasePath)) {
+            lease.write(() -> {
+                List<Path> segments = segments(dir);
+                if (segments.isEmpty()) {
+                    feed.startSegment();
+                } else {
+                    feed.openSegment(segments.get(segments.size() - 1));
+                    feed.follow();
+                }
+            });
+        }
+        return feed;
+    }
+
+    /**
+     * The feed configured by system properties, or null when it is turned
+     * off or cannot be opened.
+     */
+    static ChangeFeed fromSystemProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("pharmacy.cdc", "true"))) {
+            return null;
+        }
+        Path dir = Paths.get(System.getProperty("pharmacy.cdc.dir", DataFiles.path("cdc")));
+        try {
+            return open(dir, Long.getLong("pharmacy.cdc.segmentBytes", 16L << 20));
+        } catch (IOException e) {
+            System.out.println("[ERR] Failed to open change feed in " + dir + ", CDC is off: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    // ===================== Writing =====================
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(DomainEvent event) {
+        try {
+            long missed = event.getSequence() - lastSequence - 1;
+            if (lastSequence > 0 && missed > 0) {
+                StringBuilder gap = header(event.getTimeMillis(), "GAP");
+                gap.append(",\"missed\":").append(missed).append("}\n");
+                append(gap);
+                GAPS.increment();
+                LOG.warn("cdc.gap", "missed", missed, "offset", nextOffset - 1);
+            }
+            lastSequence = event.getSequence();
+            StringBuilder line = header(event.getTimeMillis(), event.getType().name());
+            line.append(",\"seq\":").append(event.getSequence()).append(",\"key\":").append(event.getKey())
+                    .append(",\"data\":");
+            Json.write(line, event.getData()).append("}\n");
+            append(line);
+            WRITTEN.increment();
+        } catch (IOException e) {
+            LOG.error("cdc.writeFailed", "offset", nextOffset, "error", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        LOG.error("cdc.failed", "error", String.valueOf(throwable));
+        close();
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+
+    /**
+     * Waits until the bus has completed the feed and it is closed.
+     */
+    public boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return closed.await(timeout, unit);
+    }
+
+    // the line after its offset, which is only known once the feed's lease is taken
+    private StringBuilder header(long time, String type) {
+        return new StringBuilder(256).append(",\"time\":").append(time).append(",\"type\":\"").append(type)
+                .append('"');
+    }
+
+    private void append(CharSequence rest) throws IOException {
+        try (DataLocks.Lease lease = DataLocks.get().lease(leasePath)) {
+            lease.write(() -> {
+                follow();
+                byte[] bytes = new StringBuilder(rest.length() + 32).append("{\"offset\":").append(nextOffset)
+                        .append(rest).toString().getBytes(StandardCharsets.UTF_8);
+                if (segmentSize > 0 && segmentSize + bytes.length > segmentBytes) {
+                    segment.close();
+                    startSegment();
+                }
+                ByteBuffer buf = ByteBuffer.wrap(bytes);
+                while (buf.hasRemaining()) {
+                    segmentSize += segment.write(buf, segmentSize);
+                }
+                nextOffset++;
+            });
+        }
+        DataFiles.changed(segmentPath, true);
+    }
+
+    /**
+     * Catches up with what other instances wrote since this one last did:
+     * lines appended to the current segment, and segments they started
+     * after it. A line torn by an instance that died writing it is cut off.
+     */
+    private void follow() throws IOException {
+        while (true) {
+            if (segment.size() != segmentSize) {
+                segmentSize = lastLineEnd(segment);
+                segment.truncate(segmentSize);
+                nextOffset = segmentSize == 0 ? baseOffset(Paths.get(segmentPath))
+                        : lastOffset(segment, segmentSize) + 1;
+            }
+            // a segment starting at the next offset means the current one was full for someone else
+            Path next = dir.resolve(segmentName(nextOffset));
+            if (next.toString().equals(segmentPath) || !Files.exists(next)) {
+                return;
+            }
+            segment.close();
+            openSegment(next);
+        }
+    }
+
+    private void openSegment(Path file) throws IOException {
+        segment = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentPath = file.toString();
+        segmentSize = -1; // not read yet
+    }
+
+    private void startSegment() throws IOException {
+        Path file = dir.resolve(segmentName(nextOffset));
+        segment = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.truncate(0);
+        segmentPath = file.toString();
+        segmentSize = 0;
+        LOG.info("cdc.segment", "file", file.getFileName().toString(), "offset", nextOffset);
+    }
+
+    private void close() {
+        try {
+            segment.close();
+        } catch (IOException e) {
+            LOG.error("cdc.closeFailed", "error", e.getMessage());
+        }
+        closed.countDown();
+    }
+
+    // ===================== Segments =====================
+    static List<Path> segments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return segments;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path p : stream) {
+                segments.add(p);
+            }
+        }
+        Collections.sort(segments); // zero-padded offsets sort by name
+        return segments;
+    }
+
+    private static String segmentName(long firstOffset) {
+        return String.format("%s%020d%s", PREFIX, firstOffset, SUFFIX);
+    }
+
+    static long baseOffset(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Length of the file up to and including its last newline.
+     */
+    private static long lastLineEnd(FileChannel ch) throws IOException {
+        long size = ch.size();
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        long pos = size;
+        while (pos > 0) {
+            int len = (int) Math.min(buf.capacity(), pos);
+            pos -= len;
+            buf.clear().limit(len);
+            ch.read(buf, pos);
+            for (int i = len - 1; i >= 0; i--) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static long lastOffset(FileChannel ch, long end) throws IOException {
+        long start = end - 1;
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (start > 0) {
+            one.clear();
+            ch.read(one, start - 1);
+            if (one.get(0) == '\n') {
+                break;
+            }
+            start--;
+        }
+        ByteBuffer line = ByteBuffer.allocate((int) Math.min(64, end - start));
+        ch.read(line, start);
+        return parseOffset(new String(line.array(), 0, line.position(), StandardCharsets.UTF_8));
+    }
+
+    static long parseOffset(String line) {
+        String key = "{\"offset\":";
+        if (!line.startsWith(key)) {
+            throw new IllegalArgumentException("Not a change feed line: " + line);
+        }
+        int end = key.length();
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        return Long.parseLong(line.substring(key.length(), end));
+    }
+
+    // ===================== Reading =====================
+    /**
+     * Follows the feed from a given offset. {@link #next()} returns the next
+     * complete line, or null when the reader has caught up; calling it
+     * again later picks up what was written since, moving on to newer
+     * segments as the writer rotates. Store {@link #getNextOffset()} to
+     * resume from there next time.
+     */
+    public static final class Reader implements Closeable {
+        private final Path dir;
+        private long nextOffset;
+        private Path current;
+        private FileChannel channel;
+        private long position;
+        private ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+        private final List<String> ready = new ArrayList<>();
+        private int readyIndex;
+
+        public Reader(Path dir, long fromOffset) {
+            this.dir = dir;
+            this.nextOffset = fromOffset;
+        }
+
+        public long getNextOffset() {
+            return nextOffset;
+        }
+
+        public String next() throws IOException {
+            while (true) {
+                while (readyIndex < ready.size()) {
+                    String line = ready.get(readyIndex++);
+                    long offset = parseOffset(line);
+                    if (offset >= nextOffset) {
+                        nextOffset = offset + 1;
+                        return line;
+                    }
+                }
+                ready.clear();
+                readyIndex = 0;
+                if (channel == null && !openSegment()) {
+                    return null;
+                }
+                if (!fill() && !advance()) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Opens the segment that holds nextOffset: the last one starting at
+         * or before it.
+         */
+        private boolean openSegment() throws IOException {
+            Path found = null;
+            for (Path p : segments(dir)) {
+                if (baseOffset(p) <= nextOffset || found == null) {
+                    found = p;
+                } else {
+                    break;
+                }
+            }
+            if (found == null) {
+                return false;
+            }
+            current = found;
+            channel = FileChannel.open(found, StandardOpenOption.READ);
+            position = 0;
+            return true;
+        }
+
+        /**
+         * Reads the complete lines appended since last time. A line still
+         * being written is left for the next call. Returns false if there
+         * was no new complete line.
+         */
+        private boolean fill() throws IOException {
+            while (true) {
+                buf.clear();
+                int n = channel.read(buf, position);
+                if (n <= 0) {
+                    return false;
+                }
+                int end = n;
+                while (end > 0 && buf.get(end - 1) != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    if (n < buf.capacity()) {
+                        return false;
+                    }
+                    buf = ByteBuffer.allocate(buf.capacity() * 2); // a line longer than the buffer
+                    continue;
+                }
+                String text = new String(buf.array(), 0, end, StandardCharsets.UTF_8);
+                position += end;
+                int start = 0;
+                int nl;
+                while ((nl = text.indexOf('\n', start)) >= 0) {
+                    ready.add(text.substring(start, nl));
+                    start = nl + 1;
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Moves to the next segment once the writer has rotated away from
+         * the current one. Returns false if there is none yet.
+         */
+        private boolean advance() throws IOException {
+            Path next = null;
+            for (Path p : segments(dir)) {
+                if (p.compareTo(current) > 0) {
+                    next = p;
+                    break;
+                }
+            }
+            if (next == null) {
+                return false;
+            }
+            channel.close();
+            current = next;
+            channel = FileChannel.open(next, StandardOpenOption.READ);
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Prints the feed from an offset: java pharmacy.ChangeFeed [fromOffset] [--follow]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long from = 0;
+        boolean follow = false;
+        for (String arg : args) {
+            if (arg.equals("--follow")) {
+                follow = true;
+            } else {
+                from = Long.parseLong(arg);
+            }
+        }
+        Path dir = Paths.get(System.getProperty("pharmacy.cdc.dir", DataFiles.path("cdc")));
+        try (Reader reader = new Reader(dir, from)) {
+            while (true) {
+                String line = reader.next();
+                if (line != null) {
+                    System.out.println(line);
+                } else if (follow) {
+                    Thread.sleep(200);
+                } else {
+                    break;
+                }
+            }
+            System.err.println("Next offset: " + reader.getNextOffset());
+        }
+    }
+}
@@ -59,5 +59,11 @@ public class Cosmetic extends Product {
     public void setQuantity(int quantity) {
         this.quantity = quantity;
     }
-     
+
+    @Override
+    public Cosmetic copy() {
+        Cosmetic c = new Cosmetic(suitableForSkinType, productId, name, price, quantity);
+        c.version = version;
+        return c;
+    }
 }
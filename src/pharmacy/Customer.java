@@ -9,21 +9,39 @@ package pharmacy;
  * @author Farida
  */
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class Customer {
 
+    static final String FILE_NAME = "customers.txt";
     private static int lastId = 0;
     private int customerid;
     private String name;
     private String phone;
 
     public Customer(String name, String phone) {
-        this.customerid = ++lastId;
+        this.customerid = nextId();
+        this.name = name;
+        this.phone = phone;
+    }
+
+    // numbered through customers.txt's sidecar, so instances sharing the data directory never reuse an id
+    private static int nextId() {
+        try {
+            lastId = (int) DataLocks.get().next(DataFiles.path(FILE_NAME), lastId);
+        } catch (IOException e) {
+            System.out.println("[WARN] Customer ids are not shared with other instances: " + e.getMessage());
+            lastId++;
+        }
+        return lastId;
+    }
+
+    // used for rebuilding customers that are referenced by history but no longer on file
+    Customer(int customerid, String name, String phone) {
+        this.customerid = customerid;
         this.name = name;
         this.phone = phone;
     }
@@ -40,9 +58,7 @@ public class Customer {
                     String name = parts[1];
                     String phone = parts[2];
 
-                    Customer c = new Customer(name, phone);
-                    c.customerid = id;
-                    customers.add(c);
+                    customers.add(new Customer(id, name, phone));
 
                     if (id > maxId) {
                         maxId = id;
@@ -56,6 +72,24 @@ public class Customer {
         return customers;
     }
 
+    // a line another instance appended; new ids stay above its id
+    static Customer fromLine(String line) {
+        String[] parts = line.split(",");
+        if (parts.length < 3) {
+            return null;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(parts[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (id > lastId) {
+            lastId = id;
+        }
+        return new Customer(id, parts[1], parts[2]);
+    }
+
     public static void initializeLastId(String fileName) {
         try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
             String line;
@@ -92,12 +126,14 @@ public class Customer {
     }
 
     public void saveToFile(String fileName) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName, true))) {
-            writer.write(customerid + "," + name + "," + phone);
-            writer.newLine();
+        String line = customerid + "," + name + "," + phone + System.lineSeparator();
+        try {
+            // a reserved region: other instances may append at the same time
+            DataLocks.get().append(fileName, line.getBytes(StandardCharsets.UTF_8));
         } catch (IOException e) {
             e.printStackTrace();
         }
+        DataFiles.changed(fileName, true);
     }
 
     @Override
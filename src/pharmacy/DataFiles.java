@@ -0,0 +1,52 @@
+package pharmacy;
+
+import java.io.File;
+
+/**
+ * Resolves the names of the pharmacy's data files. By default they are
+ * relative to the working directory, as they always were; setting
+ * -Dpharmacy.data.dir points the whole application (or a benchmark) at
+ * another directory.
+ *
+ * Code that writes a data file reports it through {@link #changed} once
+ * the write is complete, so a {@link Replicator} can ship it to the
+ * standby. Nothing listens unless replication is on.
+ *
+ * @author elkhedewy-group
+ */
+final class DataFiles {
+    static final String DATA_DIR_PROPERTY = "pharmacy.data.dir";
+
+    interface ChangeListener {
+        void changed(String path, boolean appendOnly);
+    }
+
+    private static volatile ChangeListener listener;
+
+    private DataFiles() {
+    }
+
+    static String path(String fileName) {
+        String dir = System.getProperty(DATA_DIR_PROPERTY);
+        if (dir == null || dir.isEmpty()) {
+            return fileName;
+        }
+        return new File(dir, fileName).getPath();
+    }
+
+    static void setListener(ChangeListener l) {
+        listener = l;
+    }
+
+    /**
+     * Reports that the file at path was written. appendOnly means bytes were
+     * only added at the end; anything else (a rewrite, a truncation, a
+     * rename or a delete) passes false.
+     */
+    static void changed(String path, boolean appendOnly) {
+        ChangeListener l = listener;
+        if (l != null) {
+            l.changed(path, appendOnly);
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordinates writes to the data files between processes sharing a data
+ * directory, so one instance's save never interleaves with or truncates
+ * another's.
+ *
+ * Every coordinated file has a sidecar, name.lock, that is only ever held
+ * with a FileChannel lock for the few microseconds it takes to read and
+ * update it:
+ * <pre>
+ *   long reservedEnd | long leaseOwner | long leaseExpiry | long sequence | int count
+ *   | (long start | int length | long expiry) * count     open reservations
+ * </pre>
+ * <ul>
+ *   <li>A file that is rewritten is written under a {@link Lease}: the
+ *   sidecar names the owner and when the lease runs out,
+ *   -Dpharmacy.lock.leaseMillis (default 10000) after it was taken. Others
+ *   wait for it to be released, or for it to run out, so a holder that
+ *   died does not block anyone for longer than that. The new content goes
+ *   to a temporary file that {@link Lease#commit} moves into place only
+ *   if the lease has not been taken over meanwhile, so a holder that
+ *   stalled past its lease cannot overwrite the next holder's save. A
+ *   file written in place under a lease is written through
+ *   {@link Lease#write}, which makes the same check.</li>
+ *   <li>An append-only file is appended to by reserving a region at its
+ *   end: the sidecar's reservedEnd moves past it, and the region of the
+ *   data file itself is locked before the sidecar is let go. Writers then
+ *   fill their own regions at the same time; nothing is held across
+ *   writes. A reader that takes a shared lock over the tail waits for
+ *   regions still being written. A region whose writer died before
+ *   filling it is padded with blanks by the next appender once its
+ *   reservation has run out.</li>
+ * </ul>
+ * The sequence numbers what is written to the file (order ids, customer
+ * ids), so processes never hand out the same number; see {@link #next}.
+ * Waiting for either gives up after -Dpharmacy.lock.waitMillis (default
+ * 30000) with an IOException. Leases compare wall clock times, so the
+ * clocks of machines sharing a directory must roughly agree.
+ *
+ * Within one process, leases on the same file are re-entrant per thread
+ * and exclusive between threads. The channels stay open for the life of
+ * the process; several services in one JVM share them.
+ *
+ * @author elkhedewy-group
+ */
+final class DataLocks {
+    static final String SUFFIX = ".lock";
+    static final String TEMP_SUFFIX = ".saving";
+    private static final int END = 0;
+    private static final int OWNER = 8;
+    private static final int EXPIRY = 16;
+    private static final int SEQUENCE = 24;
+    private static final int COUNT = 32;
+    private static final int HEADER = 36;
+    private static final int RESERVATION = 20;
+    private static final int MAX_RESERVATIONS = 1024;
+    private static final Log LOG = Log.get(DataLocks.class);
+    private static final Metrics.Timer LEASE_WAIT = Metrics.timer("locks.leaseWait");
+    private static final Metrics.Timer RESERVE_WAIT = Metrics.timer("locks.reserveWait");
+    private static final Metrics.Counter EXPIRED = Metrics.counter("locks.expired");
+    private static final DataLocks INSTANCE = new DataLocks(
+            Math.max(1, Long.getLong("pharmacy.lock.leaseMillis", 10_000)),
+            Math.max(1, Long.getLong("pharmacy.lock.waitMillis", 30_000)));
+
+    private final long leaseMillis;
+    private final long waitMillis;
+    private final ReentrantLock filesLock = new ReentrantLock();
+    private final Map<Path, Sidecar> files = new HashMap<>();
+
+    DataLocks(long leaseMillis, long waitMillis) {
+        this.leaseMillis = leaseMillis;
+        this.waitMillis = waitMillis;
+    }
+
+    static DataLocks get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Takes the lease on the file at path, waiting for another holder to
+     * release it or for its lease to run out. Close the lease when the
+     * write is done.
+     */
+    Lease lease(String path) throws IOException {
+        Sidecar s = sidecar(path);
+        s.leaseLock.lock();
+        if (s.leaseLock.getHoldCount() > 1) {
+            return new Lease(s, 0);
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        long token = ThreadLocalRandom.current().nextLong() | 1;
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                try (Meta m = s.open()) {
+                    long owner = m.buf.getLong(OWNER);
+                    long expiry = m.buf.getLong(EXPIRY);
+                    if (owner == 0 || expiry < now) {
+                        if (owner != 0) {
+                            EXPIRED.increment();
+                            LOG.warn("lock.leaseExpired", "file", s.name, "expiredMillis", now - expiry);
+                        }
+                        m.buf.putLong(OWNER, token);
+                        m.buf.putLong(EXPIRY, now + leaseMillis);
+                        m.write();
+                        s.token = token;
+                        LEASE_WAIT.recordSince(start);
+                        return new Lease(s, token);
+                    }
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("Timed out waiting for " + s.name + ", another instance is writing it");
+                }
+                pause();
+            }
+        } catch (IOException | RuntimeException e) {
+            s.leaseLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends bytes to the file at path through a reserved region, so
+     * other processes can append at the same time.
+     */
+    void append(String path, byte[] bytes) throws IOException {
+        if (bytes.length == 0) {
+            return;
+        }
+        Sidecar s = sidecar(path);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        FileChannel data = s.data();
+        long position = 0;
+        FileLock region = null;
+        s.appendLock.lock();
+        try {
+            while (true) {
+                try (Meta m = s.open()) {
+                    int count = recover(s, m, m.buf.getInt(COUNT));
+                    // with nothing reserved the file itself says where the end is (it may have been
+                    // replaced or appended to by something that does not reserve)
+                    position = count == 0 ? data.size() : Math.max(m.buf.getLong(END), data.size());
+                    if (count < MAX_RESERVATIONS) {
+                        // lock the region before the reservation is visible, so no reader sees it unlocked
+                        region = tryLock(data, position, bytes.length, false);
+                    }
+                    if (region != null) {
+                        m.ensure(HEADER + (count + 1) * RESERVATION);
+                        int at = HEADER + count * RESERVATION;
+                        m.buf.putLong(at, position);
+                        m.buf.putInt(at + 8, bytes.length);
+                        m.buf.putLong(at + 12, System.currentTimeMillis() + leaseMillis);
+                        m.buf.putInt(COUNT, count + 1);
+                        m.buf.putLong(END, position + bytes.length);
+                        m.write();
+                        break;
+                    }
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("Timed out reserving space in " + s.name);
+                }
+                pause();
+            }
+            RESERVE_WAIT.recordSince(start);
+        } finally {
+            s.appendLock.unlock();
+        }
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            long at = position;
+            while (buf.hasRemaining()) {
+                at += data.write(buf, at);
+            }
+        } finally {
+            region.release();
+            s.appendLock.lock();
+            try (Meta m = s.open()) {
+                release(m, position);
+            } finally {
+                s.appendLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The next number of the sequence kept with the file at path: one more
+     * than both the last number any process got and floor, the highest
+     * this process knows of from the file itself.
+     */
+    long next(String path, long floor) throws IOException {
+        try (Meta m = sidecar(path).open()) {
+            long next = Math.max(m.buf.getLong(SEQUENCE), floor) + 1;
+            m.buf.putLong(SEQUENCE, next);
+            m.write();
+            return next;
+        }
+    }
+
+    /**
+     * Waits until every region of the file from offset on that was
+     * reserved so far is written. Returns false if that takes longer than
+     * the wait limit.
+     */
+    boolean awaitAppends(String path, long offset) throws IOException {
+        FileChannel data = sidecar(path).data();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while (true) {
+            FileLock shared = tryLock(data, offset, Long.MAX_VALUE - offset, true);
+            if (shared != null) {
+                shared.release();
+                return true;
+            }
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            pause();
+        }
+    }
+
+    private Sidecar sidecar(String path) throws IOException {
+        Path p = Paths.get(path).toAbsolutePath().normalize();
+        filesLock.lock();
+        try {
+            Sidecar s = files.get(p);
+            if (s == null) {
+                s = new Sidecar(p);
+                files.put(p, s);
+            }
+            return s;
+        } finally {
+            filesLock.unlock();
+        }
+    }
+
+    /**
+     * Drops reservations that ran out and whose writer is gone, padding
+     * what they left unwritten so the file has no holes of zeros. Returns
+     * the reservations left.
+     */
+    private int recover(Sidecar s, Meta m, int count) throws IOException {
+        long now = System.currentTimeMillis();
+        int i = 0;
+        while (i < count) {
+            int at = HEADER + i * RESERVATION;
+            long start = m.buf.getLong(at);
+            int length = m.buf.getInt(at + 8);
+            if (m.buf.getLong(at + 12) >= now) {
+                i++;
+                continue;
+            }
+            FileLock gone = tryLock(s.data(), start, length, false);
+            if (gone == null) {
+                i++; // still being written
+                continue;
+            }
+            try {
+                pad(s.data(), start, length);
+            } finally {
+                gone.release();
+            }
+            EXPIRED.increment();
+            LOG.warn("lock.regionRecovered", "file", s.name, "offset", start, "bytes", length);
+            remove(m, i, count);
+            count--;
+        }
+        return count;
+    }
+
+    // blanks out the zero bytes of a region its writer never filled, ending it with a newline
+    private static void pad(FileChannel data, long start, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining() && data.read(buf, start + buf.position()) > 0) {
+            // read what exists
+        }
+        byte[] bytes = buf.array();
+        boolean changed = false;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == 0 || i >= buf.position()) {
+                bytes[i] = (byte) (i == length - 1 ? '\n' : ' ');
+                changed = true;
+            }
+        }
+        if (changed) {
+            ByteBuffer out = ByteBuffer.wrap(bytes);
+            while (out.hasRemaining()) {
+                data.write(out, start + out.position());
+            }
+        }
+    }
+
+    private static void release(Meta m, long position) throws IOException {
+        int count = m.buf.getInt(COUNT);
+        for (int i = 0; i < count; i++) {
+            if (m.buf.getLong(HEADER + i * RESERVATION) == position) {
+                remove(m, i, count);
+                m.write();
+                return;
+            }
+        }
+        // recovered by another process while this one was writing; nothing to drop
+    }
+
+    private static void remove(Meta m, int index, int count) {
+        int from = HEADER + (index + 1) * RESERVATION;
+        int to = HEADER + count * RESERVATION;
+        byte[] rest = new byte[to - from];
+        m.buf.get(from, rest);
+        m.buf.put(from - RESERVATION, rest);
+        m.buf.putInt(COUNT, count - 1);
+    }
+
+    // null when the region is locked, by another process or by another thread of this one
+    private static FileLock tryLock(FileChannel channel, long position, long size, boolean shared)
+            throws IOException {
+        try {
+            return channel.tryLock(position, size, shared);
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    private static void pause() throws IOException {
+        try {
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a data file lock");
+        }
+    }
+
+    /**
+     * Released by {@link #close()}; the write it guards must be done by
+     * then. A nested lease stands for the outer one.
+     */
+    final class Lease implements AutoCloseable {
+        private final Sidecar sidecar;
+        private final long token;
+        private boolean closed;
+        private boolean lost;
+
+        private Lease(Sidecar sidecar, long token) {
+            this.sidecar = sidecar;
+            this.token = token;
+        }
+
+        /** A new temporary file next to the leased one, to be {@link #commit committed}. */
+        Path newTemp() throws IOException {
+            return Files.createTempFile(sidecar.file.getParent(), sidecar.name + ".", TEMP_SUFFIX);
+        }
+
+        /**
+         * Moves temp over the leased file in one step if the lease is still
+         * this process's. The sidecar stays locked from the check to the
+         * move, so no other instance can take the lease in between. If the
+         * lease ran out and was taken over, temp is deleted and the file is
+         * left to the new holder.
+         */
+        void commit(Path temp) throws IOException {
+            try (Meta m = sidecar.open()) {
+                requireHeld(m);
+                Files.move(temp, sidecar.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        /**
+         * Runs a write to the leased file, or to files only written under
+         * it, if the lease is still this process's. As with commit, the
+         * sidecar stays locked from the check until the write is done, so a
+         * holder that stalled past its lease cannot write over the next
+         * holder's data.
+         */
+        void write(Write write) throws IOException {
+            try (Meta m = sidecar.open()) {
+                requireHeld(m);
+                write.run();
+            }
+        }
+
+        private void requireHeld(Meta m) throws IOException {
+            if (m.buf.getLong(OWNER) != sidecar.token) {
+                lost = true;
+                LOG.warn("lock.leaseLost", "file", sidecar.name);
+                throw new IOException("Lost the lease on " + sidecar.name + " to another instance");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (token != 0) {
+                    sidecar.token = 0;
+                    try (Meta m = sidecar.open()) {
+                        if (m.buf.getLong(OWNER) == token) {
+                            m.buf.putLong(OWNER, 0);
+                            m.buf.putLong(EXPIRY, 0);
+                            m.write();
+                        } else if (!lost) {
+                            LOG.warn("lock.leaseLost", "file", sidecar.name);
+                        }
+                    }
+                }
+            } finally {
+                sidecar.leaseLock.unlock();
+            }
+        }
+    }
+
+    /** A write guarded by a lease; see {@link Lease#write}. */
+    interface Write {
+        void run() throws IOException;
+    }
+
+    private static final class Sidecar {
+        final Path file;
+        final String name;
+        final FileChannel meta;
+        private FileChannel data;
+        // threads of this process take turns: FileChannel locks are held per process, not per thread
+        final ReentrantLock leaseLock = new ReentrantLock();
+        long token; // the lease this process holds, guarded by leaseLock
+        final ReentrantLock appendLock = new ReentrantLock();
+        final ReentrantLock metaLock = new ReentrantLock();
+
+        Sidecar(Path file) throws IOException {
+            this.file = file;
+            this.name = String.valueOf(file.getFileName());
+            this.meta = FileChannel.open(file.resolveSibling(name + SUFFIX), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        // opened on first use: only appended files need it, and they are never replaced
+        synchronized FileChannel data() throws IOException {
+            if (data == null) {
+                data = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            return data;
+        }
+
+        /** The sidecar's content, locked until the Meta is closed. */
+        Meta open() throws IOException {
+            metaLock.lock();
+            try {
+                // polled: blocking, the kernel takes threads of two processes each waiting for a
+                // sidecar the other holds for a deadlock, as its locks belong to the process
+                FileLock lock = meta.tryLock();
+                while (lock == null) {
+                    LockSupport.parkNanos(50_000);
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new IOException("Interrupted while waiting for " + name + SUFFIX);
+                    }
+                    lock = meta.tryLock();
+                }
+                ByteBuffer buf = ByteBuffer.allocate((int) Math.max(HEADER, meta.size()));
+                while (buf.hasRemaining() && meta.read(buf, buf.position()) > 0) {
+                    // read it all
+                }
+                return new Meta(this, lock, buf);
+            } catch (IOException | RuntimeException e) {
+                metaLock.unlock();
+                throw e;
+            }
+        }
+    }
+
+    private static final class Meta implements AutoCloseable {
+        final Sidecar sidecar;
+        final FileLock lock;
+        ByteBuffer buf;
+
+        Meta(Sidecar sidecar, FileLock lock, ByteBuffer buf) {
+            this.sidecar = sidecar;
+            this.lock = lock;
+            this.buf = buf;
+        }
+
+        void ensure(int size) {
+            if (buf.capacity() < size) {
+                buf = ByteBuffer.wrap(Arrays.copyOf(buf.array(), size));
+            }
+        }
+
+        void write() throws IOException {
+            int size = HEADER + buf.getInt(COUNT) * RESERVATION;
+            ByteBuffer out = ByteBuffer.wrap(buf.array(), 0, size);
+            while (out.hasRemaining()) {
+                sidecar.meta.write(out, out.position());
+            }
+            sidecar.meta.truncate(size);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+            } finally {
+                sidecar.metaLock.unlock();
+            }
+        }
+    }
+}
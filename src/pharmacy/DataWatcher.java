@@ -0,0 +1,467 @@
+package pharmacy;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Notices writes other processes make to the data directory (a second GUI
+ * or console on the same files) and hands over only what changed, so the
+ * service can merge it instead of reloading, and its next save does not
+ * overwrite the other instance's work.
+ *
+ * Two kinds of file are followed:
+ * <ul>
+ *   <li>append-only files (customers, orders) are tailed: the lines
+ *   appended since the last read, from the byte offset reached then. If
+ *   the file got shorter it was replaced, and is read again from the
+ *   start.</li>
+ *   <li>rewritten files (the inventory, the shift's order list) are diffed
+ *   by record against the last read, a record being keyed by the text
+ *   before its first comma: only new or changed records, with what they
+ *   were before, and the keys of removed ones are handed over.</li>
+ * </ul>
+ * Only complete lines count. Rewritten files are read under their
+ * {@link DataLocks} lease and tails once the regions being appended are
+ * written, so other instances' writes are never seen half done; a rewrite
+ * that still does not end in a newline, or is empty, was not written
+ * through a lease and is read again on the next event. After an event the
+ * watcher waits until the directory has been quiet for
+ * -Dpharmacy.watch.settleMillis (default 50), so a burst of writes is
+ * merged once.
+ *
+ * Files are read outside the service lock, so waiting for another
+ * instance's lease or appends never holds up checkouts, and handlers run
+ * under it, so they may change the service's state directly. A read the
+ * service overtook in between, by syncing or seeing the file itself while
+ * saving, is done again. The service's own writes are seen too; they diff
+ * to nothing, or to records the handlers already have.
+ *
+ * On by default; -Dpharmacy.watch=false turns it off.
+ *
+ * @author elkhedewy-group
+ */
+final class DataWatcher {
+    interface TailHandler {
+        void appended(List<String> lines);
+    }
+
+    interface DiffHandler {
+        /**
+         * changed holds the new and changed records, previous the same
+         * records as they were read last (null for new ones).
+         */
+        void changed(List<String> changed, List<String> previous, Set<String> removed);
+    }
+
+    private static final Log LOG = Log.get(DataWatcher.class);
+    private static final Metrics.Timer MERGE_TIMER = Metrics.timer("watch.merge");
+    private static final Metrics.Counter RECORDS = Metrics.counter("watch.records");
+
+    private final Path dir;
+    private final ReentrantLock serviceLock;
+    private final long settleMillis;
+    private final WatchService watchService;
+    private final Map<String, Followed> files = new LinkedHashMap<>(); // merged in this order
+    private final Thread thread;
+
+    DataWatcher(Path dir, ReentrantLock serviceLock, long settleMillis) throws IOException {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.serviceLock = serviceLock;
+        this.settleMillis = settleMillis;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "pharmacy-watch");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * A watcher on the data directory, not started yet, or null when it is
+     * turned off or the directory cannot be watched.
+     */
+    static DataWatcher fromSystemProperties(ReentrantLock serviceLock) {
+        if (!Boolean.parseBoolean(System.getProperty("pharmacy.watch", "true"))) {
+            return null;
+        }
+        try {
+            return new DataWatcher(Paths.get(DataFiles.path("")), serviceLock,
+                    Math.max(0, Long.getLong("pharmacy.watch.settleMillis", 50)));
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("[WARN] Cannot watch the data directory, changes by other instances are not merged: "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Follows an append-only file in the data directory. Reading starts at
+     * its current end: what is in it now is taken to be loaded already.
+     */
+    void tail(String fileName, TailHandler handler) {
+        Followed f = new Followed(dir.resolve(fileName), handler, null);
+        f.offset = sizeOf(f.path);
+        files.put(fileName, f);
+    }
+
+    /**
+     * Follows a rewritten file in the data directory. Its current records
+     * are taken to be loaded already.
+     */
+    void diff(String fileName, DiffHandler handler) {
+        Followed f = new Followed(dir.resolve(fileName), null, handler);
+        try {
+            String content = read(f.path, 0);
+            if (content != null) {
+                f.records = records(content);
+            }
+        } catch (IOException e) {
+            System.out.println("[WARN] Failed to read " + f.path + ": " + e.getMessage());
+        }
+        files.put(fileName, f);
+    }
+
+    /**
+     * Merges what changed in the file since it was last read, right away,
+     * on the caller's thread, which must hold the service lock. Called
+     * while saving a rewritten file, under its lease, so the save writes
+     * on top of what other instances saved last instead of over it.
+     */
+    void sync(String fileName) {
+        Followed f = files.get(fileName);
+        if (f == null) {
+            return;
+        }
+        try {
+            Content read = read(f);
+            if (read != null) {
+                apply(f, read);
+            }
+        } catch (IOException e) {
+            LOG.warn("watch.readFailed", "file", fileName, "error", String.valueOf(e));
+        }
+    }
+
+    /**
+     * Takes the file as it is now as read, without merging anything: the
+     * caller has just rewritten it, under its lease, from what it holds.
+     * What other instances change next is then diffed against this.
+     */
+    void seen(String fileName) {
+        Followed f = files.get(fileName);
+        if (f == null || f.diffHandler == null) {
+            return;
+        }
+        try {
+            Content read = readWhole(f.path);
+            if (read.text != null) {
+                f.records = records(read.text);
+                f.modified = read.modified;
+                f.size = read.size;
+                f.generation++;
+            }
+        } catch (IOException e) {
+            LOG.warn("watch.readFailed", "file", fileName, "error", String.valueOf(e));
+        }
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.out.println("[WARN] Failed to close the data directory watcher: " + e.getMessage());
+        }
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Set<String> changed = new HashSet<>();
+                collect(watchService.take(), changed);
+                // let the writer finish: keep collecting until the directory is quiet, or for
+                // at most 20 quiet periods so a busy writer does not hold merging off for good
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settleMillis * 20);
+                WatchKey key;
+                while (System.nanoTime() < deadline
+                        && (key = watchService.poll(settleMillis, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+                merge(changed);
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.addAll(files.keySet());
+            } else {
+                String name = event.context().toString();
+                if (files.containsKey(name)) {
+                    changed.add(name);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private void merge(Set<String> changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (Map.Entry<String, Followed> entry : files.entrySet()) {
+            String name = entry.getKey();
+            if (!changed.contains(name)) {
+                continue;
+            }
+            try {
+                merge(entry.getValue());
+            } catch (IOException e) {
+                LOG.warn("watch.readFailed", "file", name, "error", String.valueOf(e));
+            } catch (RuntimeException e) {
+                LOG.error("watch.mergeFailed", "file", name, "error", String.valueOf(e));
+            }
+        }
+        MERGE_TIMER.recordSince(start);
+    }
+
+    // read without the service lock, merged under it unless the service got to the file first
+    private void merge(Followed f) throws IOException {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            long generation = f.generation;
+            Content read = read(f);
+            if (read == null) {
+                return;
+            }
+            serviceLock.lock();
+            try {
+                if (f.generation == generation) {
+                    apply(f, read);
+                    return;
+                }
+            } finally {
+                serviceLock.unlock();
+            }
+        }
+    }
+
+    private static Content read(Followed f) throws IOException {
+        return f.tailHandler != null ? readTail(f) : readDiff(f);
+    }
+
+    private static void apply(Followed f, Content read) {
+        f.generation++;
+        if (f.tailHandler != null) {
+            applyTail(f, read);
+        } else {
+            applyDiff(f, read);
+        }
+    }
+
+    // the complete lines appended since the last read, or null if there are none
+    private static Content readTail(Followed f) throws IOException {
+        long offset = f.offset;
+        long size = sizeOf(f.path);
+        if (size < offset) {
+            LOG.info("watch.replaced", "file", f.path.getFileName(), "size", size);
+            offset = 0;
+        }
+        if (size == offset) {
+            return null;
+        }
+        if (!DataLocks.get().awaitAppends(f.path.toString(), offset)) {
+            return null; // an appender is still writing; its next event brings us back
+        }
+        String appended = read(f.path, offset);
+        if (appended == null) {
+            return null;
+        }
+        int end = appended.lastIndexOf('\n') + 1;
+        if (end == 0) {
+            return null; // no complete line yet
+        }
+        return new Content(appended.substring(0, end), offset, null, size);
+    }
+
+    private static void applyTail(Followed f, Content read) {
+        f.offset = read.offset + read.text.getBytes(StandardCharsets.UTF_8).length;
+        List<String> lines = new ArrayList<>();
+        // zeros are what an appender that died left of its region, before it is padded
+        for (String line : read.text.replace("\0", "").split("\r?\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line);
+            }
+        }
+        if (!lines.isEmpty()) {
+            RECORDS.add(lines.size());
+            f.tailHandler.appended(lines);
+        }
+    }
+
+    // the whole file if it changed since the last read, or null
+    @SuppressWarnings("try")
+    private static Content readDiff(Followed f) throws IOException {
+        FileTime modified = modifiedTime(f.path);
+        long size = sizeOf(f.path);
+        if (modified != null && modified.equals(f.modified) && size == f.size) {
+            return null;
+        }
+        Content read;
+        // the lease keeps other instances from rewriting it while it is read
+        try (DataLocks.Lease lease = DataLocks.get().lease(f.path.toString())) {
+            read = readWhole(f.path);
+        }
+        if (read.text == null || read.text.isEmpty() || !read.text.endsWith("\n")) {
+            return null; // gone, or being rewritten; the end of the write brings another event
+        }
+        return read;
+    }
+
+    private static void applyDiff(Followed f, Content read) {
+        f.modified = read.modified;
+        f.size = read.size;
+        Map<String, String> now = records(read.text);
+        List<String> changed = new ArrayList<>();
+        List<String> previous = new ArrayList<>();
+        for (Map.Entry<String, String> e : now.entrySet()) {
+            String before = f.records.get(e.getKey());
+            if (!e.getValue().equals(before)) {
+                changed.add(e.getValue());
+                previous.add(before);
+            }
+        }
+        Set<String> removed = new LinkedHashSet<>();
+        for (String key : f.records.keySet()) {
+            if (!now.containsKey(key)) {
+                removed.add(key);
+            }
+        }
+        f.records = now;
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            RECORDS.add(changed.size() + removed.size());
+            f.diffHandler.changed(changed, previous, removed);
+        }
+    }
+
+    // the whole file with its time stamp and size; its text is null if it does not exist
+    private static Content readWhole(Path path) throws IOException {
+        FileTime modified = modifiedTime(path);
+        long size = sizeOf(path);
+        // a time stamp only tells the file is unchanged once it is older than the file
+        // system's clock granularity; a rewrite within the same tick could keep it
+        if (modified != null && System.currentTimeMillis() - modified.toMillis() <= 2000) {
+            modified = null;
+        }
+        return new Content(read(path, 0), 0, modified, size);
+    }
+
+    private static Map<String, String> records(String content) {
+        Map<String, String> records = new LinkedHashMap<>();
+        for (String line : content.split("\r?\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            int comma = line.indexOf(',');
+            records.put(comma < 0 ? line.trim() : line.substring(0, comma).trim(), line);
+        }
+        return records;
+    }
+
+    /** The file from offset to its end, or null if it does not exist. */
+    private static String read(Path path, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
+            long length = raf.length() - offset;
+            if (length <= 0) {
+                return "";
+            }
+            byte[] bytes = new byte[(int) length];
+            raf.seek(offset);
+            raf.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static FileTime modifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static final class Followed {
+        final Path path;
+        final TailHandler tailHandler;
+        final DiffHandler diffHandler;
+        // changed only under the service lock; the generation counts the changes
+        long offset;
+        Map<String, String> records = new HashMap<>();
+        FileTime modified;
+        long size = -1;
+        volatile long generation;
+
+        Followed(Path path, TailHandler tailHandler, DiffHandler diffHandler) {
+            this.path = path;
+            this.tailHandler = tailHandler;
+            this.diffHandler = diffHandler;
+        }
+    }
+
+    private static final class Content {
+        final String text;
+        final long offset;
+        final FileTime modified;
+        final long size;
+
+        Content(String text, long offset, FileTime modified, long size) {
+            this.text = text;
+            this.offset = offset;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+}
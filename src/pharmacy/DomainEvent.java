@@ -0,0 +1,157 @@
+package pharmacy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Something that happened to the pharmacy's data, as published on the
+ * {@link EventBus}. The fields are copied when the event is created, so an
+ * event still describes the change after the product or order moves on.
+ *
+ * key is the id of the order, product or customer the event is about;
+ * together with the type it is what COALESCE subscribers merge on.
+ *
+ * @author elkhedewy-group
+ */
+public final class DomainEvent {
+    public enum Type {
+        ORDER_COMPLETED, STOCK_CHANGED, PRODUCT_UPDATED, CUSTOMER_ADDED
+    }
+
+    private final Type type;
+    private final long timeMillis;
+    private final int key;
+    private final Map<String, Object> data;
+    private long sequence;
+
+    private DomainEvent(Type type, int key, Map<String, Object> data) {
+        this(type, key, System.currentTimeMillis(), data);
+    }
+
+    private DomainEvent(Type type, int key, long timeMillis, Map<String, Object> data) {
+        this.type = type;
+        this.timeMillis = timeMillis;
+        this.key = key;
+        this.data = Collections.unmodifiableMap(data);
+    }
+
+    static DomainEvent orderCompleted(Order order) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("orderId", order.getOrderId());
+        data.put("customerId", order.getCustomer().getCustomerid());
+        data.put("customerName", order.getCustomer().getName());
+        data.put("soldBy", order.getSoldBy());
+        data.put("orderDate", order.getOrderDate().getEpochSecond());
+        data.put("total", order.getTotalAmount());
+        List<Map<String, Object>> items = new ArrayList<>(order.getItems().size());
+        for (OrderItem item : order.getItems()) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("productId", item.getProduct().getProductId());
+            line.put("name", item.getProduct().getName());
+            line.put("quantity", item.getQuantity());
+            line.put("subtotal", item.getSubtotal());
+            items.add(Collections.unmodifiableMap(line));
+        }
+        data.put("items", Collections.unmodifiableList(items));
+        return new DomainEvent(Type.ORDER_COMPLETED, order.getOrderId(), data);
+    }
+
+    static DomainEvent stockChanged(int productId, int delta, int quantity, StockLedger.Reason reason) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("productId", productId);
+        data.put("delta", delta);
+        data.put("quantity", quantity);
+        data.put("reason", reason.name());
+        return new DomainEvent(Type.STOCK_CHANGED, productId, data);
+    }
+
+    static DomainEvent productUpdated(Product p) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("productId", p.getProductId());
+        data.put("name", p.getName());
+        data.put("price", p.getPrice());
+        data.put("quantity", p.getQuantity());
+        data.put("type", p.getClass().getSimpleName());
+        data.put("special", ProductConflictException.special(p));
+        data.put("version", p.getVersion());
+        return new DomainEvent(Type.PRODUCT_UPDATED, p.getProductId(), data);
+    }
+
+    static DomainEvent customerAdded(Customer c) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("customerId", c.getCustomerid());
+        data.put("name", c.getName());
+        data.put("phone", c.getPhone());
+        return new DomainEvent(Type.CUSTOMER_ADDED, c.getCustomerid(), data);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Position in the order the bus published events, from 1. A subscriber
+     * that sees a jump has missed events (dropped or coalesced).
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public int getKey() {
+        return key;
+    }
+
+    /**
+     * The event's fields by name: numbers, strings, and for orders an
+     * "items" list of maps. Unmodifiable.
+     */
+    public Map<String, Object> getData() {
+        return data;
+    }
+
+    /**
+     * Events with the same coalesce key describe the same thing; a later
+     * one supersedes an earlier one for consumers that only want the
+     * latest state.
+     */
+    long coalesceKey() {
+        return ((long) type.ordinal() << 32) | (key & 0xffffffffL);
+    }
+
+    /**
+     * The event that stands for this one and a later one with the same
+     * coalesce key, or null if none can. A stock change is a delta: the two
+     * merge into one with the deltas added and the later quantity, and only
+     * while the reason is the same. Other events describe state and the
+     * later one replaces this one.
+     */
+    DomainEvent coalesce(DomainEvent later) {
+        if (type != Type.STOCK_CHANGED) {
+            return later;
+        }
+        if (!data.get("reason").equals(later.data.get("reason"))) {
+            return null;
+        }
+        Map<String, Object> merged = new LinkedHashMap<>(later.data);
+        merged.put("delta", (Integer) data.get("delta") + (Integer) later.data.get("delta"));
+        DomainEvent event = new DomainEvent(type, key, later.timeMillis, merged);
+        event.sequence = later.sequence;
+        return event;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + key + " " + data;
+    }
+}
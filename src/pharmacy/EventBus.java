@@ -0,0 +1,325 @@
+package pharmacy;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes {@link DomainEvent}s (sales, stock changes, product edits, new
+ * customers) to any number of {@link Flow.Subscriber}s, so reports,
+ * exporters and feeds can react without polling the data files.
+ *
+ * Every subscriber gets its own bounded buffer and its own delivery, one
+ * event at a time on a virtual thread, as far as it has requested. What
+ * happens when a subscriber falls behind and its buffer is full is chosen
+ * per subscriber:
+ * <ul>
+ *   <li>DROP: the new event is dropped. Publishing never waits.</li>
+ *   <li>COALESCE: an event replaces a pending one with the same type and
+ *   key (see {@link DomainEvent#coalesceKey()}), keeping its place in the
+ *   buffer, so the subscriber sees the latest state of each product or
+ *   order. Stock changes are merged instead, their deltas added, as long
+ *   as the reason is the same (see {@link DomainEvent#coalesce}). A new
+ *   key with the buffer full is dropped. Publishing never waits.</li>
+ *   <li>BLOCK: the publisher waits up to -Dpharmacy.events.blockMillis
+ *   (default 50) for room, then drops. Events are published under the
+ *   service lock, so a stalled BLOCK subscriber slows every checkout by
+ *   that much; use it only for consumers that keep up.</li>
+ * </ul>
+ * Dropped and coalesced events are counted in "events.dropped" and
+ * "events.coalesced". A subscriber whose onNext throws is cancelled.
+ *
+ * @author elkhedewy-group
+ */
+public final class EventBus implements Flow.Publisher<DomainEvent> {
+    public enum Overflow {
+        DROP, BLOCK, COALESCE
+    }
+
+    private static final Log LOG = Log.get(EventBus.class);
+    private static final Metrics.Counter PUBLISHED = Metrics.counter("events.published");
+    private static final Metrics.Counter DROPPED = Metrics.counter("events.dropped");
+    private static final Metrics.Counter COALESCED = Metrics.counter("events.coalesced");
+
+    private final CopyOnWriteArrayList<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong sequence = new AtomicLong();
+    private final int defaultCapacity;
+    private final long blockNanos;
+    private volatile boolean closed;
+
+    public EventBus(int defaultCapacity, long blockMillis) {
+        this.defaultCapacity = defaultCapacity;
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(blockMillis);
+    }
+
+    public static EventBus fromSystemProperties() {
+        return new EventBus(Math.max(1, Integer.getInteger("pharmacy.events.buffer", 1024)),
+                Math.max(0, Long.getLong("pharmacy.events.blockMillis", 50)));
+    }
+
+    /**
+     * Subscribes with the default buffer size and the DROP policy.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super DomainEvent> subscriber) {
+        subscribe(subscriber, defaultCapacity, Overflow.DROP);
+    }
+
+    public void subscribe(Flow.Subscriber<? super DomainEvent> subscriber, int capacity, Overflow overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        BufferedSubscription s = new BufferedSubscription(subscriber, capacity, overflow);
+        if (closed) {
+            subscriber.onSubscribe(s);
+            subscriber.onComplete();
+            return;
+        }
+        subscriptions.add(s);
+        subscriber.onSubscribe(s);
+        if (closed) {
+            s.complete(); // closed meanwhile, after close() went over the subscriptions
+        }
+        LOG.info("events.subscribed", "subscriber", subscriber.getClass().getSimpleName(), "capacity", capacity,
+                "overflow", overflow);
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Hands the event to every subscriber's buffer. Does not wait for
+     * delivery; only BLOCK subscribers with a full buffer make it wait, and
+     * at most the block timeout each.
+     */
+    void publish(DomainEvent event) {
+        if (closed) {
+            return;
+        }
+        PUBLISHED.increment();
+        event.setSequence(sequence.incrementAndGet());
+        for (BufferedSubscription s : subscriptions) {
+            s.offer(event);
+        }
+    }
+
+    /**
+     * Completes every subscriber once its buffer has been delivered. A
+     * subscriber that has not requested all of it yet still gets the rest
+     * as it requests more; delivery stops once the last subscriber has
+     * completed or cancelled.
+     */
+    public void close() {
+        closed = true;
+        for (BufferedSubscription s : subscriptions) {
+            s.complete();
+        }
+        stopIfDone();
+    }
+
+    private void finished(BufferedSubscription s) {
+        subscriptions.remove(s);
+        stopIfDone();
+    }
+
+    private void stopIfDone() {
+        if (closed && subscriptions.isEmpty()) {
+            executor.shutdown();
+        }
+    }
+
+    private final class BufferedSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super DomainEvent> subscriber;
+        private final int capacity;
+        private final Overflow overflow;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private final ArrayDeque<Slot> buffer = new ArrayDeque<>();
+        private final Map<Long, Slot> pendingByKey; // COALESCE only
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+
+        BufferedSubscription(Flow.Subscriber<? super DomainEvent> subscriber, int capacity, Overflow overflow) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.overflow = overflow;
+            this.pendingByKey = overflow == Overflow.COALESCE ? new HashMap<>() : null;
+        }
+
+        void offer(DomainEvent event) {
+            if (cancelled) {
+                return;
+            }
+            lock.lock();
+            try {
+                if (pendingByKey != null) {
+                    Slot pending = pendingByKey.get(event.coalesceKey());
+                    DomainEvent merged = pending != null ? pending.event.coalesce(event) : null;
+                    if (merged != null) {
+                        pending.event = merged;
+                        COALESCED.increment();
+                        return;
+                    }
+                }
+                if (buffer.size() >= capacity && !waitForRoom()) {
+                    DROPPED.increment();
+                    return;
+                }
+                Slot slot = new Slot(event);
+                buffer.add(slot);
+                if (pendingByKey != null) {
+                    pendingByKey.put(event.coalesceKey(), slot);
+                }
+            } finally {
+                lock.unlock();
+            }
+            schedule();
+        }
+
+        private boolean waitForRoom() {
+            if (overflow != Overflow.BLOCK) {
+                return false;
+            }
+            long nanos = blockNanos;
+            try {
+                while (buffer.size() >= capacity && !cancelled) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !cancelled;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("request must be positive, was " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            finished(this);
+            lock.lock();
+            try {
+                buffer.clear();
+                if (pendingByKey != null) {
+                    pendingByKey.clear();
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void complete() {
+            completed = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    wip.set(0); // every subscription is done and the executor gone
+                }
+            }
+        }
+
+        /**
+         * Delivers buffered events as far as requested. Only one drain runs
+         * per subscription; offers made meanwhile bump wip so it loops again.
+         */
+        private void drain() {
+            int missed = 1;
+            do {
+                while (!cancelled && demand.get() > 0) {
+                    DomainEvent event = poll();
+                    if (event == null) {
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    try {
+                        subscriber.onNext(event);
+                    } catch (RuntimeException e) {
+                        LOG.warn("events.subscriberFailed", "subscriber", subscriber.getClass().getSimpleName(),
+                                "error", String.valueOf(e));
+                        cancel();
+                        subscriber.onError(e);
+                    }
+                }
+                if (completed && !cancelled && isEmpty()) {
+                    cancelled = true;
+                    subscriber.onComplete();
+                    finished(this);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private DomainEvent poll() {
+            lock.lock();
+            try {
+                Slot slot = buffer.poll();
+                if (slot == null) {
+                    return null;
+                }
+                if (pendingByKey != null) {
+                    pendingByKey.remove(slot.event.coalesceKey(), slot);
+                }
+                notFull.signal();
+                return slot.event;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean isEmpty() {
+            lock.lock();
+            try {
+                return buffer.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Slot {
+        DomainEvent event;
+
+        Slot(DomainEvent event) {
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package pharmacy;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Starts and dumps a Flight Recorder recording from inside the running
+ * application, so a profile can be captured without a restart or jcmd.
+ *
+ * The recording uses the JDK's "profile" settings plus all
+ * {@link PharmacyEvents} and keeps the last 30 minutes. It can be driven
+ * from the GUI's header button, from JMX (pharmacy:type=FlightRecording)
+ * or started at launch with -Dpharmacy.jfr=true. Dumps go to the data
+ * directory as pharmacy-yyyy-MM-dd_HH-mm-ss.jfr.
+ *
+ * @author elkhedewy-group
+ */
+public final class FlightRecording {
+    private static Recording recording;
+
+    public interface ControlMXBean {
+        boolean isRecording();
+
+        void start();
+
+        String dump();
+
+        String stop();
+    }
+
+    private FlightRecording() {
+    }
+
+    /**
+     * Registers the JMX control and starts recording if -Dpharmacy.jfr is
+     * set. Called once at startup.
+     */
+    public static void init() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Control(),
+                    new ObjectName("pharmacy:type=FlightRecording"));
+        } catch (JMException e) {
+            System.out.println("[WARN] Failed to register flight recording control: " + e.getMessage());
+        }
+        if (Boolean.getBoolean("pharmacy.jfr")) {
+            start();
+        }
+    }
+
+    public static synchronized boolean isRecording() {
+        return recording != null;
+    }
+
+    public static synchronized void start() {
+        if (recording != null) {
+            return;
+        }
+        try {
+            Recording r = new Recording(Configuration.getConfiguration("profile"));
+            r.setName("pharmacy");
+            r.setToDisk(true);
+            r.setMaxAge(Duration.ofMinutes(30));
+            r.enable(PharmacyEvents.Checkout.class);
+            r.enable(PharmacyEvents.OrderComplete.class);
+            r.enable(PharmacyEvents.InventorySave.class);
+            r.enable(PharmacyEvents.ShiftLoad.class);
+            r.enable(PharmacyEvents.ShiftSwitch.class);
+            r.start();
+            recording = r;
+            System.out.println("[INFO] Flight recording started");
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            System.out.println("[ERR] Failed to start flight recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes what has been recorded so far and keeps recording. Returns the
+     * file written, or null if nothing is recording or the dump failed.
+     */
+    public static synchronized String dump() {
+        if (recording == null) {
+            System.out.println("[WARN] No flight recording is running");
+            return null;
+        }
+        String stamp = TimestampCodec.system().format(Instant.now()).replace(":", "-").replace(" ", "_");
+        File file = new File(DataFiles.path("pharmacy-" + stamp + ".jfr"));
+        try {
+            recording.dump(file.toPath());
+            System.out.println("[INFO] Flight recording dumped to " + file.getAbsolutePath());
+            return file.getAbsolutePath();
+        } catch (IOException e) {
+            System.out.println("[ERR] Failed to dump flight recording: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Dumps and stops the recording.
+     */
+    public static synchronized String stop() {
+        String file = dump();
+        if (recording != null) {
+            recording.close();
+            recording = null;
+            System.out.println("[INFO] Flight recording stopped");
+        }
+        return file;
+    }
+
+    private static final class Control implements ControlMXBean {
+        @Override
+        public boolean isRecording() {
+            return FlightRecording.isRecording();
+        }
+
+        @Override
+        public void start() {
+            FlightRecording.start();
+        }
+
+        @Override
+        public String dump() {
+            return FlightRecording.dump();
+        }
+
+        @Override
+        public String stop() {
+            return FlightRecording.stop();
+        }
+    }
+}
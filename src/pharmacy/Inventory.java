@@ -9,67 +9,271 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import pharmacy.Product;
 /**
  *
  * @author ammar
  */
 public class Inventory {
-    private List<Product> products = new ArrayList<>();
+    // replaced, never changed in place, by every published Batch; see ProductSnapshot
+    private volatile ProductSnapshot products = ProductSnapshot.EMPTY;
+    // taken to replace the snapshot: lookups promote catalog records outside the service lock
+    private final ReentrantLock publishLock = new ReentrantLock();
     private static final String FILE_NAME = "inventory.txt";
+    private static final String OVERLAY_FILE = "inventory_overlay.txt";
+    // first line of the file: the last transfer batch whose stock changes it holds
+    private static final String TRANSFERS_MARK = "#transfers,";
+    private final String fileName;
+    private static final Metrics.Timer SAVE_TIMER = Metrics.timer("inventory.save");
+    private static final Log LOG = Log.get(Inventory.class);
 
+    // catalog mode: products holds only the heap-promoted (looked up, mutated or new) products
+    private ProductCatalog catalog;
+    private final Map<Integer, Product> promoted = new ConcurrentHashMap<>();
+
+    // optional: records every quantity change, written before each save
+    private StockLedger ledger;
+    // optional: where quantity changes are published
+    private EventBus events;
+    // optional: keep saves in step with other instances, run under the save's lease
+    private Runnable beforeSave;
+    private Runnable afterSave;
+    private long transferBatch;
+
+    /**
+     * The current products as an immutable snapshot. Safe to iterate from
+     * any thread without a lock; later changes publish a new snapshot with
+     * new product objects and do not affect this one or the products in it.
+     */
     public List<Product> getProducts() {
+        if (catalog != null) {
+            return new CatalogProducts(products);
+        }
         return products;
     }
 
     public void setProducts(List<Product> products) {
-        this.products = products;
+        this.products = ProductSnapshot.of(products);
     }
     
     public Inventory() {
+        String catalogFile = System.getProperty("pharmacy.catalog");
+        if (catalogFile != null) {
+            this.fileName = DataFiles.path(OVERLAY_FILE);
+            openCatalog(catalogFile);
+        } else {
+            this.fileName = DataFiles.path(FILE_NAME);
+        }
+        loadFromFile();
+    }
+
+    Inventory(String fileName) {
+        this.fileName = fileName;
         loadFromFile();
     }
+
+    /**
+     * Catalog mode: products are served from a mapped {@link ProductCatalog}
+     * and only promoted to heap objects when looked up or changed. Changes
+     * are saved to the overlay file, the catalog itself is never written.
+     */
+    private void openCatalog(String catalogFile) {
+        try {
+            catalog = ProductCatalog.open(catalogFile);
+            System.out.println("[INFO] Mapped product catalog " + catalogFile + " (" + catalog.size() + " products)");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("[ERR] Failed to map product catalog, falling back to " + FILE_NAME + ": " + e.getMessage());
+            catalog = null;
+        }
+    }
+
+    /**
+     * Records stock movements made through this inventory in the given
+     * ledger from now on.
+     */
+    void setLedger(StockLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Publishes every stock movement made through this inventory on the
+     * given bus from now on.
+     */
+    void setEvents(EventBus events) {
+        this.events = events;
+    }
+
+    /**
+     * Runs before at the start of every save, once this process holds the
+     * file, so changes another instance saved can be merged before they
+     * would be overwritten, and after once the file is written, still
+     * holding it.
+     */
+    void setSaveHooks(Runnable before, Runnable after) {
+        this.beforeSave = before;
+        this.afterSave = after;
+    }
+
+    /**
+     * Records a quantity change made to one of this inventory's products
+     * outside of addProduct/updateQuantity/removeProduct. quantity is the
+     * product's stock under that id after the change.
+     */
+    void recordMovement(int productId, int delta, int quantity, StockLedger.Reason reason) {
+        if (ledger != null) {
+            ledger.record(productId, delta, reason);
+        }
+        publishMovement(productId, delta, quantity, reason);
+    }
+
+    // a change another instance made is in the shared ledger already; it is only published
+    private void publishMovement(int productId, int delta, int quantity, StockLedger.Reason reason) {
+        if (events != null && events.hasSubscribers()) {
+            events.publish(DomainEvent.stockChanged(productId, delta, quantity, reason));
+        }
+    }
+
+    public boolean isCatalogMode() {
+        return catalog != null;
+    }
+
+    private Product findProduct(int id) {
+        if (catalog != null) {
+            Product p = promoted.get(id);
+            if (p == null && catalog.find(id) >= 0) {
+                p = promote(id);
+            }
+            return p;
+        }
+        for (Product p: products){
+            if (p.getProductId() == id) {
+                return p;
+            }
+        }
+        return null;
+    }
     
     void addProduct (Product prod) {
         // Make changes
-        for (Product p: products) {
-            if (p.getProductId() == prod.getProductId()) {
-                p.setQuantity(p.getQuantity() + prod.getQuantity());
-                saveToFile();
-                return;
-            }
+        Batch batch = batch();
+        Product p = batch.find(prod.getProductId());
+        if (p != null) {
+            p = batch.setQuantity(p, p.getQuantity() + prod.getQuantity());
+            batch.recordMovement(p.getProductId(), prod.getQuantity(), p.getQuantity(), StockLedger.Reason.RESTOCK);
+        } else {
+            batch.insert(prod);
+            batch.recordMovement(prod.getProductId(), prod.getQuantity(), prod.getQuantity(), StockLedger.Reason.NEW);
         }
-        products.add(prod);
+        batch.publish();
         saveToFile();
     }
-    
+
     void updateQuantity (Product prod, int qtty) {
         // Make changes
-        for (Product p: products) {
-            if (p.getProductId() == prod.getProductId()) {
-                p.setQuantity(p.getQuantity() + qtty);
-                System.out.println("[INFO] Quantity of " + p.getName() + " updated to " + p.getQuantity());
-                saveToFile();
-                return;
-            }
+        Batch batch = batch();
+        Product p = batch.find(prod.getProductId());
+        if (p != null) {
+            p = batch.setQuantity(p, p.getQuantity() + qtty);
+            batch.recordMovement(p.getProductId(), qtty, p.getQuantity(),
+                    qtty > 0 ? StockLedger.Reason.RESTOCK : StockLedger.Reason.ADJUST);
+            batch.publish();
+            LOG.info("quantity.updated", "product", p.getName(), "quantity", p.getQuantity());
+            saveToFile();
+            return;
         }
-        System.out.println("[WARNING] Product not found in inventory: " + prod.getName());
+        LOG.warn("product.missing", "product", prod.getName());
     }
     
-    Product getProductById (int id) {
-        // Make Changes
-        for (Product p: products){
+    // a heap product for a catalog record, added to the snapshot
+    private Product promote(int id) {
+        publishLock.lock();
+        try {
+            Product p = promoted.get(id);
+            if (p == null) {
+                p = catalog.materialize(catalog.find(id));
+                promoted.put(id, p);
+                products = products.append(p);
+            }
+            return p;
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * The current product with this id, or null, for reading only: a
+     * catalog record that was never promoted is decoded into a short-lived
+     * copy and not promoted. Lock-free.
+     */
+    Product peek(int id) {
+        if (catalog != null) {
+            Product p = promoted.get(id);
+            if (p == null) {
+                int index = catalog.find(id);
+                p = index >= 0 ? catalog.materialize(index) : null;
+            }
+            return p;
+        }
+        for (Product p : products) {
             if (p.getProductId() == id) {
                 return p;
             }
         }
-        System.out.println("Product not found");
         return null;
     }
+
+    /** Highest product id, catalog included; 0 if there are no products. */
+    int getMaxProductId() {
+        int max = catalog != null && catalog.size() > 0 ? catalog.idAt(catalog.size() - 1) : 0;
+        for (Product p : products) {
+            max = Math.max(max, p.getProductId());
+        }
+        return max;
+    }
+
+    /**
+     * Id of the first product with each name, names lower-cased. Catalog
+     * records are read in place, not decoded into products.
+     */
+    Map<String, Integer> idsByName() {
+        Map<String, Integer> ids = new HashMap<>();
+        if (catalog != null) {
+            catalog.forEach(v -> {
+                Product p = promoted.get(v.getProductId());
+                ids.putIfAbsent((p != null ? p.getName() : v.getName()).toLowerCase(Locale.ROOT), v.getProductId());
+            });
+        }
+        for (Product p : products) {
+            if (catalog == null || catalog.find(p.getProductId()) < 0) {
+                ids.putIfAbsent(p.getName().toLowerCase(Locale.ROOT), p.getProductId());
+            }
+        }
+        return ids;
+    }
+
+    Product getProductById (int id) {
+        // Make Changes
+        Product p = findProduct(id);
+        if (p == null) {
+            LOG.debug("product.notFound", "id", id);
+        }
+        return p;
+    }
     
     void displayInventory () {
         // Make changes
@@ -96,85 +300,471 @@ public class Inventory {
     // for files
     
     public void saveToFile() {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(FILE_NAME))) {
-            for (Product p: products) {
-                String type = "Product";
-                String special = "";
-
-                if (p instanceof Medicine) {
-                    type = "Medicine";
-                    Medicine med = (Medicine) p;
-                    special = String.valueOf(med.isPrescriptionRequired());
-                } else if (p instanceof Cosmetic) {
-                    type = "Cosmetic";
-                    Cosmetic cos = (Cosmetic) p;
-                    special = cos.getSuitableForSkinType();
-                }
-
-                writer.write(p.getProductId() + "," + p.getName() + "," + p.getPrice() + "," + p.getQuantity() + "," + type + "," + special);
+        PharmacyEvents.InventorySave event = new PharmacyEvents.InventorySave();
+        event.begin();
+        long start = System.nanoTime();
+        long bytes = 0;
+        int count = 0;
+        // other instances on the same directory wait for the lease rather than interleave
+        try (DataLocks.Lease lease = DataLocks.get().lease(fileName)) {
+            if (beforeSave != null) {
+                beforeSave.run();
+            }
+            ProductSnapshot snapshot = products;
+            count = snapshot.size();
+            if (ledger != null) {
+                ledger.flush(); // the ledger is the history; it must not fall behind the file
+            }
+            // another instance's batches are in this inventory too once beforeSave merged its save
+            long mark = Math.max(transferBatch, savedTransferBatch());
+            // written aside and moved into place only while the lease is still ours
+            Path temp = lease.newTemp();
+            try(BufferedWriter writer = Files.newBufferedWriter(temp, Charset.defaultCharset())) {
+                writer.write(TRANSFERS_MARK + mark);
                 writer.newLine();
+                for (Product p: snapshot) {
+                    String line = record(p) + "," + p.getVersion();
+                    writer.write(line);
+                    writer.newLine();
+                    bytes += line.length() + System.lineSeparator().length();
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            lease.commit(temp);
+            transferBatch = mark;
+            if (afterSave != null) {
+                afterSave.run();
             }
         } catch (IOException e) {
             System.out.println("[ERR], Failed to save Inventory: " + e.getMessage());
         }
+        DataFiles.changed(fileName, false);
+        SAVE_TIMER.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.productCount = count;
+            event.bytesWritten = bytes;
+            event.commit();
+        }
     }
     
+    // a product's line in the file, without the version
+    static String record(Product p) {
+        String type = "Product";
+        String special = "";
+
+        if (p instanceof Medicine) {
+            type = "Medicine";
+            Medicine med = (Medicine) p;
+            special = String.valueOf(med.isPrescriptionRequired());
+        } else if (p instanceof Cosmetic) {
+            type = "Cosmetic";
+            Cosmetic cos = (Cosmetic) p;
+            special = cos.getSuitableForSkinType();
+        }
+        return p.getProductId() + "," + p.getName() + "," + p.getPrice() + "," + p.getQuantity() + "," + type + "," + special;
+    }
+
+    // null for a line that is not a product
+    static Product parseLine(String line) {
+        if (line.startsWith("#")) {
+            return null;
+        }
+        String[] parts = line.split(",");
+
+        if (parts.length < 4) {
+            System.out.println("[WARN] Invalid data format: " + line);
+            return null;
+        }
+        try {
+            int id = Integer.parseInt(parts[0].trim());
+            String name = parts[1].trim();
+            double price = Double.parseDouble(parts[2].trim());
+            int quantity = Integer.parseInt(parts[3].trim());
+
+            Product product;
+
+            if (parts.length >= 6) {
+                String type = parts[4].trim();
+                String special = parts[5].trim();
+
+                if ("Medicine".equals(type)) {
+                    boolean prescriptionRequired = Boolean.parseBoolean(special);
+                    product = new Medicine(prescriptionRequired, id, name, price, quantity);
+                } else if ("Cosmetic".equals(type)) {
+                    product = new Cosmetic(special, id, name, price, quantity);
+                } else {
+                    product = new Product(id, name, price, quantity);
+                }
+            } else {
+                product = new Product(id, name, price, quantity);
+            }
+            if (parts.length >= 7) {
+                product.setVersion(Long.parseLong(parts[6].trim()));
+            }
+            return product;
+        } catch (NumberFormatException e) {
+            System.out.println("[WARN] Skipping invalid line: " + line);
+            return null;
+        }
+    }
+
     private void loadFromFile() {
-        File file = new File(FILE_NAME);
+        File file = new File(fileName);
         if (!file.exists()) {
             return;
         }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
+        List<Product> loaded = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-
-                if (parts.length >= 4) {
+                if (line.startsWith(TRANSFERS_MARK)) {
                     try {
-                        int id = Integer.parseInt(parts[0].trim());
-                        String name = parts[1].trim();
-                        double price = Double.parseDouble(parts[2].trim());
-                        int quantity = Integer.parseInt(parts[3].trim());
-
-                        Product product;
-
-                        if (parts.length >= 6) {
-                            String type = parts[4].trim();
-                            String special = parts[5].trim();
-
-                            if ("Medicine".equals(type)) {
-                                boolean prescriptionRequired = Boolean.parseBoolean(special);
-                                product = new Medicine(prescriptionRequired, id, name, price, quantity);
-                            } else if ("Cosmetic".equals(type)) {
-                                product = new Cosmetic(special, id, name, price, quantity);
-                            } else {
-                                product = new Product(id, name, price, quantity);
-                            }
-                        } else {
-                            product = new Product(id, name, price, quantity);
-                        }
-
-                        products.add(product);
-
+                        transferBatch = Long.parseLong(line.substring(TRANSFERS_MARK.length()).trim());
                     } catch (NumberFormatException e) {
                         System.out.println("[WARN] Skipping invalid line: " + line);
                     }
-                } else {
-                    System.out.println("[WARN] Invalid data format: " + line);
+                    continue;
+                }
+                Product product = parseLine(line);
+                if (product != null) {
+                    loaded.add(product);
+                    if (catalog != null) {
+                        promoted.put(product.getProductId(), product);
+                    }
                 }
             }
         } catch (IOException e) {
             System.out.println("[ERR] Failed to load Inventory: " + e.getMessage());
         }
+        products = ProductSnapshot.of(loaded);
     }
-    public boolean removeProduct(int productId) {
-    for (int i = 0; i < products.size(); i++) {
-        if (products.get(i).getProductId() == productId) {
-            products.remove(i);
+
+    String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Records that the stock changes of a {@link Transfers} batch are in
+     * this inventory. The number is saved with the quantities, so the file
+     * always tells which batches it holds.
+     */
+    void setTransferBatch(long batch) {
+        transferBatch = Math.max(transferBatch, batch);
+    }
+
+    /**
+     * The last transfer batch whose stock changes the inventory file holds:
+     * 0 if there is no file yet, -1 if it was saved before files recorded
+     * it.
+     */
+    long savedTransferBatch() throws IOException {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String first = reader.readLine();
+            if (first == null || !first.startsWith(TRANSFERS_MARK)) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(first.substring(TRANSFERS_MARK.length()).trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Merges a product as another instance saved it. base is how the
+     * product was saved before that (null if it is new), so only what the
+     * other instance changed is taken: fields it changed replace this
+     * inventory's, and its stock change is added to this inventory's
+     * rather than replacing it. A product this instance added under the
+     * same id in the meantime moves to a new id. Changed products get a
+     * new version, so open editors see a conflict; stock differences are
+     * published as EXTERNAL (the other instance put them in the shared
+     * ledger). Nothing is saved. Returns false if nothing changed.
+     */
+    boolean merge(Batch batch, Product saved, Product base) {
+        int id = saved.getProductId();
+        Product p = batch.find(id);
+        if (p != null && base == null && !record(p).equals(record(saved))) {
+            int newId = batch.maxId() + 1;
+            LOG.warn("product.renumbered", "product", p.getName(), "from", id, "to", newId);
+            batch.recordMovement(id, -p.getQuantity(), 0, StockLedger.Reason.RENUMBER);
+            batch.recordMovement(newId, p.getQuantity(), p.getQuantity(), StockLedger.Reason.RENUMBER);
+            Product moved = p.copy();
+            moved.setProductId(newId);
+            moved.markChanged();
+            batch.replace(p, moved);
+            p = null;
+        }
+        if (p == null) {
+            batch.insert(saved);
+            batch.publishMovement(id, saved.getQuantity(), saved.getQuantity(), StockLedger.Reason.EXTERNAL);
             return true;
         }
+        if (base == null) {
+            return false; // added here and there alike
+        }
+        int quantity = p.getQuantity() + saved.getQuantity() - base.getQuantity();
+        int delta = quantity - p.getQuantity();
+        if (p.getClass() != saved.getClass()) {
+            // another product under this id now (the other instance deleted one and renumbered)
+            saved.setQuantity(quantity);
+            saved.markChanged();
+            batch.replace(p, saved);
+        } else {
+            Product merged = p.copy();
+            if (!saved.getName().equals(base.getName())) {
+                merged.setName(saved.getName());
+            }
+            if (saved.getPrice() != base.getPrice()) {
+                merged.setPrice(saved.getPrice());
+            }
+            merged.setQuantity(quantity);
+            String special = ProductConflictException.special(saved);
+            if (!special.equals(ProductConflictException.special(base))) {
+                if (merged instanceof Medicine) {
+                    ((Medicine) merged).setPrescriptionRequired(Boolean.parseBoolean(special));
+                } else if (merged instanceof Cosmetic) {
+                    ((Cosmetic) merged).setSuitableForSkinType(special);
+                }
+            }
+            if (record(merged).equals(record(p))) {
+                return false;
+            }
+            merged.markChanged();
+            batch.replace(p, merged);
+        }
+        if (delta != 0) {
+            batch.publishMovement(id, delta, quantity, StockLedger.Reason.EXTERNAL);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a product as part of the batch. Returns false if there is no
+     * such product or it is in the read-only catalog.
+     */
+    boolean removeProduct(Batch batch, int productId) {
+        return remove(batch, productId, true);
+    }
+
+    /**
+     * Removes a product another instance removed; the removal is in the
+     * shared ledger already, so it is only published.
+     */
+    boolean mergeRemoval(Batch batch, int productId) {
+        return remove(batch, productId, false);
+    }
+
+    private boolean remove(Batch batch, int productId, boolean own) {
+        if (catalog != null && catalog.find(productId) >= 0) {
+            System.out.println("[WARN] Cannot remove product " + productId + " from a read-only catalog");
+            return false;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.get(i).getProductId() == productId) {
+                Product removed = batch.remove(i);
+                if (own) {
+                    batch.recordMovement(productId, -removed.getQuantity(), 0, StockLedger.Reason.REMOVE);
+                } else {
+                    batch.publishMovement(productId, -removed.getQuantity(), 0, StockLedger.Reason.REMOVE);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts a set of product changes that readers see all at once, as one
+     * new snapshot, when it is published. Callers hold the service lock, so
+     * batches do not overlap.
+     */
+    Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * Product changes against the current snapshot. A published product is
+     * never changed again: a change puts a changed, stamped copy in its
+     * place with {@link #replace}. Stock movements are recorded and
+     * published once the batch is, so whoever hears of one finds the
+     * products already changed.
+     */
+    final class Batch {
+        private final ProductSnapshot base = products;
+        private final ProductSnapshot.Builder builder = base.toBuilder();
+        // catalog mode: promoted entries to drop and to add when published
+        private final Set<Product> unpromote = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final Set<Product> promote = Collections.newSetFromMap(new IdentityHashMap<>());
+        // promoted by lookups after the batch started, and taken into it
+        private final Set<Product> adopted = Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<Runnable> movements = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        /** Number of heap products; the catalog's are not counted. */
+        int size() {
+            return builder.size();
+        }
+
+        Product get(int index) {
+            return builder.get(index);
+        }
+
+        /**
+         * The product under this id as the batch has it, or null. A catalog
+         * product is promoted, and published with the batch.
+         */
+        Product find(int productId) {
+            for (int i = 0; i < builder.size(); i++) {
+                if (builder.get(i).getProductId() == productId) {
+                    return builder.get(i);
+                }
+            }
+            if (catalog != null && catalog.find(productId) >= 0) {
+                Product p = findProduct(productId); // promoted after the batch started, or now
+                adopted.add(p);
+                add(p);
+                return p;
+            }
+            return null;
+        }
+
+        /** Highest product id, catalog included. */
+        int maxId() {
+            int max = catalog != null && catalog.size() > 0 ? catalog.idAt(catalog.size() - 1) : 0;
+            for (int i = 0; i < builder.size(); i++) {
+                max = Math.max(max, builder.get(i).getProductId());
+            }
+            return max;
+        }
+
+        /** Adds a product that is not in the inventory yet, with a new stamp. */
+        void insert(Product p) {
+            p.markChanged();
+            add(p);
+        }
+
+        private void add(Product p) {
+            builder.add(p);
+            if (catalog != null) {
+                promote.add(p);
+            }
+        }
+
+        /** Puts updated, a copy of current the caller changed and stamped, in its place. */
+        void replace(Product current, Product updated) {
+            builder.set(indexOf(current), updated);
+            if (catalog != null) {
+                if (!promote.remove(current)) {
+                    unpromote.add(current);
+                }
+                promote.add(updated);
+            }
+        }
+
+        /** Replaces current with a stamped copy holding quantity, and returns the copy. */
+        Product setQuantity(Product current, int quantity) {
+            Product p = current.copy();
+            p.setQuantity(quantity);
+            p.markChanged();
+            replace(current, p);
+            return p;
+        }
+
+        Product remove(int index) {
+            Product p = builder.get(index);
+            builder.remove(index);
+            if (catalog != null && !promote.remove(p)) {
+                unpromote.add(p);
+            }
+            return p;
+        }
+
+        /** See {@link Inventory#recordMovement}; done when the batch is published. */
+        void recordMovement(int productId, int delta, int quantity, StockLedger.Reason reason) {
+            movements.add(() -> Inventory.this.recordMovement(productId, delta, quantity, reason));
+        }
+
+        private void publishMovement(int productId, int delta, int quantity, StockLedger.Reason reason) {
+            movements.add(() -> Inventory.this.publishMovement(productId, delta, quantity, reason));
+        }
+
+        private int indexOf(Product p) {
+            for (int i = 0; i < builder.size(); i++) {
+                if (builder.get(i) == p) {
+                    return i;
+                }
+            }
+            throw new IllegalStateException("Product " + p.getProductId() + " is not in this batch");
+        }
+
+        /** Makes every change visible at once, then records the movements. */
+        void publish() {
+            publishLock.lock();
+            try {
+                // batches do not overlap, so all that can have happened since is promotions
+                ProductSnapshot current = products;
+                for (int i = base.size(); i < current.size(); i++) {
+                    Product p = current.get(i);
+                    if (!adopted.contains(p)) {
+                        builder.add(p);
+                    }
+                }
+                products = builder.build();
+                for (Product p : unpromote) {
+                    promoted.remove(p.getProductId(), p);
+                }
+                for (Product p : promote) {
+                    promoted.put(p.getProductId(), p);
+                }
+            } finally {
+                publishLock.unlock();
+            }
+            for (Runnable movement : movements) {
+                movement.run();
+            }
+        }
+    }
+
+    /**
+     * Read view over catalog plus heap products. Catalog records that were
+     * never promoted are decoded into short-lived copies on each access, so
+     * changes must go through {@link #getProductById(int)}.
+     */
+    private class CatalogProducts extends AbstractList<Product> {
+        private final List<Product> extras = new ArrayList<>();
+
+        CatalogProducts(List<Product> heap) {
+            for (Product p : heap) {
+                if (catalog.find(p.getProductId()) < 0) {
+                    extras.add(p);
+                }
+            }
+        }
+
+        @Override
+        public Product get(int index) {
+            if (index < catalog.size()) {
+                Product p = promoted.get(catalog.idAt(index));
+                return p != null ? p : catalog.materialize(index);
+            }
+            return extras.get(index - catalog.size());
+        }
+
+        @Override
+        public int size() {
+            return catalog.size() + extras.size();
+        }
     }
-    return false;
-}
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package pharmacy;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One branch's inventory, as seen from another branch. A shard is either
+ * the branch's data directory (its inventory.txt, on a shared or
+ * replicated disk) or a running pharmacy at that branch, reached through
+ * its {@link PharmacyServer} API. The local branch is a shard too, so a
+ * {@link FederatedInventory} treats every branch alike.
+ *
+ * @author elkhedewy-group
+ */
+public interface InventoryShard {
+
+    String getBranch();
+
+    /**
+     * The branch's products as they are now. May block on disk or network;
+     * throws IOException when the branch cannot be reached.
+     */
+    List<Product> loadProducts() throws IOException;
+
+    /**
+     * True for shards that are cheap to read and always current, which are
+     * never cached.
+     */
+    default boolean isLocal() {
+        return false;
+    }
+
+    static InventoryShard local(String branch, Inventory inventory) {
+        return new InventoryShard() {
+            @Override
+            public String getBranch() {
+                return branch;
+            }
+
+            @Override
+            public List<Product> loadProducts() {
+                return inventory.getProducts();
+            }
+
+            @Override
+            public boolean isLocal() {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The branch whose data directory is dir. The file is only parsed again
+     * when its size or modification time changed.
+     */
+    static InventoryShard directory(String branch, String dir) {
+        return new DirectoryShard(branch, new File(dir, "inventory.txt"));
+    }
+
+    /**
+     * The branch whose pharmacy server answers at baseUri, e.g.
+     * http://10.0.0.12:8080.
+     */
+    static InventoryShard remote(String branch, String baseUri, Duration timeout) {
+        return new RemoteShard(branch, URI.create(baseUri.replaceAll("/+$", "") + "/inventory"), timeout);
+    }
+
+    final class DirectoryShard implements InventoryShard {
+        private final String branch;
+        private final File file;
+        private final ReentrantLock lock = new ReentrantLock();
+        private long lastModified = -1;
+        private long lastLength = -1;
+        private List<Product> products = List.of();
+
+        DirectoryShard(String branch, File file) {
+            this.branch = branch;
+            this.file = file;
+        }
+
+        @Override
+        public String getBranch() {
+            return branch;
+        }
+
+        @Override
+        public List<Product> loadProducts() throws IOException {
+            if (!file.isFile()) {
+                throw new IOException("No inventory at " + file);
+            }
+            lock.lock();
+            try {
+                long modified = file.lastModified();
+                long length = file.length();
+                if (modified != lastModified || length != lastLength) {
+                    products = new Inventory(file.getPath()).getProducts();
+                    lastModified = modified;
+                    lastLength = length;
+                }
+                return products;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    final class RemoteShard implements InventoryShard {
+        private static final HttpClient CLIENT = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+
+        private final String branch;
+        private final URI uri;
+        private final Duration timeout;
+
+        RemoteShard(String branch, URI uri, Duration timeout) {
+            this.branch = branch;
+            this.uri = uri;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public String getBranch() {
+            return branch;
+        }
+
+        @Override
+        public List<Product> loadProducts() throws IOException {
+            HttpRequest request = HttpRequest.newBuilder(uri).timeout(timeout).GET().build();
+            HttpResponse<byte[]> response;
+            try {
+                response = CLIENT.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while asking " + uri);
+            }
+            if (response.statusCode() != 200) {
+                throw new IOException(uri + " answered " + response.statusCode());
+            }
+            List<Product> products = new ArrayList<>();
+            WireFormat.Decoder in = new WireFormat.Decoder(response.body());
+            try {
+                while (in.nextLine()) {
+                    products.add(in.product());
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad inventory from " + uri + ": " + e.getMessage());
+            }
+            return products;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package pharmacy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous structured logging for the hot paths.
+ *
+ * A log call checks the level first and returns immediately if it is
+ * disabled, before anything is concatenated or formatted. Enabled events
+ * are copied into a preallocated slot of a lock-free ring buffer; a
+ * background thread formats them as key=value lines and writes them to a
+ * rolling log file:
+ * <pre>
+ * 2026-10-19 10:58:11.266 INFO  Inventory quantity.updated product="Face Cream" quantity=98
+ * </pre>
+ * The caller never waits for I/O. If the buffer is full the event is
+ * dropped and counted (see the log.dropped counter in {@link Metrics}).
+ * WARN and ERROR events are also echoed to stderr by the writer thread.
+ *
+ * Configuration (system properties):
+ *   pharmacy.log.level     DEBUG, INFO, WARN, ERROR or OFF [INFO]
+ *   pharmacy.log.file      log file, relative to the data directory [pharmacy.log]
+ *   pharmacy.log.maxBytes  size at which the file is rolled [10485760]
+ *   pharmacy.log.files     rolled files kept, pharmacy.log.1 .. .n [5]
+ *
+ * @author elkhedewy-group
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    private static final Level THRESHOLD = parseLevel(System.getProperty("pharmacy.log.level", "INFO"));
+    private static final int MAX_FIELDS = 4;
+    private static volatile Appender appender;
+
+    private final String name;
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    public static Log get(String name) {
+        return new Log(name);
+    }
+
+    public static Log get(Class<?> type) {
+        return new Log(type.getSimpleName());
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(THRESHOLD) >= 0 && level != Level.OFF;
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    // Fixed-arity overloads so a disabled call allocates nothing.
+
+    public void debug(String event) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, event, null, null, null, null, null, null, null, null);
+        }
+    }
+
+    public void debug(String event, String k1, Object v1) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, event, k1, v1, null, null, null, null, null, null);
+        }
+    }
+
+    public void debug(String event, String k1, Object v1, String k2, Object v2) {
+        if (isEnabled(Level.DEBUG)) {
+            log(Level.DEBUG, event, k1, v1, k2, v2, null, null, null, null);
+        }
+    }
+
+    public void info(String event) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, event, null, null, null, null, null, null, null, null);
+        }
+    }
+
+    public void info(String event, String k1, Object v1) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, event, k1, v1, null, null, null, null, null, null);
+        }
+    }
+
+    public void info(String event, String k1, Object v1, String k2, Object v2) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, event, k1, v1, k2, v2, null, null, null, null);
+        }
+    }
+
+    public void info(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, event, k1, v1, k2, v2, k3, v3, null, null);
+        }
+    }
+
+    public void info(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3,
+            String k4, Object v4) {
+        if (isEnabled(Level.INFO)) {
+            log(Level.INFO, event, k1, v1, k2, v2, k3, v3, k4, v4);
+        }
+    }
+
+    public void warn(String event, String k1, Object v1) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, event, k1, v1, null, null, null, null, null, null);
+        }
+    }
+
+    public void warn(String event, String k1, Object v1, String k2, Object v2) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, event, k1, v1, k2, v2, null, null, null, null);
+        }
+    }
+
+    public void warn(String event, String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+        if (isEnabled(Level.WARN)) {
+            log(Level.WARN, event, k1, v1, k2, v2, k3, v3, null, null);
+        }
+    }
+
+    public void error(String event, String k1, Object v1) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, event, k1, v1, null, null, null, null, null, null);
+        }
+    }
+
+    public void error(String event, String k1, Object v1, String k2, Object v2) {
+        if (isEnabled(Level.ERROR)) {
+            log(Level.ERROR, event, k1, v1, k2, v2, null, null, null, null);
+        }
+    }
+
+    /**
+     * Blocks until everything logged so far has been written. Meant for
+     * shutdown and tests, not for the hot path.
+     */
+    public static void flush() {
+        Appender a = appender();
+        if (a != null) {
+            a.flush();
+        }
+    }
+
+    private void log(Level level, String event, String k1, Object v1, String k2, Object v2,
+            String k3, Object v3, String k4, Object v4) {
+        Appender a = appender();
+        if (a != null) {
+            a.offer(System.currentTimeMillis(), level, name, event, k1, v1, k2, v2, k3, v3, k4, v4);
+        }
+    }
+
+    private static Appender appender() {
+        Appender a = appender;
+        if (a != null || THRESHOLD == Level.OFF) {
+            return a;
+        }
+        synchronized (Log.class) {
+            if (appender == null) {
+                appender = new Appender(new File(DataFiles.path(System.getProperty("pharmacy.log.file", "pharmacy.log"))),
+                        Long.getLong("pharmacy.log.maxBytes", 10L * 1024 * 1024),
+                        Integer.getInteger("pharmacy.log.files", 5));
+            }
+            return appender;
+        }
+    }
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[WARN] Unknown log level " + value + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * One preallocated event. Owned by a producer between claiming the slot
+     * and publishing its sequence, then by the writer thread.
+     */
+    private static final class Entry {
+        long time;
+        Level level;
+        String logger;
+        String event;
+        final String[] keys = new String[MAX_FIELDS];
+        final Object[] values = new Object[MAX_FIELDS];
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring. A slot's sequence is
+     * its position when free for producers and position + 1 once
+     * published (D. Vyukov's bounded queue).
+     */
+    private static final class Appender implements Runnable {
+        private static final int CAPACITY = 1 << 14;
+
+        private final Entry[] slots = new Entry[CAPACITY];
+        private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final Metrics.Counter dropped = Metrics.counter("log.dropped");
+        private long head;
+        private volatile boolean idle;
+        private final Thread writerThread;
+
+        private final File file;
+        private final long maxBytes;
+        private final int maxFiles;
+        private BufferedWriter out;
+        private long fileBytes;
+        private final StringBuilder line = new StringBuilder(256);
+        private final char[] stamp = new char[TimestampCodec.LENGTH];
+        private final PrintStream console = System.err;
+
+        Appender(File file, long maxBytes, int maxFiles) {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.maxFiles = maxFiles;
+            for (int i = 0; i < CAPACITY; i++) {
+                slots[i] = new Entry();
+                sequences.set(i, i);
+            }
+            writerThread = new Thread(this, "pharmacy-log");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "pharmacy-log-flush"));
+        }
+
+        void offer(long time, Level level, String logger, String event, String k1, Object v1, String k2, Object v2,
+                String k3, Object v3, String k4, Object v4) {
+            long position = tail.get();
+            int index;
+            while (true) {
+                index = (int) (position & (CAPACITY - 1));
+                long diff = sequences.get(index) - position;
+                if (diff == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                    position = tail.get();
+                } else if (diff < 0) {
+                    dropped.increment();
+                    return;
+                } else {
+                    position = tail.get();
+                }
+            }
+            Entry e = slots[index];
+            e.time = time;
+            e.level = level;
+            e.logger = logger;
+            e.event = event;
+            e.keys[0] = k1;
+            e.values[0] = v1;
+            e.keys[1] = k2;
+            e.values[1] = v2;
+            e.keys[2] = k3;
+            e.values[2] = v3;
+            e.keys[3] = k4;
+            e.values[3] = v4;
+            sequences.lazySet(index, position + 1);
+            if (idle) {
+                LockSupport.unpark(writerThread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                if (!drain()) {
+                    idle = true;
+                    if (!available()) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                    }
+                    idle = false;
+                }
+            }
+        }
+
+        void flush() {
+            long target = tail.get();
+            while (written.get() < target && writerThread.isAlive()) {
+                LockSupport.unpark(writerThread);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+
+        private boolean available() {
+            return sequences.get((int) (head & (CAPACITY - 1))) == head + 1;
+        }
+
+        // writes every published entry; false if there was none
+        private boolean drain() {
+            boolean any = false;
+            while (available()) {
+                int index = (int) (head & (CAPACITY - 1));
+                Entry e = slots[index];
+                format(e);
+                e.logger = null;
+                e.event = null;
+                for (int i = 0; i < MAX_FIELDS; i++) {
+                    e.keys[i] = null;
+                    e.values[i] = null;
+                }
+                sequences.lazySet(index, head + CAPACITY);
+                head++;
+                write();
+                any = true;
+            }
+            if (any) {
+                try {
+                    if (out != null) {
+                        out.flush();
+                    }
+                } catch (IOException ex) {
+                    closeQuietly();
+                }
+                written.set(head);
+            }
+            return any;
+        }
+
+        private void format(Entry e) {
+            line.setLength(0);
+            TimestampCodec.system().format(e.time / 1000, stamp, 0);
+            line.append(stamp).append('.');
+            int millis = (int) (e.time % 1000);
+            line.append((char) ('0' + millis / 100)).append((char) ('0' + millis / 10 % 10)).append((char) ('0' + millis % 10));
+            line.append(' ').append(e.level.name());
+            for (int i = e.level.name().length(); i < 5; i++) {
+                line.append(' ');
+            }
+            line.append(' ').append(e.logger).append(' ').append(e.event);
+            for (int i = 0; i < MAX_FIELDS && e.keys[i] != null; i++) {
+                line.append(' ').append(e.keys[i]).append('=');
+                appendValue(e.values[i]);
+            }
+            if (e.level.compareTo(Level.WARN) >= 0) {
+                console.println("[" + e.level + "] " + line.substring(30));
+            }
+            line.append(System.lineSeparator());
+        }
+
+        private void appendValue(Object value) {
+            if (!(value instanceof CharSequence)) {
+                line.append(value);
+                return;
+            }
+            CharSequence text = (CharSequence) value;
+            line.append('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    line.append('\\').append(c);
+                } else if (c == '\n') {
+                    line.append("\\n");
+                } else {
+                    line.append(c);
+                }
+            }
+            line.append('"');
+        }
+
+        private void write() {
+            try {
+                if (out == null) {
+                    File parent = file.getAbsoluteFile().getParentFile();
+                    if (parent != null) {
+                        parent.mkdirs();
+                    }
+                    out = new BufferedWriter(new FileWriter(file, true), 1 << 16);
+                    fileBytes = file.length();
+                }
+                out.append(line);
+                fileBytes += line.length();
+                if (maxBytes > 0 && fileBytes >= maxBytes) {
+                    roll();
+                }
+            } catch (IOException ex) {
+                closeQuietly();
+            }
+        }
+
+        private void roll() throws IOException {
+            out.close();
+            out = null;
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                File from = new File(file.getPath() + "." + i);
+                if (from.exists()) {
+                    File to = new File(file.getPath() + "." + (i + 1));
+                    to.delete();
+                    from.renameTo(to);
+                }
+            }
+            File first = new File(file.getPath() + ".1");
+            first.delete();
+            if (maxFiles > 0) {
+                file.renameTo(first);
+            } else {
+                file.delete();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException ignored) {
+                // the next write reopens the file
+            }
+            out = null;
+        }
+    }
+}
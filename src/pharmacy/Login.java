@@ -76,7 +76,7 @@ public class Login {
     }
 
     private static void loadUsersFromFile() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(FILE_NAME))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(DataFiles.path(FILE_NAME)))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split(",");
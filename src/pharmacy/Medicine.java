@@ -56,6 +56,13 @@ public class Medicine extends Product {
         this.quantity = quantity;
     }
 
+    @Override
+    public Medicine copy() {
+        Medicine m = new Medicine(prescriptionRequired, productId, name, price, quantity);
+        m.version = version;
+        return m;
+    }
+
     @Override
     public String toString() {
         return "Medicine{" + "prescriptionRequired=" + prescriptionRequired + '}';
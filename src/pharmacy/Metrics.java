@@ -0,0 +1,245 @@
+package pharmacy;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide registry of counters, gauges and latency timers.
+ *
+ * Every metric is registered as an MXBean under "pharmacy:type=...,name=..."
+ * when it is first created, so jconsole / VisualVM show them without any
+ * setup. {@link #startLog()} additionally appends one line per metric to
+ * pharmacy-metrics.log every -Dpharmacy.metrics.interval seconds (default
+ * 60), with the timers' percentiles over that interval.
+ *
+ * Recording never blocks: counters are LongAdders and timers are
+ * {@link LatencyHistogram}s.
+ *
+ * @author elkhedewy-group
+ */
+public final class Metrics {
+    static final String LOG_FILE = "pharmacy-metrics.log";
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService logger;
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> register("Counter", n, new Counter()));
+    }
+
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, n -> register("Timer", n, new Timer()));
+    }
+
+    /**
+     * Registers (or replaces) a gauge that is read when metrics are
+     * reported. The supplier must be cheap and thread-safe.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        Gauge gauge = GAUGES.computeIfAbsent(name, n -> register("Gauge", n, new Gauge()));
+        gauge.supplier = value;
+    }
+
+    /**
+     * Starts the periodic metrics log. Calling it again has no effect.
+     */
+    public static synchronized void startLog() {
+        if (logger != null) {
+            return;
+        }
+        long interval = Math.max(1, Long.getLong("pharmacy.metrics.interval", 60L));
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pharmacy-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        IntervalLog log = new IntervalLog();
+        logger.scheduleAtFixedRate(log::write, interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(log::write, "pharmacy-metrics-flush"));
+        System.out.println("[INFO] Writing metrics to " + DataFiles.path(LOG_FILE) + " every " + interval + "s");
+    }
+
+    private static <T> T register(String type, String name, T metric) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("pharmacy:type=" + type + ",name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metric, objectName);
+        } catch (JMException e) {
+            System.out.println("[WARN] Failed to register metric " + name + " with JMX: " + e.getMessage());
+        }
+        return metric;
+    }
+
+    private static String millis(double nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+
+    // ===================== Metric types =====================
+
+    public interface CounterMXBean {
+        long getCount();
+    }
+
+    public interface GaugeMXBean {
+        long getValue();
+    }
+
+    public interface TimerMXBean {
+        long getCount();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getP999Millis();
+
+        double getMaxMillis();
+    }
+
+    public static final class Counter implements CounterMXBean {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long n) {
+            count.add(n);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+    }
+
+    public static final class Gauge implements GaugeMXBean {
+        private volatile LongSupplier supplier = () -> 0L;
+
+        @Override
+        public long getValue() {
+            try {
+                return supplier.getAsLong();
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Latency of one operation. Typical use:
+     * <pre>
+     * long start = System.nanoTime();
+     * ...
+     * timer.recordSince(start);
+     * </pre>
+     * JMX attributes cover everything recorded since startup.
+     */
+    public static final class Timer implements TimerMXBean {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        public void recordSince(long startNanos) {
+            histogram.recordSince(startNanos);
+        }
+
+        public void record(long nanos) {
+            histogram.record(nanos);
+        }
+
+        public LatencyHistogram.Snapshot snapshot() {
+            return histogram.snapshot();
+        }
+
+        @Override
+        public long getCount() {
+            return snapshot().getCount();
+        }
+
+        @Override
+        public double getMeanMillis() {
+            return snapshot().getMean() / 1e6;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return snapshot().percentile(0.50) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return snapshot().percentile(0.99) / 1e6;
+        }
+
+        @Override
+        public double getP999Millis() {
+            return snapshot().percentile(0.999) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return snapshot().getMax() / 1e6;
+        }
+    }
+
+    /**
+     * Writes the metrics log. Timers are reported per interval by
+     * subtracting the previous snapshot.
+     */
+    private static final class IntervalLog {
+        private final Map<String, LatencyHistogram.Snapshot> previous = new ConcurrentHashMap<>();
+
+        synchronized void write() {
+            String time = TimestampCodec.system().format(Instant.now());
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(DataFiles.path(LOG_FILE), true))) {
+                for (Map.Entry<String, Counter> e : new TreeMap<>(COUNTERS).entrySet()) {
+                    writer.write(time + " counter " + e.getKey() + " count=" + e.getValue().getCount());
+                    writer.newLine();
+                }
+                for (Map.Entry<String, Gauge> e : new TreeMap<>(GAUGES).entrySet()) {
+                    writer.write(time + " gauge " + e.getKey() + " value=" + e.getValue().getValue());
+                    writer.newLine();
+                }
+                for (Map.Entry<String, Timer> e : new TreeMap<>(TIMERS).entrySet()) {
+                    LatencyHistogram.Snapshot now = e.getValue().snapshot();
+                    LatencyHistogram.Snapshot before = previous.put(e.getKey(), now);
+                    LatencyHistogram.Snapshot interval = before == null ? now : now.minus(before);
+                    writer.write(time + " timer " + e.getKey()
+                            + " count=" + interval.getCount()
+                            + " total=" + now.getCount()
+                            + " mean_ms=" + millis(interval.getMean())
+                            + " p50_ms=" + millis(interval.percentile(0.50))
+                            + " p99_ms=" + millis(interval.percentile(0.99))
+                            + " p999_ms=" + millis(interval.percentile(0.999))
+                            + " max_ms=" + millis(interval.getMax()));
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                System.out.println("[ERR] Failed to write metrics log: " + e.getMessage());
+            }
+        }
+    }
+}
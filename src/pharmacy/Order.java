@@ -1,10 +1,19 @@
 package pharmacy;
 
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * 
@@ -16,27 +25,32 @@ public class Order {
     private Customer customer;
     private List<OrderItem> items;
     private double totalAmount;
-    private Date orderDate;
+    private Instant orderDate;
     private String status;
-    private static final String ORDERS_FILE = "orders.txt";
+    static final String ORDERS_FILE = "orders.txt";
     private static final String ORDER_ITEMS_FILE = "order_details.txt";
     private String soldBy;
+    private static final Metrics.Timer COMPLETE_TIMER = Metrics.timer("order.complete");
+    private static final Metrics.Timer GROUP_TIMER = Metrics.timer("order.completeGroup");
+    private static final Metrics.Counter COMPLETED = Metrics.counter("orders.completed");
+    private static final Metrics.Counter LINES = Metrics.counter("orders.lines");
+    private static final Log LOG = Log.get(Order.class);
     
     static {
         loadOrderCounter();
     }
     
     public Order(Customer customer, String soldBy) {
-        this.orderId = ++orderCounter;
+        this.orderId = nextOrderId();
         this.customer = customer;
         this.items = new ArrayList<>();
-        this.orderDate = new Date();
+        this.orderDate = Instant.now().truncatedTo(ChronoUnit.SECONDS);
         this.status = "Pending";
         this.totalAmount = 0.0;
         this.soldBy = soldBy;
     }
     
-    public Order(int orderId, Customer customer, Date orderDate, String status, double totalAmount, String soldBy) {
+    public Order(int orderId, Customer customer, Instant orderDate, String status, double totalAmount, String soldBy) {
         this.orderId = orderId;
         this.customer = customer;
         this.orderDate = orderDate;
@@ -44,9 +58,24 @@ public class Order {
         this.totalAmount = totalAmount;
         this.soldBy = soldBy;
         this.items = new ArrayList<>();
+    }
+    
+    // an order loaded into the service; ids handed out here stay above it
+    static void noteLoaded(int orderId) {
         if (orderId > orderCounter) orderCounter = orderId;
     }
     
+    // numbered through orders.txt's sidecar, so instances sharing the data directory never reuse an id
+    private static int nextOrderId() {
+        try {
+            orderCounter = (int) DataLocks.get().next(DataFiles.path(ORDERS_FILE), orderCounter);
+        } catch (IOException e) {
+            LOG.warn("order.idUnshared", "error", e.getMessage());
+            orderCounter++;
+        }
+        return orderCounter;
+    }
+    
     public String getSoldBy() { return soldBy; }
     
     public void addItem(Product product, int quantity) {
@@ -86,87 +115,211 @@ public class Order {
     }
     
     public void completeOrder() {
+        PharmacyEvents.OrderComplete event = new PharmacyEvents.OrderComplete();
+        event.begin();
+        long start = System.nanoTime();
         this.status = "Completed";
-        saveOrderToFile();
-        saveOrderItemsToFile();
+        long bytes = appendOrder() + appendOrderItems();
+        COMPLETE_TIMER.recordSince(start);
+        COMPLETED.increment();
+        LINES.add(items.size());
+        event.end();
+        if (event.shouldCommit()) {
+            event.orderId = orderId;
+            event.lineCount = items.size();
+            event.bytesWritten = bytes;
+            event.commit();
+        }
     }
     
     public void saveOrderToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(ORDERS_FILE, true))) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            writer.write(orderId + "," + 
-                customer.getCustomerid() + "," + 
-                customer.getName() + "," + 
-                dateFormat.format(orderDate) + "," + 
-                status + "," + 
-                String.format("%.2f", totalAmount) + "," +
-                (soldBy != null ? soldBy : "Unknown"));
-            writer.newLine();
-            System.out.println("✅ Order " + orderId + " saved to file successfully.");
+        appendOrder();
+    }
+    
+    public void saveOrderItemsToFile() {
+        appendOrderItems();
+    }
+    
+    // both return the number of bytes appended (the fields are ASCII)
+    private long appendOrder() {
+        StringWriter out = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(out)) {
+            long bytes = writeOrder(writer);
+            append(ORDERS_FILE, writer, out);
+            LOG.info("order.saved", "orderId", orderId, "bytes", bytes);
+            return bytes;
         } catch (IOException e) {
-            System.err.println("[ERROR] Failed to save order: " + e.getMessage());
+            LOG.error("order.saveFailed", "orderId", orderId, "error", e.getMessage());
+            return 0;
+        } finally {
+            DataFiles.changed(DataFiles.path(ORDERS_FILE), true);
         }
     }
     
-    public void saveOrderItemsToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(ORDER_ITEMS_FILE, true))) {
-            for (OrderItem item : items) {
-                writer.write(orderId + "," + 
-                            item.getProduct().getProductId() + "," + 
-                            item.getProduct().getName() + "," + 
-                            item.getQuantity() + "," + 
-                            String.format("%.2f", item.getProduct().getPrice()) + "," + 
-                            String.format("%.2f", item.calculateSubtotal()));
-                writer.newLine();
+    private long appendOrderItems() {
+        StringWriter out = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(out)) {
+            long bytes = writeOrderItems(writer);
+            append(ORDER_ITEMS_FILE, writer, out);
+            LOG.info("order.itemsSaved", "orderId", orderId, "lines", items.size(), "bytes", bytes);
+            return bytes;
+        } catch (IOException e) {
+            LOG.error("order.itemsSaveFailed", "orderId", orderId, "error", e.getMessage());
+            return 0;
+        } finally {
+            DataFiles.changed(DataFiles.path(ORDER_ITEMS_FILE), true);
+        }
+    }
+    
+    /**
+     * Appends what was written to out as one reserved region of the file,
+     * so instances sharing the data directory can complete orders at the
+     * same time without interleaving lines; see {@link DataLocks}.
+     */
+    private static void append(String fileName, BufferedWriter writer, StringWriter out) throws IOException {
+        writer.flush();
+        DataLocks.get().append(DataFiles.path(fileName), out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private long writeOrder(BufferedWriter writer) throws IOException {
+        String line = orderId + "," + 
+            customer.getCustomerid() + "," + 
+            customer.getName() + "," + 
+            TimestampCodec.system().format(orderDate) + "," + 
+            status + "," + 
+            String.format("%.2f", totalAmount) + "," +
+            (soldBy != null ? soldBy : "Unknown");
+        writer.write(line);
+        writer.newLine();
+        return line.length() + System.lineSeparator().length();
+    }
+    
+    private long writeOrderItems(BufferedWriter writer) throws IOException {
+        long bytes = 0;
+        for (OrderItem item : items) {
+            String line = orderId + "," + 
+                        item.getProduct().getProductId() + "," + 
+                        item.getProduct().getName() + "," + 
+                        item.getQuantity() + "," + 
+                        String.format("%.2f", item.getProduct().getPrice()) + "," + 
+                        String.format("%.2f", item.calculateSubtotal());
+            writer.write(line);
+            writer.newLine();
+            bytes += line.length() + System.lineSeparator().length();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Completes a group of orders with one append to each file instead of
+     * two per order, in the order given. Returns the bytes written. If the
+     * orders cannot be appended they are left Pending and the failure is
+     * thrown; their lines are then not written either.
+     */
+    static long completeOrders(List<Order> group) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        int lines = 0;
+        for (Order order : group) {
+            order.status = "Completed";
+            lines += order.items.size();
+        }
+        StringWriter out = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(out, 1 << 16)) {
+            for (Order order : group) {
+                bytes += order.writeOrder(writer);
             }
-            System.out.println("✅ Order items for order " + orderId + " saved successfully.");
+            append(ORDERS_FILE, writer, out);
         } catch (IOException e) {
-            System.err.println("[ERROR] Failed to save order items: " + e.getMessage());
+            LOG.error("order.groupSaveFailed", "orders", group.size(), "error", e.getMessage());
+            for (Order order : group) {
+                order.status = "Pending";
+            }
+            throw e;
+        }
+        DataFiles.changed(DataFiles.path(ORDERS_FILE), true);
+        out = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(out, 1 << 16)) {
+            for (Order order : group) {
+                bytes += order.writeOrderItems(writer);
+            }
+            append(ORDER_ITEMS_FILE, writer, out);
+        } catch (IOException e) {
+            LOG.error("order.groupItemsSaveFailed", "orders", group.size(), "error", e.getMessage());
         }
+        DataFiles.changed(DataFiles.path(ORDER_ITEMS_FILE), true);
+        GROUP_TIMER.recordSince(start);
+        COMPLETED.add(group.size());
+        LINES.add(lines);
+        LOG.info("order.groupSaved", "orders", group.size(), "lines", lines, "bytes", bytes);
+        return bytes;
     }
     
     public static List<Order> loadOrdersFromFile(List<Customer> customers) {
-        List<Order> orders = new ArrayList<>();
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(ORDERS_FILE))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 6) {
-                    int orderId = Integer.parseInt(parts[0]);
-                    int customerId = Integer.parseInt(parts[1]);
-                    String customerName = parts[2];
-                    Date orderDate = dateFormat.parse(parts[3]);
-                    String status = parts[4];
-                    double totalAmount = Double.parseDouble(parts[5]);
-                    String soldBy = parts.length > 6 ? parts[6] : "Unknown";
-                    
-                    Customer customer = null;
-                    for (Customer c : customers) {
-                        if (c.getCustomerid() == customerId) {
-                            customer = c;
-                            break;
-                        }
-                    }
-                    
-                    if (customer == null) {
-                        customer = new Customer( customerName, "Unknown");
-                    }
-                    
-                    Order order = new Order(orderId, customer, orderDate, status, totalAmount, soldBy);
-                    orders.add(order);
-                }
-            }
-        } catch (Exception e) {
+        try (Stream<Order> stream = streamOrdersFromFile(customers, OrderQuery.all())) {
+            return stream.collect(Collectors.toCollection(ArrayList::new));
+        } catch (UncheckedIOException e) {
             System.out.println("No existing orders file or error reading: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Lazily reads orders.txt. Lines are only turned into Orders after they
+     * pass the query, so exports and reports run in constant memory. The
+     * stream holds the file open and must be closed (try-with-resources).
+     */
+    public static Stream<Order> streamOrdersFromFile(List<Customer> customers, OrderQuery query) {
+        Stream<String> lines;
+        try {
+            lines = Files.lines(Paths.get(DataFiles.path(ORDERS_FILE)), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("No existing orders file or error reading: " + e.getMessage());
+            return Stream.empty();
+        }
+        if (query.isParallel()) {
+            lines = lines.parallel();
+        }
+        Map<Integer, Customer> customersById = new HashMap<>();
+        for (Customer c : customers) {
+            customersById.put(c.getCustomerid(), c);
+        }
+        return lines.map(line -> parseOrderLine(line, customersById, query))
+                .filter(Objects::nonNull);
+    }
+    
+    // a line another instance appended, or null
+    static Order fromLine(String line, Map<Integer, Customer> customersById) {
+        return parseOrderLine(line, customersById, OrderQuery.all());
+    }
+    
+    private static Order parseOrderLine(String line, Map<Integer, Customer> customersById, OrderQuery query) {
+        String[] parts = line.split(",");
+        if (parts.length < 6) {
+            return null;
+        }
+        try {
+            int customerId = Integer.parseInt(parts[1]);
+            if (!query.matchesCustomer(customerId) || !query.matchesTime(parts[3])) {
+                return null;
+            }
+            int orderId = Integer.parseInt(parts[0]);
+            Instant orderDate = Instant.ofEpochSecond(TimestampCodec.system().parseEpochSecond(parts[3]));
+            String soldBy = parts.length > 6 ? parts[6] : "Unknown";
+            
+            Customer customer = customersById.get(customerId);
+            if (customer == null) {
+                customer = new Customer(customerId, parts[2], "Unknown");
+            }
+            return new Order(orderId, customer, orderDate, parts[4], Double.parseDouble(parts[5]), soldBy);
+        } catch (NumberFormatException | DateTimeParseException e) {
+            System.out.println("[WARN] Skipping invalid order line: " + line);
+            return null;
         }
-        
-        return orders;
     }
     
     public void loadOrderItems(List<Product> allProducts) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(ORDER_ITEMS_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(DataFiles.path(ORDER_ITEMS_FILE)))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split(",");
@@ -200,7 +353,7 @@ public class Order {
     }
     
     private static void loadOrderCounter() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(ORDERS_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(DataFiles.path(ORDERS_FILE)))) {
             String line;
             int maxId = 0;
             while ((line = reader.readLine()) != null) {
@@ -223,7 +376,7 @@ public class Order {
     public Customer getCustomer() { return customer; }
     public List<OrderItem> getItems() { return items; }
     public double getTotalAmount() { return totalAmount; }
-    public Date getOrderDate() { return orderDate; }
+    public Instant getOrderDate() { return orderDate; }
     public String getStatus() { return status; }
     
     public void setStatus(String status) { this.status = status; }
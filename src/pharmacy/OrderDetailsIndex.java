@@ -0,0 +1,209 @@
+package pharmacy;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte-offset index over order_details.txt. For every order id it keeps the
+ * span [start, end) of the file holding that order's lines, so the lines of
+ * a single order can be re-read with one seek instead of a full scan.
+ *
+ * The index only grows: {@link #refresh()} picks up lines appended since the
+ * last scan. A ReentrantLock rather than the monitor guards it, so readers
+ * on virtual threads are not pinned while a refresh scans the file.
+ *
+ * @author elkhedewy-group
+ */
+class OrderDetailsIndex {
+    private final String fileName;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int size;
+    private int[] ids = new int[64];
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+    private boolean sorted = true;
+    private long indexedLength;
+
+    OrderDetailsIndex(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Indexes lines appended to the file since the previous call.
+     */
+    void refresh() {
+        lock.lock();
+        try {
+            File file = new File(fileName);
+            if (!file.exists() || file.length() <= indexedLength) {
+                return;
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+                in.skipNBytes(indexedLength);
+                long position = indexedLength;
+                long lineStart = position;
+                int orderId = 0;
+                int digits = 0;
+                boolean inId = true;
+                int b;
+                while ((b = in.read()) != -1) {
+                    position++;
+                    if (b == '\n') {
+                        if (!inId && digits > 0) {
+                            add(orderId, lineStart, position);
+                        }
+                        lineStart = position;
+                        orderId = 0;
+                        digits = 0;
+                        inId = true;
+                    } else if (inId) {
+                        if (b >= '0' && b <= '9') {
+                            orderId = orderId * 10 + (b - '0');
+                            digits++;
+                        } else {
+                            // a comma ends the id; anything else makes the line unusable
+                            digits = (b == ',') ? digits : 0;
+                            inId = false;
+                        }
+                    }
+                }
+                // an unterminated last line is picked up again by the next refresh
+                indexedLength = lineStart;
+            } catch (IOException e) {
+                System.out.println("[ERR] Failed to index order items: " + e.getMessage());
+            }
+            if (!sorted) {
+                sort();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Raw detail lines of the given order, or an empty list if it has none.
+     */
+    List<String> readLines(int orderId) {
+        long start;
+        long end;
+        lock.lock();
+        try {
+            int slot = find(orderId);
+            if (slot < 0) {
+                return new ArrayList<>();
+            }
+            start = starts[slot];
+            end = ends[slot];
+        } finally {
+            lock.unlock();
+        }
+        List<String> lines = new ArrayList<>();
+        try (RandomAccessFile raf = new RandomAccessFile(fileName, "r")) {
+            byte[] span = new byte[(int) (end - start)];
+            raf.seek(start);
+            raf.readFully(span);
+            String prefix = orderId + ",";
+            for (String line : new String(span, StandardCharsets.UTF_8).split("\r?\n")) {
+                // the span may cover lines of other orders if an order was written twice
+                if (line.startsWith(prefix)) {
+                    lines.add(line);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("[ERR] Failed to read items of order " + orderId + ": " + e.getMessage());
+        }
+        return lines;
+    }
+
+    boolean contains(int orderId) {
+        lock.lock();
+        try {
+            return find(orderId) >= 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(int orderId, long start, long end) {
+        if (size > 0 && ids[size - 1] == orderId) {
+            ends[size - 1] = end;
+            return;
+        }
+        int slot = sorted ? -1 : linearFind(orderId);
+        if (sorted && size > 0 && orderId <= ids[size - 1]) {
+            slot = find(orderId);
+        }
+        if (slot >= 0) {
+            starts[slot] = Math.min(starts[slot], start);
+            ends[slot] = Math.max(ends[slot], end);
+            return;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        if (size > 0 && orderId < ids[size - 1]) {
+            sorted = false;
+        }
+        ids[size] = orderId;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    private int find(int orderId) {
+        if (!sorted) {
+            return linearFind(orderId);
+        }
+        int slot = Arrays.binarySearch(ids, 0, size, orderId);
+        return slot >= 0 ? slot : -1;
+    }
+
+    private int linearFind(int orderId) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == orderId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void sort() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
+        int[] newIds = new int[ids.length];
+        long[] newStarts = new long[ids.length];
+        long[] newEnds = new long[ids.length];
+        for (int i = 0; i < size; i++) {
+            newIds[i] = ids[order[i]];
+            newStarts[i] = starts[order[i]];
+            newEnds[i] = ends[order[i]];
+        }
+        ids = newIds;
+        starts = newStarts;
+        ends = newEnds;
+        sorted = true;
+    }
+}
@@ -0,0 +1,368 @@
+package pharmacy;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+
+/**
+ * Compact, column-oriented store of historical orders.
+ *
+ * Every order is one row across parallel primitive arrays (epoch-second
+ * timestamps, customer ids, dictionary-encoded status and cashier). Order
+ * lines are kept in CSR form: the lines of row i live in
+ * [lineStart[i], lineStart[i + 1]) of the line columns. Full {@link Order}
+ * objects are only built on demand by {@link #view(int, List, List)}.
+ *
+ * @author elkhedewy-group
+ */
+public class OrderHistory {
+    private static final String ORDERS_FILE = "orders.txt";
+    private static final String ORDER_ITEMS_FILE = "order_details.txt";
+    private static final int INITIAL_CAPACITY = 64;
+
+    // order columns
+    private int size;
+    private int[] orderIds = new int[INITIAL_CAPACITY];
+    private long[] orderTimes = new long[INITIAL_CAPACITY];
+    private int[] customerIds = new int[INITIAL_CAPACITY];
+    private int[] customerNameCodes = new int[INITIAL_CAPACITY];
+    private int[] statusCodes = new int[INITIAL_CAPACITY];
+    private int[] cashierCodes = new int[INITIAL_CAPACITY];
+    private double[] totals = new double[INITIAL_CAPACITY];
+
+    // line columns (CSR)
+    private int[] lineStart = new int[INITIAL_CAPACITY + 1];
+    private int lineCount;
+    private int[] lineProductIds = new int[INITIAL_CAPACITY];
+    private int[] lineQuantities = new int[INITIAL_CAPACITY];
+    private double[] linePrices = new double[INITIAL_CAPACITY];
+    private int[] lineNameCodes = new int[INITIAL_CAPACITY];
+
+    private final StringPool statuses = new StringPool();
+    private final StringPool cashiers = new StringPool();
+    private final StringPool names = new StringPool();
+    private boolean unsorted;
+
+    public static OrderHistory loadFromFiles() {
+        long start = System.nanoTime();
+        OrderHistory history = ParallelOrderLoader.load(DataFiles.path(ORDERS_FILE), DataFiles.path(ORDER_ITEMS_FILE), ForkJoinPool.commonPool());
+        Metrics.timer("history.load").recordSince(start);
+        return history;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getOrderId(int index) {
+        return orderIds[index];
+    }
+
+    public long getOrderTime(int index) {
+        return orderTimes[index];
+    }
+
+    public int getCustomerId(int index) {
+        return customerIds[index];
+    }
+
+    public String getStatus(int index) {
+        return statuses.decode(statusCodes[index]);
+    }
+
+    public String getSoldBy(int index) {
+        return cashiers.decode(cashierCodes[index]);
+    }
+
+    public double getTotalAmount(int index) {
+        return totals[index];
+    }
+
+    public int getLineCount(int index) {
+        return lineStart[index + 1] - lineStart[index];
+    }
+
+    public boolean contains(int orderId) {
+        return indexOf(orderId) >= 0;
+    }
+
+    /**
+     * Row index of the given order id, or -1. Rows are kept sorted by id.
+     */
+    public int indexOf(int orderId) {
+        int index = Arrays.binarySearch(orderIds, 0, size, orderId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Materializes the order with the given id, or returns null if unknown.
+     */
+    public Order view(int orderId, List<Customer> customers, IntFunction<Product> products) {
+        int index = indexOf(orderId);
+        return index < 0 ? null : viewAt(index, customers, products);
+    }
+
+    /**
+     * Materializes only the order header; its items are left empty so they
+     * can be served from an {@link OrderLineCache} instead of being pinned.
+     */
+    public Order viewHeader(int orderId, List<Customer> customers) {
+        int index = indexOf(orderId);
+        return index < 0 ? null : headerAt(index, customers);
+    }
+
+    /**
+     * Materializes the order at the given row; products looks up the
+     * current product by id, null if there is none.
+     */
+    public Order viewAt(int index, List<Customer> customers, IntFunction<Product> products) {
+        Order order = headerAt(index, customers);
+        for (int line = lineStart[index]; line < lineStart[index + 1]; line++) {
+            int productId = lineProductIds[line];
+            Product product = products.apply(productId);
+            if (product == null) {
+                product = new Product(productId, names.decode(lineNameCodes[line]), linePrices[line], 0);
+            }
+            order.getItems().add(new OrderItem(product, lineQuantities[line]));
+        }
+        return order;
+    }
+
+    private Order headerAt(int index, List<Customer> customers) {
+        int customerId = customerIds[index];
+        Customer customer = null;
+        for (Customer c : customers) {
+            if (c.getCustomerid() == customerId) {
+                customer = c;
+                break;
+            }
+        }
+        if (customer == null) {
+            customer = new Customer(customerId, names.decode(customerNameCodes[index]), "Unknown");
+        }
+
+        return new Order(orderIds[index], customer, Instant.ofEpochSecond(orderTimes[index]),
+                getStatus(index), totals[index], getSoldBy(index));
+    }
+
+    /**
+     * Adds a completed order to the store. Orders already present are ignored.
+     * An order with a lower id than stored ones (another instance's, seen
+     * late) is inserted in its place, moving the rows after it.
+     */
+    public void append(Order order) {
+        int index = Arrays.binarySearch(orderIds, 0, size, order.getOrderId());
+        if (index >= 0) {
+            return;
+        }
+        int row = -index - 1;
+        int lines = order.getItems().size();
+        ensureOrderCapacity(size + 1);
+        ensureLineCapacity(lineCount + lines);
+        int firstLine = lineStart[row];
+        if (row < size) {
+            int moved = size - row;
+            System.arraycopy(orderIds, row, orderIds, row + 1, moved);
+            System.arraycopy(orderTimes, row, orderTimes, row + 1, moved);
+            System.arraycopy(customerIds, row, customerIds, row + 1, moved);
+            System.arraycopy(customerNameCodes, row, customerNameCodes, row + 1, moved);
+            System.arraycopy(statusCodes, row, statusCodes, row + 1, moved);
+            System.arraycopy(cashierCodes, row, cashierCodes, row + 1, moved);
+            System.arraycopy(totals, row, totals, row + 1, moved);
+            System.arraycopy(lineStart, row + 1, lineStart, row + 2, moved);
+            for (int i = row + 2; i <= size + 1; i++) {
+                lineStart[i] += lines;
+            }
+            int movedLines = lineCount - firstLine;
+            System.arraycopy(lineProductIds, firstLine, lineProductIds, firstLine + lines, movedLines);
+            System.arraycopy(lineQuantities, firstLine, lineQuantities, firstLine + lines, movedLines);
+            System.arraycopy(linePrices, firstLine, linePrices, firstLine + lines, movedLines);
+            System.arraycopy(lineNameCodes, firstLine, lineNameCodes, firstLine + lines, movedLines);
+        }
+        setRow(row, order.getOrderId(), order.getOrderDate().getEpochSecond(),
+                order.getCustomer().getCustomerid(), order.getCustomer().getName(),
+                order.getStatus(), order.getTotalAmount(), order.getSoldBy());
+        int line = firstLine;
+        for (OrderItem item : order.getItems()) {
+            lineProductIds[line] = item.getProduct().getProductId();
+            lineQuantities[line] = item.getQuantity();
+            linePrices[line] = item.getProduct().getPrice();
+            lineNameCodes[line] = names.encode(item.getProduct().getName());
+            line++;
+        }
+        lineCount += lines;
+        size++;
+        lineStart[row + 1] = line;
+    }
+
+    /**
+     * Approximate retained heap of this store (64-bit JVM, compressed oops).
+     */
+    public long estimatedBytes() {
+        long bytes = 16L * 12; // array headers
+        bytes += (long) orderIds.length * (4 + 8 + 4 + 4 + 4 + 4 + 8);
+        bytes += (long) lineStart.length * 4;
+        bytes += (long) lineProductIds.length * (4 + 4 + 8 + 4);
+        return bytes + statuses.estimatedBytes() + cashiers.estimatedBytes() + names.estimatedBytes();
+    }
+
+    /**
+     * Approximate heap the same history would take as Order/OrderItem/Product
+     * objects as built by {@link Order#loadOrdersFromFile} and
+     * {@link Order#loadOrderItems}.
+     */
+    public long estimatedObjectGraphBytes() {
+        // Order 48 + Instant 24 + ArrayList 24 + Object[10] 56 + status/soldBy strings 2 * 48
+        long perOrder = 48 + 24 + 24 + 56 + 96;
+        // OrderItem 24 + Product 32 + name String ~48
+        long perLine = 24 + 32 + 48;
+        return perOrder * size + perLine * lineCount;
+    }
+
+    // ===================== Bulk loading (used by ParallelOrderLoader) =====================
+
+    StringPool statusPool() {
+        return statuses;
+    }
+
+    StringPool cashierPool() {
+        return cashiers;
+    }
+
+    StringPool namePool() {
+        return names;
+    }
+
+    void addRow(int orderId, long time, int customerId, int customerNameCode, int statusCode,
+            int cashierCode, double total) {
+        ensureOrderCapacity(size + 1);
+        if (size > 0 && orderIds[size - 1] >= orderId) {
+            unsorted = true;
+        }
+        orderIds[size] = orderId;
+        orderTimes[size] = time;
+        customerIds[size] = customerId;
+        customerNameCodes[size] = customerNameCode;
+        statusCodes[size] = statusCode;
+        cashierCodes[size] = cashierCode;
+        totals[size] = total;
+        size++;
+    }
+
+    /**
+     * Puts rows added with {@link #addRow} in id order (dropping duplicate
+     * ids) and attaches the given lines in CSR form. Lines of unknown orders
+     * are dropped; lines of one order keep their relative order.
+     */
+    void buildLines(int count, int[] lineOrderIds, int[] productIds, int[] quantities,
+            double[] prices, int[] nameCodes) {
+        if (unsorted) {
+            sortById();
+            unsorted = false;
+        }
+        int[] rows = new int[count];
+        lineStart = new int[orderIds.length + 1];
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            rows[i] = indexOf(lineOrderIds[i]);
+            if (rows[i] >= 0) {
+                lineStart[rows[i] + 1]++;
+                kept++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            lineStart[i + 1] += lineStart[i];
+        }
+        int[] next = Arrays.copyOf(lineStart, size);
+        ensureLineCapacity(kept);
+        for (int i = 0; i < count; i++) {
+            if (rows[i] < 0) {
+                continue;
+            }
+            int pos = next[rows[i]]++;
+            lineProductIds[pos] = productIds[i];
+            lineQuantities[pos] = quantities[i];
+            linePrices[pos] = prices[i];
+            lineNameCodes[pos] = nameCodes[i];
+        }
+        lineCount = kept;
+    }
+
+    private void setRow(int row, int orderId, long time, int customerId, String customerName,
+            String status, double total, String soldBy) {
+        orderIds[row] = orderId;
+        orderTimes[row] = time;
+        customerIds[row] = customerId;
+        customerNameCodes[row] = names.encode(customerName);
+        statusCodes[row] = statuses.encode(status);
+        cashierCodes[row] = cashiers.encode(soldBy);
+        totals[row] = total;
+    }
+
+    private void sortById() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(orderIds[a], orderIds[b]));
+
+        int[] ids = new int[orderIds.length];
+        long[] times = new long[orderIds.length];
+        int[] custIds = new int[orderIds.length];
+        int[] custNames = new int[orderIds.length];
+        int[] stats = new int[orderIds.length];
+        int[] cashier = new int[orderIds.length];
+        double[] tots = new double[orderIds.length];
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int from = order[i];
+            if (kept > 0 && ids[kept - 1] == orderIds[from]) {
+                continue; // duplicate id, keep the first one
+            }
+            ids[kept] = orderIds[from];
+            times[kept] = orderTimes[from];
+            custIds[kept] = customerIds[from];
+            custNames[kept] = customerNameCodes[from];
+            stats[kept] = statusCodes[from];
+            cashier[kept] = cashierCodes[from];
+            tots[kept] = totals[from];
+            kept++;
+        }
+        orderIds = ids;
+        orderTimes = times;
+        customerIds = custIds;
+        customerNameCodes = custNames;
+        statusCodes = stats;
+        cashierCodes = cashier;
+        totals = tots;
+        size = kept;
+    }
+
+    private void ensureOrderCapacity(int required) {
+        if (required <= orderIds.length) {
+            return;
+        }
+        int capacity = Math.max(required, orderIds.length * 2);
+        orderIds = Arrays.copyOf(orderIds, capacity);
+        orderTimes = Arrays.copyOf(orderTimes, capacity);
+        customerIds = Arrays.copyOf(customerIds, capacity);
+        customerNameCodes = Arrays.copyOf(customerNameCodes, capacity);
+        statusCodes = Arrays.copyOf(statusCodes, capacity);
+        cashierCodes = Arrays.copyOf(cashierCodes, capacity);
+        totals = Arrays.copyOf(totals, capacity);
+        lineStart = Arrays.copyOf(lineStart, capacity + 1);
+    }
+
+    private void ensureLineCapacity(int required) {
+        if (required <= lineProductIds.length) {
+            return;
+        }
+        int capacity = Math.max(required, lineProductIds.length * 2);
+        lineProductIds = Arrays.copyOf(lineProductIds, capacity);
+        lineQuantities = Arrays.copyOf(lineQuantities, capacity);
+        linePrices = Arrays.copyOf(linePrices, capacity);
+        lineNameCodes = Arrays.copyOf(lineNameCodes, capacity);
+    }
+}
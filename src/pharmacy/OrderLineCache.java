@@ -0,0 +1,216 @@
+package pharmacy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Size-bounded LRU cache of hydrated order lines, keyed by order id.
+ *
+ * Orders that fall out of the cache are not kept anywhere on the heap; the
+ * next request re-reads their lines from order_details.txt through an
+ * {@link OrderDetailsIndex}. Capacity can be bounded by entries, by an
+ * estimate of retained bytes, or both (0 means unbounded). A miss reads the
+ * file outside the cache's lock and only takes it to publish the lines.
+ *
+ * @author elkhedewy-group
+ */
+public class OrderLineCache {
+    private static final String ORDER_ITEMS_FILE = "order_details.txt";
+    // rough retained size of a cache entry and of one OrderItem in it
+    private static final long ENTRY_BYTES = 96;
+    private static final long LINE_BYTES = 32;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final OrderDetailsIndex index;
+    private final LinkedHashMap<Integer, List<OrderItem>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long currentBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public OrderLineCache(int maxEntries, long maxBytes) {
+        this(maxEntries, maxBytes, DataFiles.path(ORDER_ITEMS_FILE));
+    }
+
+    OrderLineCache(int maxEntries, long maxBytes, String fileName) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.index = new OrderDetailsIndex(fileName);
+    }
+
+    /**
+     * Cache sized from -Dpharmacy.lineCache.entries (default 1000) and
+     * -Dpharmacy.lineCache.bytes (default unbounded).
+     */
+    public static OrderLineCache fromSystemProperties() {
+        int entries = Integer.getInteger("pharmacy.lineCache.entries", 1000);
+        long bytes = Long.getLong("pharmacy.lineCache.bytes", 0L);
+        return new OrderLineCache(entries, bytes);
+    }
+
+    /**
+     * Lines of the given order. products looks up the current product by
+     * id, null if there is none. The returned list is shared and must not
+     * be modified.
+     */
+    public List<OrderItem> getItems(int orderId, IntFunction<Product> products) {
+        lock.lock();
+        try {
+            List<OrderItem> items = entries.get(orderId);
+            if (items != null) {
+                hits++;
+                return items;
+            }
+            misses++;
+        } finally {
+            lock.unlock();
+        }
+        if (!index.contains(orderId)) {
+            index.refresh();
+        }
+        List<OrderItem> items = Collections.unmodifiableList(parse(index.readLines(orderId), products));
+        lock.lock();
+        try {
+            List<OrderItem> published = entries.get(orderId);
+            if (published != null) {
+                return published; // put meanwhile, keep that
+            }
+            put(orderId, items);
+            return items;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Seeds the cache with the lines of an order that was just completed.
+     */
+    public void put(int orderId, List<OrderItem> items) {
+        lock.lock();
+        try {
+            List<OrderItem> previous = entries.put(orderId, items);
+            if (previous != null) {
+                currentBytes -= weigh(previous);
+            }
+            currentBytes += weigh(items);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(int orderId) {
+        lock.lock();
+        try {
+            List<OrderItem> previous = entries.remove(orderId);
+            if (previous != null) {
+                currentBytes -= weigh(previous);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEstimatedBytes() {
+        lock.lock();
+        try {
+            return currentBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "OrderLineCache{entries=" + entries.size() + ", bytes~" + currentBytes
+                    + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Integer, List<OrderItem>>> it = entries.entrySet().iterator();
+        // never evict the entry that was just added
+        while (entries.size() > 1 && it.hasNext()
+                && ((maxEntries > 0 && entries.size() > maxEntries) || (maxBytes > 0 && currentBytes > maxBytes))) {
+            Map.Entry<Integer, List<OrderItem>> eldest = it.next();
+            currentBytes -= weigh(eldest.getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static long weigh(List<OrderItem> items) {
+        return ENTRY_BYTES + LINE_BYTES * items.size();
+    }
+
+    private static List<OrderItem> parse(List<String> lines, IntFunction<Product> products) {
+        List<OrderItem> items = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            String[] parts = line.split(",");
+            if (parts.length != 6) {
+                continue;
+            }
+            try {
+                int productId = Integer.parseInt(parts[1]);
+                int quantity = Integer.parseInt(parts[3]);
+                Product product = products.apply(productId);
+                if (product == null) {
+                    product = new Product(productId, parts[2], Double.parseDouble(parts[4]), 0);
+                }
+                items.add(new OrderItem(product, quantity));
+            } catch (NumberFormatException e) {
+                System.out.println("[WARN] Skipping invalid order item line: " + line);
+            }
+        }
+        return items;
+    }
+}
@@ -0,0 +1,61 @@
+package pharmacy;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Filter for {@link Order#streamOrdersFromFile(java.util.List, OrderQuery)}. The
+ * checks run on the raw fields of a line, before any Order or Date object is
+ * built for it.
+ *
+ * @author elkhedewy-group
+ */
+public class OrderQuery {
+    private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private String from;  // inclusive, in the file's sortable text form
+    private String to;    // exclusive
+    private int customerId = -1;
+    private boolean parallel;
+
+    public static OrderQuery all() {
+        return new OrderQuery();
+    }
+
+    public OrderQuery from(LocalDateTime time) {
+        this.from = FILE_FORMAT.format(time);
+        return this;
+    }
+
+    public OrderQuery to(LocalDateTime time) {
+        this.to = FILE_FORMAT.format(time);
+        return this;
+    }
+
+    public OrderQuery forCustomer(int customerId) {
+        this.customerId = customerId;
+        return this;
+    }
+
+    /**
+     * Lets the stream split the file and parse ranges on the common pool.
+     */
+    public OrderQuery parallel() {
+        this.parallel = true;
+        return this;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    boolean matchesCustomer(int id) {
+        return customerId < 0 || customerId == id;
+    }
+
+    // "yyyy-MM-dd HH:mm:ss" sorts the same as the time it encodes
+    boolean matchesTime(String timestamp) {
+        return (from == null || timestamp.compareTo(from) >= 0)
+                && (to == null || timestamp.compareTo(to) < 0);
+    }
+}
@@ -0,0 +1,397 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Loads orders.txt and order_details.txt into an {@link OrderHistory} using
+ * a {@link ForkJoinPool}.
+ *
+ * Each file is cut into byte ranges whose boundaries are moved forward to
+ * the next newline, so no line is split. Ranges are read with positional
+ * reads and parsed straight from bytes into per-range columns with their own
+ * string pools. The ranges are then merged in file order and the history is
+ * put in order id order.
+ *
+ * @author elkhedewy-group
+ */
+public class ParallelOrderLoader {
+    private static final int MIN_RANGE = 1 << 20;   // 1 MB
+    private static final int MAX_RANGE = 64 << 20;  // 64 MB
+    private static final int ALIGN_WINDOW = 64 * 1024;
+
+    public static OrderHistory load(String ordersFile, String detailsFile, ForkJoinPool pool) {
+        ForkJoinTask<OrderRange[]> orders = pool.submit(() -> parseFile(ordersFile, pool, OrderRange::new, OrderRange[]::new));
+        ForkJoinTask<LineRange[]> lines = pool.submit(() -> parseFile(detailsFile, pool, LineRange::new, LineRange[]::new));
+
+        OrderHistory history = new OrderHistory();
+        mergeOrders(history, orders.join());
+        mergeLines(history, lines.join());
+        return history;
+    }
+
+    // ===================== Splitting =====================
+
+    private static <R extends Range> R[] parseFile(String fileName, ForkJoinPool pool,
+            Supplier<R> factory, IntFunction<R[]> arrayFactory) {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long[] bounds = split(channel, pool.getParallelism());
+            R[] ranges = arrayFactory.apply(bounds.length - 1);
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = factory.get();
+            }
+            new ParseTask(channel, bounds, ranges, 0, ranges.length).invoke();
+            return ranges;
+        } catch (NoSuchFileException e) {
+            System.out.println("No existing " + fileName + " file. Starting empty.");
+        } catch (IOException e) {
+            System.out.println("[ERR] Failed to read " + fileName + ": " + e.getMessage());
+        } catch (UncheckedIOException e) {
+            System.out.println("[ERR] Failed to read " + fileName + ": " + e.getCause().getMessage());
+        }
+        return arrayFactory.apply(0);
+    }
+
+    /**
+     * Range boundaries: bounds[i] is the first byte of range i, each one
+     * (apart from 0) directly after a newline; the last entry is the file size.
+     */
+    static long[] split(FileChannel channel, int parallelism) throws IOException {
+        long size = channel.size();
+        long target = Math.max(MIN_RANGE, Math.min(MAX_RANGE, size / Math.max(1, parallelism * 4L)));
+        long[] bounds = new long[(int) Math.min(Integer.MAX_VALUE - 1, size / target + 2)];
+        int count = 0;
+        bounds[count++] = 0;
+        ByteBuffer window = ByteBuffer.allocate(ALIGN_WINDOW);
+        long position = target;
+        while (position < size) {
+            long aligned = nextLineStart(channel, position, window);
+            if (aligned >= size) {
+                break;
+            }
+            bounds[count++] = aligned;
+            position = aligned + target;
+        }
+        bounds[count++] = size;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer window) throws IOException {
+        while (true) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    @SuppressWarnings("serial") // never serialized
+    private static final class ParseTask extends RecursiveAction {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final Range[] ranges;
+        private final int from;
+        private final int to;
+
+        ParseTask(FileChannel channel, long[] bounds, Range[] ranges, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseTask(channel, bounds, ranges, from, mid),
+                        new ParseTask(channel, bounds, ranges, mid, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            long start = bounds[from];
+            int length = (int) (bounds[from + 1] - start);
+            byte[] buffer = new byte[length];
+            ByteBuffer target = ByteBuffer.wrap(buffer);
+            try {
+                while (target.hasRemaining()) {
+                    if (channel.read(target, start + target.position()) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read range at " + start, e);
+            }
+            ranges[from].parse(buffer, target.position());
+        }
+    }
+
+    // ===================== Parsing =====================
+
+    /**
+     * Parsed columns of one byte range.
+     */
+    private abstract static class Range {
+        final int[] commas = new int[8];
+        int count;
+
+        void parse(byte[] buffer, int length) {
+            int lineStart = 0;
+            for (int i = 0; i <= length; i++) {
+                if (i == length || buffer[i] == '\n') {
+                    int lineEnd = (i > lineStart && buffer[i - 1] == '\r') ? i - 1 : i;
+                    if (lineEnd > lineStart) {
+                        parseLine(buffer, lineStart, lineEnd);
+                    }
+                    lineStart = i + 1;
+                }
+            }
+        }
+
+        private void parseLine(byte[] buffer, int start, int end) {
+            int fields = 1;
+            for (int i = start; i < end && fields <= commas.length; i++) {
+                if (buffer[i] == ',') {
+                    commas[fields - 1] = i;
+                    fields++;
+                }
+            }
+            try {
+                accept(buffer, start, end, fields);
+            } catch (RuntimeException e) {
+                System.out.println("[WARN] Skipping invalid line: "
+                        + new String(buffer, start, end - start, StandardCharsets.UTF_8));
+            }
+        }
+
+        int fieldEnd(int field, int fields, int lineEnd) {
+            return field == fields - 1 ? lineEnd : commas[field];
+        }
+
+        static int string(StringPool pool, byte[] buffer, int from, int to) {
+            return pool.encode(new String(buffer, from, to - from, StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Parses one line split at the recorded commas; lines with the wrong
+         * number of fields are ignored.
+         */
+        abstract void accept(byte[] buffer, int start, int end, int fields);
+    }
+
+    // id,customerId,customerName,yyyy-MM-dd HH:mm:ss,status,total[,soldBy]
+    private static final class OrderRange extends Range {
+        final StringPool namePool = new StringPool();
+        final StringPool statusPool = new StringPool();
+        final StringPool cashierPool = new StringPool();
+        int[] ids = new int[256];
+        long[] times = new long[256];
+        int[] customerIds = new int[256];
+        int[] customerNames = new int[256];
+        int[] statuses = new int[256];
+        int[] cashiers = new int[256];
+        double[] totals = new double[256];
+
+        @Override
+        void accept(byte[] b, int start, int end, int fields) {
+            if (fields < 6) {
+                return;
+            }
+            int id = parseInt(b, start, commas[0]);
+            int customerId = parseInt(b, commas[0] + 1, commas[1]);
+            if (commas[3] - commas[2] - 1 != TimestampCodec.LENGTH) {
+                throw new NumberFormatException("bad timestamp");
+            }
+            long time = TimestampCodec.system().parseEpochSecond(b, commas[2] + 1);
+            double total = parseDecimal(b, commas[4] + 1, fieldEnd(5, fields, end));
+            if (count == ids.length) {
+                grow();
+            }
+            ids[count] = id;
+            times[count] = time;
+            customerIds[count] = customerId;
+            customerNames[count] = string(namePool, b, commas[1] + 1, commas[2]);
+            statuses[count] = string(statusPool, b, commas[3] + 1, commas[4]);
+            cashiers[count] = fields > 6
+                    ? string(cashierPool, b, commas[5] + 1, fieldEnd(6, fields, end))
+                    : cashierPool.encode("Unknown");
+            totals[count] = total;
+            count++;
+        }
+
+        private void grow() {
+            int capacity = count * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            times = Arrays.copyOf(times, capacity);
+            customerIds = Arrays.copyOf(customerIds, capacity);
+            customerNames = Arrays.copyOf(customerNames, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+            cashiers = Arrays.copyOf(cashiers, capacity);
+            totals = Arrays.copyOf(totals, capacity);
+        }
+    }
+
+    // orderId,productId,productName,quantity,price,subtotal
+    private static final class LineRange extends Range {
+        final StringPool namePool = new StringPool();
+        int[] orderIds = new int[256];
+        int[] productIds = new int[256];
+        int[] names = new int[256];
+        int[] quantities = new int[256];
+        double[] prices = new double[256];
+
+        @Override
+        void accept(byte[] b, int start, int end, int fields) {
+            if (fields != 6) {
+                return;
+            }
+            int orderId = parseInt(b, start, commas[0]);
+            int productId = parseInt(b, commas[0] + 1, commas[1]);
+            int quantity = parseInt(b, commas[2] + 1, commas[3]);
+            double price = parseDecimal(b, commas[3] + 1, commas[4]);
+            if (count == orderIds.length) {
+                int capacity = count * 2;
+                orderIds = Arrays.copyOf(orderIds, capacity);
+                productIds = Arrays.copyOf(productIds, capacity);
+                names = Arrays.copyOf(names, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+            }
+            orderIds[count] = orderId;
+            productIds[count] = productId;
+            names[count] = string(namePool, b, commas[1] + 1, commas[2]);
+            quantities[count] = quantity;
+            prices[count] = price;
+            count++;
+        }
+    }
+
+    static int parseInt(byte[] b, int from, int to) {
+        boolean negative = from < to && b[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i >= to || to - i > 10) {
+            throw new NumberFormatException("bad integer");
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("bad integer");
+            }
+            value = value * 10 + d;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("integer overflow");
+        }
+        return (int) value;
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    /**
+     * Plain decimals ("120.00") are parsed exactly without allocating;
+     * anything else falls back to Double.parseDouble.
+     */
+    static double parseDecimal(byte[] b, int from, int to) {
+        boolean negative = from < to && b[from] == '-';
+        int i = negative ? from + 1 : from;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for (; i < to; i++) {
+            byte c = b[i];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                digits = -1;
+                break;
+            }
+        }
+        if (digits <= 0 || digits > 15) {
+            return Double.parseDouble(new String(b, from, to - from, StandardCharsets.ISO_8859_1).trim());
+        }
+        // exact: mantissa < 2^53 and the divisor is an exact double
+        double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa;
+        return negative ? -value : value;
+    }
+
+    // ===================== Merging =====================
+
+    private static void mergeOrders(OrderHistory history, OrderRange[] ranges) {
+        for (OrderRange range : ranges) {
+            int[] nameCodes = remap(range.namePool, history.namePool());
+            int[] statusCodes = remap(range.statusPool, history.statusPool());
+            int[] cashierCodes = remap(range.cashierPool, history.cashierPool());
+            for (int i = 0; i < range.count; i++) {
+                history.addRow(range.ids[i], range.times[i], range.customerIds[i],
+                        nameCodes[range.customerNames[i]], statusCodes[range.statuses[i]],
+                        cashierCodes[range.cashiers[i]], range.totals[i]);
+            }
+        }
+    }
+
+    private static void mergeLines(OrderHistory history, LineRange[] ranges) {
+        int total = 0;
+        for (LineRange range : ranges) {
+            total += range.count;
+        }
+        int[] orderIds = new int[total];
+        int[] productIds = new int[total];
+        int[] quantities = new int[total];
+        double[] prices = new double[total];
+        int[] names = new int[total];
+        int offset = 0;
+        for (LineRange range : ranges) {
+            int[] nameCodes = remap(range.namePool, history.namePool());
+            System.arraycopy(range.orderIds, 0, orderIds, offset, range.count);
+            System.arraycopy(range.productIds, 0, productIds, offset, range.count);
+            System.arraycopy(range.quantities, 0, quantities, offset, range.count);
+            System.arraycopy(range.prices, 0, prices, offset, range.count);
+            for (int i = 0; i < range.count; i++) {
+                names[offset + i] = nameCodes[range.names[i]];
+            }
+            offset += range.count;
+        }
+        history.buildLines(total, orderIds, productIds, quantities, prices, names);
+    }
+
+    // translates range-local string codes into codes of a shared pool
+    private static int[] remap(StringPool local, StringPool shared) {
+        int[] codes = new int[local.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = shared.encode(local.decode(i));
+        }
+        return codes;
+    }
+}
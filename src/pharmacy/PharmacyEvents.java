@@ -0,0 +1,101 @@
+package pharmacy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for checkout, persistence and the shift
+ * lifecycle. Each event's duration is the time between begin() and
+ * commit(); in a recording they line up with the JDK's GC, file I/O and
+ * thread park events. When no recording is running an event costs one
+ * allocation that escape analysis usually removes.
+ *
+ * @author elkhedewy-group
+ */
+final class PharmacyEvents {
+    private static final String CATEGORY = "Pharmacy";
+
+    private PharmacyEvents() {
+    }
+
+    @Name("pharmacy.Checkout")
+    @Label("Checkout")
+    @Description("One checkout in the service, from the GUI, console or HTTP API: order written, stock taken and inventory saved")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class Checkout extends Event {
+        @Label("Order Id")
+        int orderId;
+
+        @Label("Line Count")
+        int lineCount;
+    }
+
+    @Name("pharmacy.OrderComplete")
+    @Label("Order Complete")
+    @Description("Order and its lines appended to orders.txt and order_details.txt")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class OrderComplete extends Event {
+        @Label("Order Id")
+        int orderId;
+
+        @Label("Line Count")
+        int lineCount;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("pharmacy.InventorySave")
+    @Label("Inventory Save")
+    @Description("Full rewrite of the inventory file")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class InventorySave extends Event {
+        @Label("Products")
+        int productCount;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+    }
+
+    @Name("pharmacy.ShiftLoad")
+    @Label("Shift Load")
+    @Description("Order history load and the current shift's order list")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ShiftLoad extends Event {
+        @Label("Shift")
+        String shift;
+
+        @Label("Shift Orders")
+        int orderCount;
+
+        @Label("History Orders")
+        int historyCount;
+    }
+
+    @Name("pharmacy.ShiftSwitch")
+    @Label("Shift Switch")
+    @Description("End of a shift: summary, archive and switch to the next shift")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static final class ShiftSwitch extends Event {
+        @Label("From Shift")
+        String fromShift;
+
+        @Label("To Shift")
+        String toShift;
+
+        @Label("Orders")
+        int orderCount;
+    }
+}
@@ -6,46 +6,18 @@ import javax.swing.border.TitledBorder;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.*;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.HashMap;
 import java.util.Map;
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
 
 /**
  * @author Farida
  */
 public class PharmacyGUI extends JFrame {
 
-    public enum ShiftType {
-        MORNING("Morning Shift", "morning"),
-        EVENING("Evening Shift", "evening");
-
-        private final String displayName;
-        private final String fileName;
-
-        ShiftType(String displayName, String fileName) {
-            this.displayName = displayName;
-            this.fileName = fileName;
-        }
-
-        public String getDisplayName() {
-            return displayName;
-        }
-
-        public String getFileName() {
-            return fileName;
-        }
-    }
-
     private Login currentLogin;
-    private Inventory inventory;
-    private List<Customer> customers;
-    private List<Order> orders;
-    private Order currentOrder;
+    private PharmacyService service;
     private Product currentEditingProduct;
     // GUI Components
     private JTabbedPane mainTabbedPane;
@@ -55,13 +27,7 @@ public class PharmacyGUI extends JFrame {
     private JButton endShiftButton;
     private JLabel headerLabel;
 
-    private ShiftType currentShift = ShiftType.MORNING;
-    private List<Order> allHistoricalOrders;
-    private Date shiftStartTime;
-    private Map<String, String> userCredentials;
-    private static final String USERS_FILE = "users.txt";
-    private static final String SHIFT_STATE_FILE = "current_shift.txt";
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final TimestampCodec DATE_FORMAT = TimestampCodec.system();
 
     private JLabel totalProductsLabel, totalCustomersLabel, ordersTodayLabel, lowStockLabel;
 
@@ -90,211 +56,17 @@ public class PharmacyGUI extends JFrame {
     private DefaultTableModel orderHistoryModel;
 
     public PharmacyGUI() {
-        initializeUserCredentials();
         initializeData();
         initializeGUI();
         showLoginScreen();
     }
 
-    private void initializeUserCredentials() {
-        userCredentials = new HashMap<>();
-
-        loadUsersFromFile();
-
-        if (userCredentials.isEmpty()) {
-            System.out.println("No users found in users.txt file");
-        }
-    }
-
-    private void loadUsersFromFile() {
-        File usersFile = new File(USERS_FILE);
-        if (usersFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(usersFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty() || line.startsWith("#")) {
-                        continue; // Skip empty lines and comments
-                    }
-                    String[] parts = line.split(",", 2);
-                    if (parts.length == 2) {
-                        userCredentials.put(parts[0].trim(), parts[1].trim());
-                    }
-                }
-                System.out.println("Loaded " + userCredentials.size() + " users from file");
-            } catch (IOException e) {
-                System.err.println("Error loading users from file: " + e.getMessage());
-            }
-        }
-    }
-
-    private void createDefaultUsers() {
-        userCredentials.put("morning_user", "morning123");
-        userCredentials.put("evening_user", "evening123");
-        userCredentials.put("admin", "admin123");
-        System.out.println("Created default users");
-    }
-
-    private void saveUsersToFile() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE))) {
-            for (Map.Entry<String, String> entry : userCredentials.entrySet()) {
-                writer.println(entry.getKey() + "," + entry.getValue());
-            }
-
-            System.out.println("Saved " + userCredentials.size() + " users to file");
-        } catch (IOException e) {
-            System.err.println("Error saving users to file: " + e.getMessage());
-        }
-    }
-
-    private ShiftType determineShiftFromUsername(String username) {
-        if (username.toLowerCase().contains("evening")) {
-            return ShiftType.EVENING;
-        } else if (username.toLowerCase().contains("morning")) {
-            return ShiftType.MORNING;
-        } else {
-            int hour = new Date().getHours();
-            return (hour >= 6 && hour < 18) ? ShiftType.MORNING : ShiftType.EVENING;
-        }
-    }
-
-    private void loadShiftState() {
-        File shiftFile = new File(SHIFT_STATE_FILE);
-        if (shiftFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(shiftFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    line = line.trim();
-                    if (line.startsWith("SHIFT_TYPE=")) {
-                        String shiftTypeStr = line.substring("SHIFT_TYPE=".length());
-                        try {
-                            currentShift = ShiftType.valueOf(shiftTypeStr);
-                        } catch (IllegalArgumentException e) {
-                            System.err.println("Invalid shift type in file: " + shiftTypeStr);
-                            currentShift = ShiftType.MORNING;
-                        }
-                    } else if (line.startsWith("SHIFT_START_TIME=")) {
-                        String timeStr = line.substring("SHIFT_START_TIME=".length());
-                        try {
-                            shiftStartTime = DATE_FORMAT.parse(timeStr);
-                        } catch (ParseException e) {
-                            System.err.println("Error parsing shift start time: " + e.getMessage());
-                            shiftStartTime = new Date();
-                        }
-                    }
-                }
-                System.out.println("Loaded existing shift state: " + currentShift.getDisplayName()
-                        + ", Started: " + shiftStartTime);
-            } catch (IOException e) {
-                System.err.println("Error loading shift state: " + e.getMessage());
-                initializeNewShift();
-            }
-        } else {
-            initializeNewShift();
-        }
-    }
-
-    private void saveShiftState() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(SHIFT_STATE_FILE))) {
-            writer.println("SHIFT_TYPE=" + currentShift.name());
-            writer.println("SHIFT_START_TIME=" + DATE_FORMAT.format(shiftStartTime));
-            System.out.println("Saved shift state: " + currentShift.getDisplayName());
-        } catch (IOException e) {
-            System.err.println("Error saving shift state: " + e.getMessage());
-        }
-    }
-
-    private void initializeNewShift() {
-        currentShift = ShiftType.MORNING;
-        shiftStartTime = new Date();
-        saveShiftState();
-    }
-
-    private void loadCurrentShiftOrders() {
-        List<Order> allOrders = Order.loadOrdersFromFile(customers);
-        allHistoricalOrders = new ArrayList<>(allOrders);
-
-        String shiftOrdersFile = currentShift.getFileName() + "_shift_orders.txt";
-        File file = new File(shiftOrdersFile);
-
-        orders = new ArrayList<>();
-
-        if (file.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    line = line.trim();
-                    if (line.startsWith("ORDER_ID=")) {
-                        int orderId = Integer.parseInt(line.substring("ORDER_ID=".length()));
-                        for (Order order : allHistoricalOrders) {
-                            if (order.getOrderId() == orderId) {
-                                orders.add(order);
-                                break;
-                            }
-                        }
-                    }
-                }
-                System.out.println("Loaded " + orders.size() + " orders for " + currentShift.getDisplayName());
-            } catch (IOException | NumberFormatException e) {
-                System.err.println("Error loading current shift orders: " + e.getMessage());
-            }
-        }
-    }
-
-    private void saveCurrentShiftOrders() {
-        String shiftOrdersFile = currentShift.getFileName() + "_shift_orders.txt";
-        try (PrintWriter writer = new PrintWriter(new FileWriter(shiftOrdersFile))) {
-            for (Order order : orders) {
-                writer.println("ORDER_ID=" + order.getOrderId());
-            }
-            System.out.println("Saved " + orders.size() + " orders for " + currentShift.getDisplayName());
-        } catch (IOException e) {
-            System.err.println("Error saving current shift orders: " + e.getMessage());
-        }
-    }
-
-    private void initializeShiftData() {
-        File shiftStateFile = new File(SHIFT_STATE_FILE);
-
-        if (shiftStateFile.exists()) {
-            loadShiftState();
-        } else {
-            currentShift = ShiftType.MORNING;
-            shiftStartTime = new Date();
-            saveShiftState();
-        }
-
-        loadCurrentShiftOrders();
-
-        System.out.println(currentShift.getDisplayName() + " initialized with "
-                + orders.size() + " orders");
-    }
-
     private void initializeData() {
-        inventory = new Inventory();
+        service = new PharmacyService();
+        service.setExternalChangeListener(() -> SwingUtilities.invokeLater(this::refreshAllTables));
         currentCart = new ArrayList<>();
-        Customer.initializeLastId("customers.txt");
-        customers = Customer.loadCustomersFromFile("customers.txt");
-
-        initializeShiftData();
-
-        if (customers.isEmpty()) {
-            customers.add(new Customer("Farida", "01012345678"));
-            customers.add(new Customer("Haneen", "01012345679"));
-            customers.add(new Customer("Ahmed", "01012345680"));
-            for (Customer c : customers) {
-                c.saveToFile("customers.txt");
-            }
-        }
-        if (inventory.getProducts().isEmpty()) {
-            File inventoryFile = new File("inventory.txt");
-            if (!inventoryFile.exists()) {
-                inventory.addProduct(new Medicine(false, 1, "Panadol", 15.50, 100));
-                inventory.addProduct(new Medicine(true, 2, "Insulin", 120.00, 25));
-                inventory.addProduct(new Cosmetic("Normal", 3, "Face Cream", 45.00, 30));
-                inventory.addProduct(new Medicine(false, 4, "Aspirin", 12.00, 75));
-            }
-        }
+        Metrics.startLog();
+        FlightRecording.init();
     }
 
     private void initializeGUI() {
@@ -306,8 +78,7 @@ public class PharmacyGUI extends JFrame {
         addWindowListener(new java.awt.event.WindowAdapter() {
             @Override
             public void windowClosing(java.awt.event.WindowEvent windowEvent) {
-                saveShiftState();
-                saveCurrentShiftOrders();
+                service.close();
                 System.exit(0);
             }
         });
@@ -340,7 +111,7 @@ public class PharmacyGUI extends JFrame {
         gbc.gridwidth = 2;
         loginPanel.add(titleLabel, gbc);
 
-        JLabel shiftIndicatorLabel = new JLabel("Current Shift: " + currentShift.getDisplayName(), JLabel.CENTER);
+        JLabel shiftIndicatorLabel = new JLabel("Current Shift: " + service.getCurrentShift().getDisplayName(), JLabel.CENTER);
         shiftIndicatorLabel.setFont(new Font("Arial", Font.BOLD, 18));
         shiftIndicatorLabel.setForeground(new Color(50, 50, 225));
         gbc.gridy = 1;
@@ -380,7 +151,8 @@ public class PharmacyGUI extends JFrame {
     }
 
     private void endCurrentShift() {
-        ShiftType nextShift = (currentShift == ShiftType.MORNING) ? ShiftType.EVENING : ShiftType.MORNING;
+        ShiftType currentShift = service.getCurrentShift();
+        ShiftType nextShift = currentShift.next();
 
         int choice = JOptionPane.showConfirmDialog(
                 this,
@@ -390,7 +162,7 @@ public class PharmacyGUI extends JFrame {
                 + "• Switch to " + nextShift.getDisplayName() + "\n"
                 + "• Require re-login for the new shift\n"
                 + "• Clear current shift orders from display\n\n"
-                + "Current shift has " + orders.size() + " orders",
+                + "Current shift has " + service.getShiftOrderCount() + " orders",
                 "End Shift Confirmation",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.QUESTION_MESSAGE
@@ -401,30 +173,7 @@ public class PharmacyGUI extends JFrame {
         }
 
         try {
-            saveShiftSummary();
-
-            for (Order order : orders) {
-                if (!allHistoricalOrders.contains(order)) {
-                    allHistoricalOrders.add(order);
-                }
-            }
-
-            String currentShiftFile = currentShift.getFileName() + "_shift_orders.txt";
-            String archivedShiftFile = "archived_" + currentShift.getFileName() + "_"
-                    + DATE_FORMAT.format(shiftStartTime).replace(":", "-").replace(" ", "_") + "_orders.txt";
-            File currentFile = new File(currentShiftFile);
-            if (currentFile.exists()) {
-                currentFile.renameTo(new File(archivedShiftFile));
-            }
-
-            currentShift = nextShift;
-            shiftStartTime = new Date();
-
-            orders.clear();
-            loadCurrentShiftOrders(); // Load orders for the new shift (if any)
-
-            saveShiftState();
-            saveCurrentShiftOrders();
+            service.endShift(currentLogin != null ? currentLogin.getUsername() : null);
 
             currentCart.clear();
 
@@ -442,8 +191,6 @@ public class PharmacyGUI extends JFrame {
 
             performLogout();
 
-            System.out.println("Switched to " + currentShift.getDisplayName() + " at: " + shiftStartTime);
-
         } catch (Exception e) {
             JOptionPane.showMessageDialog(
                     this,
@@ -455,50 +202,9 @@ public class PharmacyGUI extends JFrame {
         }
     }
 
-    private void saveShiftSummary() {
-        try {
-            File file = new File("shift_summaries.txt");
-            FileWriter writer = new FileWriter(file, true); // Append mode
-            PrintWriter printWriter = new PrintWriter(writer);
-
-            double shiftTotal = 0;
-            int totalItems = 0;
-
-            for (Order order : orders) {
-                shiftTotal += order.getTotalAmount();
-                totalItems += order.getItems().size();
-            }
-
-            // Write shift summary
-            printWriter.println("=== " + currentShift.getDisplayName().toUpperCase() + " SUMMARY ===");
-            printWriter.println("Start Time: " + shiftStartTime);
-            printWriter.println("End Time: " + new Date());
-            printWriter.println("Total Orders: " + orders.size());
-            printWriter.println("Total Items Sold: " + totalItems);
-            printWriter.println("Total Revenue: $" + String.format("%.2f", shiftTotal));
-            printWriter.println("Cashier: " + (currentLogin != null ? currentLogin.getUsername() : "Unknown"));
-            printWriter.println("Orders in this shift:");
-
-            for (Order order : orders) {
-                printWriter.println("  - Order #" + order.getOrderId()
-                        + " | Customer: " + order.getCustomer().getName()
-                        + " | Total: $" + String.format("%.2f", order.getTotalAmount()));
-            }
-
-            printWriter.println("=====================================");
-            printWriter.println(); // Empty line
-
-            printWriter.close();
-            writer.close();
-
-        } catch (IOException e) {
-            System.err.println("Error saving shift summary: " + e.getMessage());
-        }
-    }
-
     private void updateHeaderLabel() {
         if (headerLabel != null) {
-            headerLabel.setText("Pharmacy Management System - " + currentShift.getDisplayName());
+            headerLabel.setText("Pharmacy Management System - " + service.getCurrentShift().getDisplayName());
         }
     }
 
@@ -512,7 +218,7 @@ public class PharmacyGUI extends JFrame {
         ImageIcon originalIcon = new ImageIcon(getClass().getResource("/Pharmacy/f1.png"));
         Image scaledImage = originalIcon.getImage().getScaledInstance(40, 40, Image.SCALE_SMOOTH);
         ImageIcon scaledIcon = new ImageIcon(scaledImage);
-        headerLabel = new JLabel("Pharmacy Management System - " + currentShift.getDisplayName(),
+        headerLabel = new JLabel("Pharmacy Management System - " + service.getCurrentShift().getDisplayName(),
                 scaledIcon, JLabel.CENTER);
         headerLabel.setFont(new Font("Lucida Sans", Font.BOLD, 20));
         headerLabel.setForeground(new Color(50, 50, 225));
@@ -533,6 +239,13 @@ public class PharmacyGUI extends JFrame {
         logoutButton.setForeground(Color.WHITE);
         logoutButton.addActionListener(e -> performLogout());
 
+        // Profile Button: starts a flight recording, second click dumps and stops it
+        JButton profileButton = new JButton(FlightRecording.isRecording() ? "Dump Profile" : "Record Profile");
+        profileButton.setBackground(new Color(90, 120, 160));
+        profileButton.setForeground(Color.WHITE);
+        profileButton.addActionListener(e -> toggleFlightRecording(profileButton));
+
+        buttonPanel.add(profileButton);
         buttonPanel.add(endShiftButton);
         buttonPanel.add(logoutButton);
 
@@ -558,22 +271,22 @@ public class PharmacyGUI extends JFrame {
         dashboard.setBackground(new Color(170, 200, 225));
 
         dashboard.add(createStatCardWithReference("Total Products",
-                String.valueOf(inventory.getProducts().size()),
+                String.valueOf(service.getProductCount()),
                 new Color(52, 152, 219),
                 totalProductsLabel = new JLabel()));
 
         dashboard.add(createStatCardWithReference("Total Customers",
-                String.valueOf(customers.size()),
+                String.valueOf(service.getCustomerCount()),
                 new Color(46, 204, 113),
                 totalCustomersLabel = new JLabel()));
 
         dashboard.add(createStatCardWithReference("Orders This Shift",
-                String.valueOf(orders.size()),
+                String.valueOf(service.getShiftOrderCount()),
                 new Color(155, 89, 182),
                 ordersTodayLabel = new JLabel()));
 
         dashboard.add(createStatCardWithReference("Low Stock Items",
-                String.valueOf(getLowStockCount()),
+                String.valueOf(service.getLowStockCount()),
                 new Color(231, 76, 60),
                 lowStockLabel = new JLabel()));
 
@@ -643,7 +356,7 @@ public class PharmacyGUI extends JFrame {
             public void filterProducts() {
                 String searchText = productSearchField.getText().toLowerCase();
                 productTableModel.setRowCount(0);
-                for (Product p : inventory.getProducts()) {
+                for (Product p : service.getProducts()) {
                     if (p.getName().toLowerCase().startsWith(searchText)) {
                         String special = "";
                         if (p instanceof Medicine) {
@@ -817,28 +530,15 @@ public class PharmacyGUI extends JFrame {
             double oldPrice = currentEditingProduct.getPrice();
             int oldQuantity = currentEditingProduct.getQuantity();
 
-            currentEditingProduct.setName(name);
-            currentEditingProduct.setPrice(price);
-            currentEditingProduct.setQuantity(quantity);
-
-            if (currentEditingProduct instanceof Medicine) {
-                Medicine medicine = (Medicine) currentEditingProduct;
-                boolean oldPrescriptionReq = medicine.isPrescriptionRequired();
-                medicine.setPrescriptionRequired(prescriptionRequiredBox.isSelected());
-                System.out.println("Updated Medicine - Prescription required: " + prescriptionRequiredBox.isSelected());
-            } else if (currentEditingProduct instanceof Cosmetic) {
-                Cosmetic cosmetic = (Cosmetic) currentEditingProduct;
-                String skinType = skinTypeField.getText().trim();
-                if (skinType.isEmpty()) {
-                    skinType = "All";
-                }
-                String oldSkinType = cosmetic.getSuitableForSkinType();
-                cosmetic.setSuitableForSkinType(skinType);
-                System.out.println("Updated Cosmetic - Skin type: " + skinType);
+            try {
+                service.updateProduct(currentEditingProduct, type, name, price, quantity,
+                        prescriptionRequiredBox.isSelected(), skinTypeField.getText());
+            } catch (ProductConflictException conflict) {
+                refreshProductTable();
+                resolveProductConflict(conflict, type, name, price, quantity);
+                return;
             }
 
-            inventory.saveToFile();
-
             refreshProductTable();
             refreshAvailableProductsTable();
             refreshDashboard();
@@ -856,8 +556,6 @@ public class PharmacyGUI extends JFrame {
                     "Update Successful",
                     JOptionPane.INFORMATION_MESSAGE);
 
-            System.out.println("Product updated successfully: ID=" + productId + ", Name=" + name);
-
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this,
                     "Please enter valid numbers for price and quantity!\n\n"
@@ -887,7 +585,7 @@ public class PharmacyGUI extends JFrame {
         int productId = (Integer) productTableModel.getValueAt(selectedRow, 0);
         String productName = (String) productTableModel.getValueAt(selectedRow, 1);
 
-        Product productToDelete = inventory.getProductById(productId);
+        Product productToDelete = service.getProduct(productId);
         if (productToDelete == null) {
             JOptionPane.showMessageDialog(this,
                     "Product not found in inventory!",
@@ -909,13 +607,9 @@ public class PharmacyGUI extends JFrame {
 
         if (choice == JOptionPane.YES_OPTION) {
             try {
-                boolean removed = inventory.removeProduct(productId);
+                boolean removed = service.deleteProduct(productId);
 
                 if (removed) {
-                    reindexProductIds();
-
-                    inventory.saveToFile();
-
                     refreshProductTable();
                     refreshAvailableProductsTable();
                     refreshDashboard();
@@ -926,8 +620,6 @@ public class PharmacyGUI extends JFrame {
                             + "Product IDs have been reindexed to remain sequential.",
                             "Delete Successful",
                             JOptionPane.INFORMATION_MESSAGE);
-
-                    System.out.println("Product deleted and IDs reindexed.");
                 } else {
                     JOptionPane.showMessageDialog(this,
                             "Failed to delete product from inventory!",
@@ -956,28 +648,11 @@ public class PharmacyGUI extends JFrame {
         }
 
         int productId = (Integer) productTableModel.getValueAt(selectedRow, 0);
-        Product product = inventory.getProductById(productId);
+        // a copy: the update is checked against the version loaded here
+        Product product = service.getProductCopy(productId);
 
         if (product != null) {
-            currentEditingProduct = product;
-
-            productNameField.setText(product.getName());
-            productPriceField.setText(String.valueOf(product.getPrice()));
-            productQuantityField.setText(String.valueOf(product.getQuantity()));
-
-            if (product instanceof Medicine) {
-                productTypeCombo.setSelectedItem("Medicine");
-                Medicine medicine = (Medicine) product;
-                prescriptionRequiredBox.setSelected(medicine.isPrescriptionRequired());
-                skinTypeField.setText("");
-            } else if (product instanceof Cosmetic) {
-                productTypeCombo.setSelectedItem("Cosmetic");
-                Cosmetic cosmetic = (Cosmetic) product;
-                skinTypeField.setText(cosmetic.getSuitableForSkinType());
-                prescriptionRequiredBox.setSelected(false);
-            }
-
-            toggleProductSpecificFields();
+            fillProductForm(product);
 
             JOptionPane.showMessageDialog(this,
                     "Product data loaded into form!\n"
@@ -995,6 +670,64 @@ public class PharmacyGUI extends JFrame {
         }
     }
 
+    private void fillProductForm(Product product) {
+        currentEditingProduct = product;
+
+        productNameField.setText(product.getName());
+        productPriceField.setText(String.valueOf(product.getPrice()));
+        productQuantityField.setText(String.valueOf(product.getQuantity()));
+
+        if (product instanceof Medicine) {
+            productTypeCombo.setSelectedItem("Medicine");
+            Medicine medicine = (Medicine) product;
+            prescriptionRequiredBox.setSelected(medicine.isPrescriptionRequired());
+            skinTypeField.setText("");
+        } else if (product instanceof Cosmetic) {
+            productTypeCombo.setSelectedItem("Cosmetic");
+            Cosmetic cosmetic = (Cosmetic) product;
+            skinTypeField.setText(cosmetic.getSuitableForSkinType());
+            prescriptionRequiredBox.setSelected(false);
+        }
+
+        toggleProductSpecificFields();
+    }
+
+    /**
+     * Someone else saved the product while it was in the form. Shows what
+     * changed and lets the user reload the form, overwrite anyway, or keep
+     * editing.
+     */
+    private void resolveProductConflict(ProductConflictException conflict, String type, String name, double price,
+            int quantity) {
+        Object[] options = {"Reload Form", "Overwrite", "Cancel"};
+        int choice = JOptionPane.showOptionDialog(this,
+                conflict.getMessage() + "\n\n"
+                + "Reload Form: discard your edit and load the current values\n"
+                + "Overwrite: save your values over the other changes",
+                "Product Changed",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.WARNING_MESSAGE,
+                null, options, options[0]);
+        if (choice == 0) {
+            fillProductForm(conflict.getCurrent());
+        } else if (choice == 1) {
+            try {
+                service.updateProduct(conflict.getCurrent(), type, name, price, quantity,
+                        prescriptionRequiredBox.isSelected(), skinTypeField.getText());
+                refreshProductTable();
+                refreshAvailableProductsTable();
+                refreshDashboard();
+                clearProductFields();
+                JOptionPane.showMessageDialog(this, "Product updated successfully!", "Update Successful",
+                        JOptionPane.INFORMATION_MESSAGE);
+            } catch (ProductConflictException again) {
+                resolveProductConflict(again, type, name, price, quantity);
+            } catch (IllegalArgumentException e) {
+                JOptionPane.showMessageDialog(this, e.getMessage(), "Update Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
     private JPanel createCustomerPanel() {
         JPanel customerPanel = new JPanel(new BorderLayout(10, 10));
         customerPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -1109,7 +842,7 @@ public class PharmacyGUI extends JFrame {
             public void filterSalesProducts() {
                 String searchText = salesProductSearchField.getText().toLowerCase();
                 availableProductsModel.setRowCount(0);
-                for (Product p : inventory.getProducts()) {
+                for (Product p : service.getProducts()) {
                     if (p.getQuantity() > 0 && p.getName().toLowerCase().startsWith(searchText)) {
                         availableProductsModel.addRow(new Object[]{
                             p.getProductId(), p.getName(),
@@ -1220,26 +953,27 @@ public class PharmacyGUI extends JFrame {
         });
         JScrollPane orderScrollPane = new JScrollPane(orderHistoryTable);
         orderScrollPane.getViewport().setBackground(new Color(200, 220, 255));
-        orderScrollPane.setBorder(new TitledBorder("Order History - " + currentShift.getDisplayName() + " (Double-click for details)"));
+        orderScrollPane.setBorder(new TitledBorder("Order History - " + service.getCurrentShift().getDisplayName() + " (Double-click for details)"));
         orderPanel.add(orderScrollPane, BorderLayout.CENTER);
         refreshOrderHistoryTable();
         return orderPanel;
     }
 
     private void showOrderDetails(int orderIndex) {
+        List<Order> orders = service.getShiftOrders();
         if (orderIndex >= 0 && orderIndex < orders.size()) {
             Order order = orders.get(orderIndex);
-            order.loadOrderItems(inventory.getProducts());
+            List<OrderItem> items = getOrderItems(order);
             StringBuilder details = new StringBuilder();
             details.append("Order ID: ").append(order.getOrderId()).append("\n");
             details.append("Customer: ").append(order.getCustomer().getName()).append("\n");
             details.append("Phone: ").append(order.getCustomer().getPhone()).append("\n");
-            details.append("Date: ").append(order.getOrderDate()).append("\n");
+            details.append("Date: ").append(DATE_FORMAT.format(order.getOrderDate())).append("\n");
             details.append("Status: ").append(order.getStatus()).append("\n");
-            details.append("Shift: ").append(currentShift.getDisplayName()).append("\n\n");
+            details.append("Shift: ").append(service.getCurrentShift().getDisplayName()).append("\n\n");
             details.append("Products:\n");
             details.append("----------------------------------------\n");
-            for (OrderItem item : order.getItems()) {
+            for (OrderItem item : items) {
                 details.append(String.format("• %s\n  Qty: %d | Price: $%.2f | Subtotal: $%.2f\n\n",
                         item.getProduct().getName(),
                         item.getQuantity(),
@@ -1267,23 +1001,12 @@ public class PharmacyGUI extends JFrame {
             return;
         }
 
-        if (!userCredentials.containsKey(username) || !userCredentials.get(username).equals(password)) {
+        if (!service.authenticate(username, password)) {
             JOptionPane.showMessageDialog(this, "Invalid username or password!", "Login Failed", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
-        File shiftStateFile = new File(SHIFT_STATE_FILE);
-        if (shiftStateFile.exists()) {
-            loadShiftState();
-            loadCurrentShiftOrders();
-            System.out.println("Loaded existing " + currentShift.getDisplayName() + " started at " + shiftStartTime);
-        } else {
-            currentShift = ShiftType.MORNING;
-            shiftStartTime = new Date();
-            orders = new ArrayList<>();
-            saveShiftState();
-            System.out.println("Started new " + currentShift.getDisplayName() + " at " + shiftStartTime);
-        }
+        service.resumeShift();
 
         currentLogin = new Login(username, password);
         currentLogin.login();
@@ -1293,16 +1016,34 @@ public class PharmacyGUI extends JFrame {
         showMainScreen();
     }
 
+    private void toggleFlightRecording(JButton button) {
+        if (!FlightRecording.isRecording()) {
+            FlightRecording.start();
+            if (FlightRecording.isRecording()) {
+                button.setText("Dump Profile");
+            }
+            return;
+        }
+        String file = FlightRecording.stop();
+        button.setText("Record Profile");
+        if (file != null) {
+            JOptionPane.showMessageDialog(this, "Profile saved to:\n" + file,
+                    "Flight Recording", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            JOptionPane.showMessageDialog(this, "Failed to save the profile, see the console for details.",
+                    "Flight Recording", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
     private void updateEndShiftButtonText() {
         if (endShiftButton != null) {
-            String shiftName = currentShift.getDisplayName();
+            String shiftName = service.getCurrentShift().getDisplayName();
             endShiftButton.setText("End " + shiftName);
         }
     }
 
     private void performLogout() {
-        saveShiftState();
-        saveCurrentShiftOrders();
+        service.saveState();
 
         if (currentLogin != null) {
             currentLogin.logout();
@@ -1354,21 +1095,7 @@ public class PharmacyGUI extends JFrame {
                 return;
             }
 
-            int newId = getNextProductId();
-            Product product;
-
-            if ("Medicine".equals(type)) {
-                boolean prescriptionRequired = prescriptionRequiredBox.isSelected();
-                product = new Medicine(prescriptionRequired, newId, name, price, quantity);
-            } else {
-                String skinType = skinTypeField.getText().trim();
-                if (skinType.isEmpty()) {
-                    skinType = "All";
-                }
-                product = new Cosmetic(skinType, newId, name, price, quantity);
-            }
-
-            inventory.addProduct(product);
+            service.addProduct(type, name, price, quantity, prescriptionRequiredBox.isSelected(), skinTypeField.getText());
             refreshProductTable();
             refreshAvailableProductsTable();
             refreshDashboard(); // Added for dynamic dashboard update
@@ -1378,6 +1105,8 @@ public class PharmacyGUI extends JFrame {
 
         } catch (NumberFormatException e) {
             JOptionPane.showMessageDialog(this, "Please enter valid numbers for price and quantity!", "Input Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Input Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
@@ -1390,9 +1119,7 @@ public class PharmacyGUI extends JFrame {
             return;
         }
 
-        Customer customer = new Customer(name, phone);
-        customers.add(customer);
-        customer.saveToFile("customers.txt");
+        service.addCustomer(name, phone);
 
         refreshCustomerTable();
         refreshCustomerComboBox();
@@ -1409,7 +1136,7 @@ public class PharmacyGUI extends JFrame {
             return;
         }
         int productId = (Integer) availableProductsModel.getValueAt(selectedRow, 0);
-        Product product = inventory.getProductById(productId);
+        Product product = service.getProduct(productId);
         if (product == null || product.getQuantity() <= 0) {
             JOptionPane.showMessageDialog(this, "Product not available!", "Stock Error", JOptionPane.WARNING_MESSAGE);
             return;
@@ -1507,24 +1234,13 @@ public class PharmacyGUI extends JFrame {
         }
 
         try {
-            Order order = new Order(customer, currentLogin.getUsername());
-
-            for (OrderItem item : currentCart) {
-                order.addItem(item.getProduct(), item.getQuantity());
-            }
-
-            order.completeOrder();
-
-            orders.add(order);
-
-            saveCurrentShiftOrders();
-
+            Map<Integer, Integer> quantities = new LinkedHashMap<>();
             for (OrderItem item : currentCart) {
-                Product product = item.getProduct();
-                product.setQuantity(product.getQuantity() - item.getQuantity());
+                quantities.merge(item.getProduct().getProductId(), item.getQuantity(), Integer::sum);
             }
+            Order order = service.checkout(customer.getCustomerid(), quantities, currentLogin.getUsername());
 
-            inventory.saveToFile();
+            currentCart.clear();
 
             refreshCartTable();
             refreshProductTable();
@@ -1532,11 +1248,9 @@ public class PharmacyGUI extends JFrame {
             refreshOrderHistoryTable();
             refreshDashboard();
 
-            currentCart.clear();
-
             JOptionPane.showMessageDialog(this,
                     String.format("Order processed successfully!\nOrder ID: %d\nTotal: $%.2f\nShift: %s\nSaved to files & current shift",
-                            order.getOrderId(), order.getTotalAmount(), currentShift.getDisplayName()),
+                            order.getOrderId(), order.getTotalAmount(), service.getCurrentShift().getDisplayName()),
                     "Success", JOptionPane.INFORMATION_MESSAGE);
 
         } catch (Exception e) {
@@ -1548,16 +1262,16 @@ public class PharmacyGUI extends JFrame {
     // ===================== Dynamic Dashboard Refresh Method =====================
     private void refreshDashboard() {
         if (totalProductsLabel != null) {
-            totalProductsLabel.setText(String.valueOf(inventory.getProducts().size()));
+            totalProductsLabel.setText(String.valueOf(service.getProductCount()));
         }
         if (totalCustomersLabel != null) {
-            totalCustomersLabel.setText(String.valueOf(customers.size()));
+            totalCustomersLabel.setText(String.valueOf(service.getCustomerCount()));
         }
         if (ordersTodayLabel != null) {
-            ordersTodayLabel.setText(String.valueOf(orders.size()));
+            ordersTodayLabel.setText(String.valueOf(service.getShiftOrderCount()));
         }
         if (lowStockLabel != null) {
-            lowStockLabel.setText(String.valueOf(getLowStockCount()));
+            lowStockLabel.setText(String.valueOf(service.getLowStockCount()));
         }
     }
 
@@ -1574,7 +1288,7 @@ public class PharmacyGUI extends JFrame {
 
     private void refreshProductTable() {
         productTableModel.setRowCount(0);
-        for (Product p : inventory.getProducts()) {
+        for (Product p : service.getProducts()) {
             String special = "";
 
             if (p instanceof Medicine) {
@@ -1599,7 +1313,7 @@ public class PharmacyGUI extends JFrame {
 
     private void refreshCustomerTable() {
         customerTableModel.setRowCount(0);
-        for (Customer c : customers) {
+        for (Customer c : service.getCustomers()) {
             customerTableModel.addRow(new Object[]{
                 c.getCustomerid(),
                 c.getName(),
@@ -1610,7 +1324,7 @@ public class PharmacyGUI extends JFrame {
 
     private void refreshAvailableProductsTable() {
         availableProductsModel.setRowCount(0);
-        for (Product p : inventory.getProducts()) {
+        for (Product p : service.getProducts()) {
             if (p.getQuantity() > 0) {
                 availableProductsModel.addRow(new Object[]{
                     p.getProductId(),
@@ -1640,19 +1354,13 @@ public class PharmacyGUI extends JFrame {
 
     private void refreshOrderHistoryTable() {
         orderHistoryModel.setRowCount(0);
-        if (orders == null || orders.isEmpty()) {
-            return;
-        }
-        for (Order o : orders) {
+        for (Order o : service.getShiftOrders()) {
             String customerName = (o.getCustomer() != null) ? o.getCustomer().getName() : "Unknown";
-            String orderDate = (o.getOrderDate() != null) ? o.getOrderDate().toString() : "N/A";
+            String orderDate = (o.getOrderDate() != null) ? DATE_FORMAT.format(o.getOrderDate()) : "N/A";
             String totalAmount = String.format("$%.2f", o.getTotalAmount());
             String status = (o.getStatus() != null) ? o.getStatus() : "Pending";
-            if (o.getItems().isEmpty()) {
-                o.loadOrderItems(inventory.getProducts());
-            }
             StringBuilder productSummary = new StringBuilder();
-            for (OrderItem item : o.getItems()) {
+            for (OrderItem item : getOrderItems(o)) {
                 if (productSummary.length() > 0) {
                     productSummary.append(", ");
                 }
@@ -1674,42 +1382,17 @@ public class PharmacyGUI extends JFrame {
         }
     }
 
+    private List<OrderItem> getOrderItems(Order order) {
+        return service.getOrderItems(order);
+    }
+
     private void refreshCustomerComboBox() {
         customerComboBox.removeAllItems();
-        for (Customer c : customers) {
+        for (Customer c : service.getCustomers()) {
             customerComboBox.addItem(c);
         }
     }
 
-    private void reindexProductIds() {
-        int newId = 1;
-        for (Product p : inventory.getProducts()) {
-            p.setProductId(newId++);
-        }
-        inventory.saveToFile();
-        System.out.println("Product IDs reindexed successfully.");
-    }
-
-    private int getNextProductId() {
-        int maxId = 0;
-        for (Product p : inventory.getProducts()) {
-            if (p.getProductId() > maxId) {
-                maxId = p.getProductId();
-            }
-        }
-        return maxId + 1;
-    }
-
-    private int getLowStockCount() {
-        int count = 0;
-        for (Product p : inventory.getProducts()) {
-            if (p.getQuantity() < 10) {
-                count++;
-            }
-        }
-        return count;
-    }
-
     private void clearProductFields() {
         productNameField.setText("");
         productPriceField.setText("");
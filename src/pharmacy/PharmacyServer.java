@@ -0,0 +1,323 @@
+package pharmacy;
+
+import com.sun.net.httpserver.BasicAuthenticator;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP API so several counters can sell against one stock. All
+ * terminals go through the one {@link PharmacyService}, which owns the data
+ * files; each request runs on its own virtual thread.
+ *
+ * Bodies use {@link WireFormat}: one record per line, comma separated.
+ *
+ *   GET  /inventory            all products, id,name,price,quantity,type,special
+ *   GET  /inventory/{id}       one product
+ *   GET  /customers            all customers, id,name,phone
+ *   GET  /customers/{id}       one customer
+ *   POST /checkout             body: customerId, then productId,quantity lines
+ *                              reply: orderId,total,lines
+ *   GET  /shift                type,startTime,orderCount
+ *   POST /shift/end            ends the shift; reply: the new shift
+ *   GET  /transfers?to=Branch  transfers shipped to that branch, in the
+ *                              transfer journal format (see {@link Transfers})
+ *
+ * POST requests and GET /transfers need HTTP basic auth against users.txt;
+ * the user is recorded as the order's cashier. Invalid requests get 400 with the
+ * message as body, unknown ids 404.
+ *
+ * Usage: java -cp build/classes pharmacy.PharmacyServer [port]
+ * Binds to -Dpharmacy.http.host (default localhost) and the given port,
+ * -Dpharmacy.http.port or 8080.
+ *
+ * @author elkhedewy-group
+ */
+public final class PharmacyServer {
+    private static final int MAX_BODY = 64 * 1024;
+    private static final Metrics.Timer REQUEST_TIMER = Metrics.timer("http.request");
+    private static final Metrics.Counter ERRORS = Metrics.counter("http.errors");
+    private static final Log LOG = Log.get(PharmacyServer.class);
+    private static final TimestampCodec DATE_FORMAT = TimestampCodec.system();
+
+    private final PharmacyService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private PharmacyServer(PharmacyService service, HttpServer server) {
+        this.service = service;
+        this.server = server;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    public static PharmacyServer start(PharmacyService service, String host, int port) throws IOException {
+        // the JDK server writes headers and body separately; with Nagle on, every small
+        // response waits for the client's delayed ACK (~40 ms). Read once, when the first server is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        HttpServer http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        PharmacyServer s = new PharmacyServer(service, http);
+        http.setExecutor(s.executor);
+        http.createContext("/inventory", s.timed(s::inventory));
+        http.createContext("/customers", s.timed(s::customers));
+        http.createContext("/shift", s.timed(s::shift));
+        Authenticator auth = new Authenticator(service);
+        http.createContext("/transfers", s.timed(s::transfers)).setAuthenticator(auth);
+        HttpContext checkout = http.createContext("/checkout", s.timed(s::checkout));
+        checkout.setAuthenticator(auth);
+        http.createContext("/shift/end", s.timed(s::endShift)).setAuthenticator(auth);
+        http.start();
+        LOG.info("http.started", "host", host, "port", s.getPort());
+        return s;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, waits up to delaySeconds for running ones
+     * and closes the service.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        service.close();
+        LOG.info("http.stopped");
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = System.getProperty("pharmacy.http.host", "localhost");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("pharmacy.http.port", 8080);
+        PharmacyService service = new PharmacyService();
+        Metrics.startLog();
+        FlightRecording.init();
+        PharmacyServer server = start(service, host, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(2), "pharmacy-http-stop"));
+        System.out.println("[INFO] Pharmacy API listening on http://" + host + ":" + server.getPort());
+    }
+
+    private interface Endpoint {
+        void handle(HttpExchange exchange, String path) throws IOException;
+    }
+
+    private HttpHandler timed(Endpoint endpoint) {
+        return exchange -> {
+            long start = System.nanoTime();
+            try {
+                endpoint.handle(exchange, exchange.getRequestURI().getRawPath());
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                ERRORS.increment();
+                sendError(exchange, 400, e.getMessage());
+            } catch (RuntimeException e) {
+                ERRORS.increment();
+                LOG.error("http.failed", "path", exchange.getRequestURI().getPath(), "error", String.valueOf(e));
+                sendError(exchange, 500, "Internal error");
+            } finally {
+                exchange.close();
+                REQUEST_TIMER.recordSince(start);
+            }
+        };
+    }
+
+    // once the headers are out the status cannot change; closing cuts the response short
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() == -1) {
+            sendText(exchange, status, message);
+        } else {
+            LOG.warn("http.failedAfterHeaders", "path", exchange.getRequestURI().getPath(), "error", message);
+        }
+    }
+
+    // ===================== Endpoints =====================
+    private void inventory(HttpExchange exchange, String path) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        int id = WireFormat.pathId(path, "/inventory");
+        if (id == -1) {
+            List<Product> products = service.getProducts();
+            WireFormat.Encoder out = new WireFormat.Encoder(products.size() * 48);
+            for (Product p : products) {
+                out.product(p);
+            }
+            send(exchange, 200, out);
+            return;
+        }
+        Product p = id < 0 ? null : service.getProduct(id);
+        if (p == null) {
+            sendText(exchange, 404, "Product not found");
+            return;
+        }
+        WireFormat.Encoder out = new WireFormat.Encoder(64);
+        out.product(p);
+        send(exchange, 200, out);
+    }
+
+    private void customers(HttpExchange exchange, String path) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        int id = WireFormat.pathId(path, "/customers");
+        if (id == -1) {
+            List<Customer> customers = service.getCustomers();
+            WireFormat.Encoder out = new WireFormat.Encoder(customers.size() * 32);
+            for (Customer c : customers) {
+                out.customer(c);
+            }
+            send(exchange, 200, out);
+            return;
+        }
+        Customer c = id < 0 ? null : service.getCustomer(id);
+        if (c == null) {
+            sendText(exchange, 404, "Customer not found");
+            return;
+        }
+        WireFormat.Encoder out = new WireFormat.Encoder(64);
+        out.customer(c);
+        send(exchange, 200, out);
+    }
+
+    private void checkout(HttpExchange exchange, String path) throws IOException {
+        if (!requireMethod(exchange, "POST")) {
+            return;
+        }
+        byte[] body = readBody(exchange);
+        if (body == null) {
+            return;
+        }
+        WireFormat.Decoder in = new WireFormat.Decoder(body);
+        if (!in.nextLine()) {
+            throw new IllegalArgumentException("Expected a customer id");
+        }
+        int customerId = in.nextInt();
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        while (in.nextLine()) {
+            int productId = in.nextInt();
+            int quantity = in.nextInt();
+            quantities.merge(productId, quantity, Integer::sum);
+        }
+        Order order = service.checkout(customerId, quantities, cashier(exchange));
+        WireFormat.Encoder out = new WireFormat.Encoder(32);
+        out.number(order.getOrderId()).money(order.getTotalAmount()).number(order.getItems().size()).end();
+        send(exchange, 200, out);
+    }
+
+    private void shift(HttpExchange exchange, String path) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        if (!path.equals("/shift")) {
+            sendText(exchange, 404, "Not found");
+            return;
+        }
+        sendShift(exchange);
+    }
+
+    private void endShift(HttpExchange exchange, String path) throws IOException {
+        if (!requireMethod(exchange, "POST")) {
+            return;
+        }
+        service.endShift(cashier(exchange));
+        sendShift(exchange);
+    }
+
+    private void sendShift(HttpExchange exchange) throws IOException {
+        ShiftStatus shift = service.getShiftStatus();
+        WireFormat.Encoder out = new WireFormat.Encoder(64);
+        out.text(shift.getShiftType().name())
+                .text(DATE_FORMAT.format(shift.getStart()))
+                .number(shift.getOrderCount())
+                .end();
+        send(exchange, 200, out);
+    }
+
+    private void transfers(HttpExchange exchange, String path) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+        String query = exchange.getRequestURI().getRawQuery();
+        if (!path.equals("/transfers") || query == null || !query.startsWith("to=")) {
+            sendText(exchange, 404, "Use /transfers?to=Branch");
+            return;
+        }
+        String to = URLDecoder.decode(query.substring(3), StandardCharsets.UTF_8);
+        sendBytes(exchange, 200, service.getShippedTransfersJournal(to));
+    }
+
+    // ===================== Plumbing =====================
+    private static String cashier(HttpExchange exchange) {
+        HttpPrincipal principal = exchange.getPrincipal();
+        return principal != null ? principal.getUsername() : "api";
+    }
+
+    private static boolean requireMethod(HttpExchange exchange, String method) throws IOException {
+        if (exchange.getRequestMethod().equals(method)) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", method);
+        sendText(exchange, 405, "Use " + method);
+        return false;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY + 1);
+            if (body.length > MAX_BODY) {
+                sendText(exchange, 413, "Request body too large");
+                return null;
+            }
+            return body;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, WireFormat.Encoder out) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", WireFormat.CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, out.length() == 0 ? -1 : out.length());
+        if (out.length() > 0) {
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(out.array(), 0, out.length());
+            }
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        sendBytes(exchange, status, (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendBytes(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", WireFormat.CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static final class Authenticator extends BasicAuthenticator {
+        private final PharmacyService service;
+
+        Authenticator(PharmacyService service) {
+            super("pharmacy", StandardCharsets.UTF_8);
+            this.service = service;
+        }
+
+        @Override
+        public boolean checkCredentials(String username, String password) {
+            return service.authenticate(username, password);
+        }
+    }
+}
@@ -0,0 +1,1309 @@
+package pharmacy;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The pharmacy engine without a user interface. Owns the inventory, the
+ * customers, the current shift and its orders, and keeps them in step with
+ * the data files. The GUI, the console client and batch jobs all go
+ * through this class.
+ *
+ * Every operation holds the service lock, so one instance can be shared by
+ * several threads. It is a ReentrantLock rather than synchronized because
+ * the HTTP server runs requests on virtual threads, and a virtual thread
+ * blocked on file I/O inside a monitor pins its carrier thread. Product
+ * listings and counts do not take the lock at all: they read the
+ * inventory's current immutable snapshot. Other lists handed out are
+ * copies; products and orders in them are the live objects and must only
+ * be changed through the service.
+ * Invalid requests fail with IllegalArgumentException or
+ * IllegalStateException carrying a message fit to show the user.
+ *
+ * @author elkhedewy-group
+ */
+public class PharmacyService {
+    private static final String USERS_FILE = "users.txt";
+    private static final String SHIFT_STATE_FILE = "current_shift.txt";
+    private static final String CUSTOMERS_FILE = Customer.FILE_NAME;
+    private static final String INVENTORY_FILE = "inventory.txt";
+    private static final String SUMMARY_FILE = ShiftRollups.SUMMARY_FILE;
+    private static final TimestampCodec DATE_FORMAT = TimestampCodec.system();
+    private static final Metrics.Timer CHECKOUT_TIMER = Metrics.timer("checkout");
+    private static final Metrics.Timer SHIFT_SWITCH_TIMER = Metrics.timer("shift.switch");
+    private static final Metrics.Counter CONFLICTS = Metrics.counter("product.conflicts");
+    private static final int LOW_STOCK = 10;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, String> userCredentials = new HashMap<>();
+    private final Inventory inventory;
+    private final StockLedger ledger;
+    private final ShiftRollups rollups;
+    private final EventBus events = EventBus.fromSystemProperties();
+    private final ChangeFeed changeFeed;
+    private final Replicator replicator;
+    private final FederatedInventory branches;
+    private final Transfers transfers;
+    private final DataWatcher watcher;
+    // orders other instances appended, until their shift's order list names them
+    private final Map<Integer, Order> otherOrders = new HashMap<>();
+    private volatile Runnable externalChangeListener;
+    private final List<Customer> customers;
+    private final OrderLineCache orderLineCache;
+    private final OrderHistory orderHistory;
+    private List<Order> orders = new ArrayList<>();
+    private ShiftType currentShift = ShiftType.MORNING;
+    private Instant shiftStartTime;
+
+    /**
+     * Loads users, inventory, customers and the current shift from the data
+     * directory, seeding a few customers and products on a fresh install.
+     */
+    public PharmacyService() {
+        loadUsersFromFile();
+        inventory = new Inventory();
+        ledger = openLedger(inventory);
+        rollups = openRollups();
+        inventory.setEvents(events);
+        branches = FederatedInventory.fromSystemProperties(inventory);
+        transfers = openTransfers(inventory);
+        changeFeed = ChangeFeed.fromSystemProperties();
+        if (changeFeed != null) {
+            events.subscribe(changeFeed, Integer.getInteger("pharmacy.cdc.buffer", 65536), EventBus.Overflow.BLOCK);
+        }
+        orderLineCache = OrderLineCache.fromSystemProperties();
+        Metrics.gauge("lineCache.entries", orderLineCache::size);
+        Metrics.gauge("lineCache.hits", orderLineCache::getHits);
+        Metrics.gauge("lineCache.misses", orderLineCache::getMisses);
+        Metrics.gauge("lineCache.evictions", orderLineCache::getEvictions);
+        Customer.initializeLastId(DataFiles.path(CUSTOMERS_FILE));
+        customers = Customer.loadCustomersFromFile(DataFiles.path(CUSTOMERS_FILE));
+        orderHistory = OrderHistory.loadFromFiles();
+        Metrics.gauge("history.orders", orderHistory::size);
+
+        loadShift();
+
+        if (customers.isEmpty()) {
+            customers.add(new Customer("Farida", "01012345678"));
+            customers.add(new Customer("Haneen", "01012345679"));
+            customers.add(new Customer("Ahmed", "01012345680"));
+            for (Customer c : customers) {
+                c.saveToFile(DataFiles.path(CUSTOMERS_FILE));
+            }
+        }
+        if (inventory.getProducts().isEmpty() && !new File(DataFiles.path(INVENTORY_FILE)).exists()) {
+            inventory.addProduct(new Medicine(false, 1, "Panadol", 15.50, 100));
+            inventory.addProduct(new Medicine(true, 2, "Insulin", 120.00, 25));
+            inventory.addProduct(new Cosmetic("Normal", 3, "Face Cream", 45.00, 30));
+            inventory.addProduct(new Medicine(false, 4, "Aspirin", 12.00, 75));
+        }
+        replicator = Replicator.fromSystemProperties(lock);
+        watcher = DataWatcher.fromSystemProperties(lock);
+        if (watcher != null) {
+            watcher.tail(CUSTOMERS_FILE, this::mergeCustomers);
+            watcher.tail(Order.ORDERS_FILE, this::mergeOrders);
+            String inventoryFile = new File(inventory.getFileName()).getName();
+            watcher.diff(inventoryFile, this::mergeInventory);
+            inventory.setSaveHooks(() -> watcher.sync(inventoryFile), () -> watcher.seen(inventoryFile));
+            for (ShiftType shift : ShiftType.values()) {
+                watcher.diff(new File(shiftOrdersFile(shift)).getName(),
+                        (changed, previous, removed) -> mergeShiftOrders(shift, changed));
+            }
+            watcher.start();
+        }
+    }
+
+    private static ShiftRollups openRollups() {
+        try {
+            return ShiftRollups.open();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("[ERR] Failed to open shift rollups, shift history is off: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static StockLedger openLedger(Inventory inventory) {
+        try {
+            StockLedger ledger = StockLedger.open(inventory);
+            inventory.setLedger(ledger);
+            return ledger;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("[ERR] Failed to open stock ledger, stock history is off: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Transfers openTransfers(Inventory inventory) {
+        try {
+            return Transfers.open(FederatedInventory.localBranch(), Paths.get(DataFiles.path(Transfers.JOURNAL_FILE)),
+                    inventory);
+        } catch (IOException e) {
+            System.out.println("[ERR] Failed to open transfer journal, transfers are off: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ===================== Users =====================
+    private void loadUsersFromFile() {
+        File usersFile = new File(DataFiles.path(USERS_FILE));
+        if (usersFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(usersFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue; // Skip empty lines and comments
+                    }
+                    String[] parts = line.split(",", 2);
+                    if (parts.length == 2) {
+                        userCredentials.put(parts[0].trim(), parts[1].trim());
+                    }
+                }
+                System.out.println("Loaded " + userCredentials.size() + " users from file");
+            } catch (IOException e) {
+                System.err.println("Error loading users from file: " + e.getMessage());
+            }
+        }
+        if (userCredentials.isEmpty()) {
+            System.out.println("No users found in users.txt file");
+        }
+    }
+
+    public boolean authenticate(String username, String password) {
+        lock.lock();
+        try {
+            String expected = userCredentials.get(username);
+            return expected != null && expected.equals(password);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ===================== Shift =====================
+    private static Instant now() {
+        return Instant.now().truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * Picks up the shift recorded in current_shift.txt, or starts a new
+     * morning shift if there is none. Called at startup and on every login,
+     * since another instance may have ended the shift in between.
+     */
+    public void resumeShift() {
+        lock.lock();
+        try {
+            loadShift();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void loadShift() {
+        File shiftStateFile = new File(DataFiles.path(SHIFT_STATE_FILE));
+        if (shiftStateFile.exists()) {
+            loadShiftState(shiftStateFile);
+            loadCurrentShiftOrders();
+            System.out.println("Loaded existing " + currentShift.getDisplayName() + " started at " + DATE_FORMAT.format(shiftStartTime));
+        } else {
+            currentShift = ShiftType.MORNING;
+            shiftStartTime = now();
+            saveShiftState();
+            loadCurrentShiftOrders();
+            System.out.println("Started new " + currentShift.getDisplayName() + " at " + DATE_FORMAT.format(shiftStartTime));
+        }
+    }
+
+    private void loadShiftState(File shiftFile) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(shiftFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("SHIFT_TYPE=")) {
+                    String shiftTypeStr = line.substring("SHIFT_TYPE=".length());
+                    try {
+                        currentShift = ShiftType.valueOf(shiftTypeStr);
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("Invalid shift type in file: " + shiftTypeStr);
+                        currentShift = ShiftType.MORNING;
+                    }
+                } else if (line.startsWith("SHIFT_START_TIME=")) {
+                    String timeStr = line.substring("SHIFT_START_TIME=".length());
+                    try {
+                        shiftStartTime = DATE_FORMAT.parseInstant(timeStr);
+                    } catch (DateTimeParseException e) {
+                        System.err.println("Error parsing shift start time: " + e.getMessage());
+                        shiftStartTime = now();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading shift state: " + e.getMessage());
+            currentShift = ShiftType.MORNING;
+            shiftStartTime = now();
+            saveShiftState();
+        }
+        if (shiftStartTime == null) {
+            shiftStartTime = now();
+        }
+    }
+
+    private void saveShiftState() {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(DataFiles.path(SHIFT_STATE_FILE)))) {
+            writer.println("SHIFT_TYPE=" + currentShift.name());
+            writer.println("SHIFT_START_TIME=" + DATE_FORMAT.format(shiftStartTime));
+            System.out.println("Saved shift state: " + currentShift.getDisplayName());
+        } catch (IOException e) {
+            System.err.println("Error saving shift state: " + e.getMessage());
+        }
+        DataFiles.changed(DataFiles.path(SHIFT_STATE_FILE), false);
+    }
+
+    private String shiftOrdersFile(ShiftType shift) {
+        return DataFiles.path(shift.getFileName() + "_shift_orders.txt");
+    }
+
+    private void loadCurrentShiftOrders() {
+        PharmacyEvents.ShiftLoad event = new PharmacyEvents.ShiftLoad();
+        event.begin();
+        archiveOrders();
+        orders = new ArrayList<>();
+
+        File file = new File(shiftOrdersFile(currentShift));
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.startsWith("ORDER_ID=")) {
+                        int orderId = Integer.parseInt(line.substring("ORDER_ID=".length()));
+                        Order order = orderHistory.viewHeader(orderId, customers);
+                        if (order != null) {
+                            Order.noteLoaded(orderId);
+                            orders.add(order);
+                        }
+                    }
+                }
+                System.out.println("Loaded " + orders.size() + " orders for " + currentShift.getDisplayName());
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Error loading current shift orders: " + e.getMessage());
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.shift = currentShift.name();
+            event.orderCount = orders.size();
+            event.historyCount = orderHistory.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Moves the orders in view, and those other instances wrote that no
+     * shift list named yet, into the history, which is only loaded once:
+     * the shift they belong to was ended here or by another instance.
+     */
+    private void archiveOrders() {
+        List<Order> done = new ArrayList<>(orders);
+        done.addAll(otherOrders.values());
+        done.sort((a, b) -> Integer.compare(a.getOrderId(), b.getOrderId()));
+        for (Order order : done) {
+            orderHistory.append(order);
+        }
+        otherOrders.clear();
+    }
+
+    private void saveCurrentShiftOrders() {
+        String fileName = shiftOrdersFile(currentShift);
+        String name = new File(fileName).getName();
+        try (DataLocks.Lease lease = DataLocks.get().lease(fileName)) {
+            if (watcher != null) {
+                watcher.sync(name); // keep the orders other instances listed
+            }
+            Path temp = lease.newTemp();
+            try (PrintWriter writer = new PrintWriter(new FileWriter(temp.toFile()))) {
+                for (Order order : orders) {
+                    writer.println("ORDER_ID=" + order.getOrderId());
+                }
+            }
+            lease.commit(temp);
+            if (watcher != null) {
+                watcher.seen(name);
+            }
+            System.out.println("Saved " + orders.size() + " orders for " + currentShift.getDisplayName());
+        } catch (IOException e) {
+            System.err.println("Error saving current shift orders: " + e.getMessage());
+        }
+        DataFiles.changed(shiftOrdersFile(currentShift), false);
+    }
+
+    /**
+     * Writes the shift state and the shift's order list. Clients call this
+     * on logout and before exiting.
+     */
+    public void saveState() {
+        lock.lock();
+        try {
+            saveShiftState();
+            saveCurrentShiftOrders();
+            if (ledger != null) {
+                ledger.flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Saves the state and shuts down the event stream: subscribers get what
+     * is still buffered and are completed, and the change feed is closed.
+     * With replication on, waits for the standby to acknowledge the last
+     * changes. Clients call this once, before exiting.
+     */
+    public void close() {
+        saveState();
+        events.close();
+        try {
+            if (changeFeed != null && !changeFeed.awaitClosed(5, TimeUnit.SECONDS)) {
+                System.out.println("[WARN] Change feed did not finish writing within 5 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
+        if (rollups != null) {
+            rollups.close();
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
+        if (replicator != null) {
+            replicator.close();
+        }
+        branches.close();
+    }
+
+    /**
+     * Age in milliseconds of the oldest change the standby has not
+     * acknowledged, or -1 when replication is off.
+     */
+    public long getReplicationLagMillis() {
+        return replicator != null ? replicator.getLagMillis() : -1;
+    }
+
+    // ===================== Other instances =====================
+    /**
+     * Called on a background thread whenever changes another instance made
+     * to the data files were merged, so a client can refresh what it shows.
+     * See {@link DataWatcher}.
+     */
+    public void setExternalChangeListener(Runnable listener) {
+        externalChangeListener = listener;
+    }
+
+    // the merge* methods run on the watcher's thread, under the lock
+
+    private void mergeCustomers(List<String> lines) {
+        int added = 0;
+        for (String line : lines) {
+            Customer customer = Customer.fromLine(line);
+            if (customer != null && findCustomer(customer.getCustomerid()) == null) {
+                customers.add(customer);
+                added++;
+            }
+        }
+        if (added > 0) {
+            System.out.println("[INFO] Merged " + added + " customers added by another instance");
+            externalChange();
+        }
+    }
+
+    private void mergeOrders(List<String> lines) {
+        Map<Integer, Customer> customersById = new HashMap<>();
+        for (Customer c : customers) {
+            customersById.put(c.getCustomerid(), c);
+        }
+        for (String line : lines) {
+            Order order = Order.fromLine(line, customersById);
+            if (order == null) {
+                continue;
+            }
+            // raise the order counter past it, so this instance does not reuse the id
+            Order.noteLoaded(order.getOrderId());
+            if (shiftOrderIndex(order.getOrderId()) < 0 && !orderHistory.contains(order.getOrderId())) {
+                otherOrders.put(order.getOrderId(), order);
+            }
+        }
+    }
+
+    private void mergeShiftOrders(ShiftType shift, List<String> changed) {
+        if (shift != currentShift) {
+            return;
+        }
+        int added = 0;
+        for (String line : changed) {
+            int orderId;
+            try {
+                orderId = Integer.parseInt(line.trim().substring("ORDER_ID=".length()));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                continue;
+            }
+            int index = shiftOrderIndex(orderId);
+            if (index >= 0) {
+                continue;
+            }
+            Order order = otherOrders.remove(orderId);
+            if (order == null) {
+                order = orderHistory.viewHeader(orderId, customers);
+            }
+            if (order == null) {
+                continue;
+            }
+            // the items go into the history with the order at the end of the shift
+            order.getItems().addAll(orderLineCache.getItems(orderId, inventory::peek));
+            orders.add(-index - 1, order);
+            added++;
+        }
+        if (added > 0) {
+            System.out.println("[INFO] Merged " + added + " orders made by another instance");
+            externalChange();
+        }
+    }
+
+    private void mergeInventory(List<String> changed, List<String> previous, Set<String> removed) {
+        int merged = 0;
+        Inventory.Batch batch = inventory.batch();
+        for (int i = 0; i < changed.size(); i++) {
+            Product saved = Inventory.parseLine(changed.get(i));
+            Product base = previous.get(i) != null ? Inventory.parseLine(previous.get(i)) : null;
+            if (saved != null && inventory.merge(batch, saved, base)) {
+                merged++;
+            }
+        }
+        for (String key : removed) {
+            try {
+                if (inventory.mergeRemoval(batch, Integer.parseInt(key))) {
+                    merged++;
+                }
+            } catch (NumberFormatException e) {
+                // not a product line
+            }
+        }
+        batch.publish();
+        if (merged > 0) {
+            System.out.println("[INFO] Merged " + merged + " product changes made by another instance");
+            externalChange();
+        }
+    }
+
+    /**
+     * Position of the order in the shift's orders, which are in id order,
+     * or -(insertion point) - 1. Recent orders are at the end.
+     */
+    private int shiftOrderIndex(int orderId) {
+        int i = orders.size() - 1;
+        while (i >= 0 && orders.get(i).getOrderId() > orderId) {
+            i--;
+        }
+        if (i >= 0 && orders.get(i).getOrderId() == orderId) {
+            return i;
+        }
+        return -(i + 1) - 1;
+    }
+
+    private void externalChange() {
+        Runnable listener = externalChangeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Ends the current shift: records its rollup and appends its summary,
+     * moves its orders into the history, archives the shift's order list
+     * and starts the next shift.
+     * Returns the new shift.
+     */
+    public ShiftType endShift(String cashier) {
+        lock.lock();
+        try {
+            ShiftType nextShift = currentShift.next();
+            PharmacyEvents.ShiftSwitch event = new PharmacyEvents.ShiftSwitch();
+            event.begin();
+            event.fromShift = currentShift.name();
+            event.toShift = nextShift.name();
+            event.orderCount = orders.size();
+            long start = System.nanoTime();
+            saveShiftSummary(cashier);
+
+            String archivedShiftFile = "archived_" + currentShift.getFileName() + "_"
+                    + DATE_FORMAT.format(shiftStartTime).replace(":", "-").replace(" ", "_") + "_orders.txt";
+            File currentFile = new File(shiftOrdersFile(currentShift));
+            if (currentFile.exists()) {
+                currentFile.renameTo(new File(DataFiles.path(archivedShiftFile)));
+                DataFiles.changed(DataFiles.path(archivedShiftFile), false);
+                DataFiles.changed(currentFile.getPath(), false);
+            }
+
+            currentShift = nextShift;
+            shiftStartTime = now();
+
+            loadCurrentShiftOrders(); // moves the ended shift's orders into the history, loads the new one's
+
+            saveShiftState();
+            saveCurrentShiftOrders();
+            SHIFT_SWITCH_TIMER.recordSince(start);
+            event.commit();
+
+            System.out.println("Switched to " + currentShift.getDisplayName() + " at: " + DATE_FORMAT.format(shiftStartTime));
+            return currentShift;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void saveShiftSummary(String cashier) {
+        ShiftRollup.Builder builder = new ShiftRollup.Builder(currentShift, shiftStartTime, cashier);
+        for (Order order : orders) {
+            builder.add(order, getOrderItems(order));
+        }
+        ShiftRollup rollup = builder.build(now());
+        if (rollups != null) {
+            rollups.append(rollup);
+        }
+
+        // the readable view of the rollup, with the shift's orders
+        try (PrintWriter printWriter = new PrintWriter(new FileWriter(DataFiles.path(SUMMARY_FILE), true))) {
+            printWriter.println("=== " + currentShift.getDisplayName().toUpperCase() + " SUMMARY ===");
+            printWriter.println("Start Time: " + Date.from(rollup.getStart()));
+            printWriter.println("End Time: " + Date.from(rollup.getEnd()));
+            printWriter.println("Total Orders: " + rollup.getOrderCount());
+            printWriter.println("Total Items Sold: " + rollup.getItemCount());
+            printWriter.println("Total Revenue: $" + String.format("%.2f", rollup.getRevenue()));
+            printWriter.println("Cashier: " + rollup.getCashier());
+            if (!rollup.getTopProducts().isEmpty()) {
+                StringBuilder top = new StringBuilder();
+                for (ShiftRollup.TopProduct p : rollup.getTopProducts()) {
+                    if (top.length() > 0) {
+                        top.append(", ");
+                    }
+                    top.append(p.getName()).append(" x ").append(p.getUnits());
+                }
+                printWriter.println("Top Products: " + top);
+            }
+            printWriter.println("Orders in this shift:");
+
+            for (Order order : orders) {
+                printWriter.println("  - Order #" + order.getOrderId()
+                        + " | Customer: " + order.getCustomer().getName()
+                        + " | Total: $" + String.format("%.2f", order.getTotalAmount()));
+            }
+
+            printWriter.println("=====================================");
+            printWriter.println(); // Empty line
+        } catch (IOException e) {
+            System.err.println("Error saving shift summary: " + e.getMessage());
+        }
+        DataFiles.changed(DataFiles.path(SUMMARY_FILE), true);
+    }
+
+    public ShiftType getCurrentShift() {
+        lock.lock();
+        try {
+            return currentShift;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Instant getShiftStartTime() {
+        lock.lock();
+        try {
+            return shiftStartTime;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Order> getShiftOrders() {
+        lock.lock();
+        try {
+            return new ArrayList<>(orders);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getShiftOrderCount() {
+        lock.lock();
+        try {
+            return orders.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Shift type, start time and order count read under one hold of the
+     * lock, so an end of shift in between cannot mix two shifts.
+     */
+    public ShiftStatus getShiftStatus() {
+        lock.lock();
+        try {
+            return new ShiftStatus(currentShift, shiftStartTime, orders.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Orders made in this session carry their items; history is served through the bounded cache
+    public List<OrderItem> getOrderItems(Order order) {
+        lock.lock();
+        try {
+            if (!order.getItems().isEmpty()) {
+                return order.getItems();
+            }
+            return orderLineCache.getItems(order.getOrderId(), inventory::peek);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ===================== Checkout =====================
+    /**
+     * Sells the given quantities (product id to quantity, in cart order) to
+     * a customer. Stock is checked for the whole order before anything is
+     * written, so a failed checkout leaves files and quantities untouched.
+     */
+    public Order checkout(int customerId, Map<Integer, Integer> quantities, String soldBy) {
+        lock.lock();
+        try {
+            Customer customer = requireCustomer(customerId);
+            Map<Product, Integer> lines = resolveLines(quantities);
+
+            PharmacyEvents.Checkout event = new PharmacyEvents.Checkout();
+            event.begin();
+            long start = System.nanoTime();
+            Order order = new Order(customer, soldBy);
+            for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+                order.addItem(line.getKey(), line.getValue());
+            }
+
+            order.completeOrder();
+            if (events.hasSubscribers()) {
+                events.publish(DomainEvent.orderCompleted(order));
+            }
+            orders.add(order);
+            saveCurrentShiftOrders();
+
+            takeStock(lines);
+            inventory.saveToFile();
+
+            CHECKOUT_TIMER.recordSince(start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.orderId = order.getOrderId();
+                event.lineCount = order.getItems().size();
+                event.commit();
+            }
+            return order;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * First half of a batch checkout: validates the order like
+     * {@link #checkout} and takes its stock in memory, but writes nothing.
+     * The order stays Pending until it is passed to {@link #commitOrders}.
+     */
+    Order reserveOrder(int customerId, Map<Integer, Integer> quantities, String soldBy) {
+        lock.lock();
+        try {
+            Customer customer = requireCustomer(customerId);
+            Map<Product, Integer> lines = resolveLines(quantities);
+            Order order = new Order(customer, soldBy);
+            for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+                order.addItem(line.getKey(), line.getValue());
+            }
+            takeStock(lines);
+            return order;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a group of reserved orders: one append to each order file, one
+     * write of the shift's order list and one inventory save for the whole
+     * group. Orders are written in id order. If the orders cannot be
+     * written their stock is put back and an IllegalStateException thrown.
+     */
+    void commitOrders(List<Order> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            List<Order> sorted = new ArrayList<>(group);
+            sorted.sort((a, b) -> Integer.compare(a.getOrderId(), b.getOrderId()));
+            try {
+                Order.completeOrders(sorted);
+            } catch (IOException e) {
+                returnStock(sorted);
+                inventory.saveToFile();
+                throw new IllegalStateException("Failed to save orders: " + e.getMessage(), e);
+            }
+            if (events.hasSubscribers()) {
+                for (Order order : sorted) {
+                    events.publish(DomainEvent.orderCompleted(order));
+                }
+            }
+            orders.addAll(sorted);
+            saveCurrentShiftOrders();
+            inventory.saveToFile();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Customer requireCustomer(int customerId) {
+        Customer customer = findCustomer(customerId);
+        if (customer == null) {
+            throw new IllegalArgumentException("Customer not found: " + customerId);
+        }
+        return customer;
+    }
+
+    private Map<Product, Integer> resolveLines(Map<Integer, Integer> quantities) {
+        if (quantities.isEmpty()) {
+            throw new IllegalArgumentException("Cart is empty!");
+        }
+        Map<Product, Integer> lines = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> e : quantities.entrySet()) {
+            Product product = inventory.getProductById(e.getKey());
+            if (product == null) {
+                throw new IllegalArgumentException("Product not found: " + e.getKey());
+            }
+            int quantity = e.getValue();
+            if (quantity <= 0) {
+                throw new IllegalArgumentException("Quantity must be positive for product: " + product.getName());
+            }
+            if (quantity > product.getQuantity()) {
+                throw new IllegalArgumentException(String.format("Not enough stock for %s! Available: %d, Requesting: %d",
+                        product.getName(), product.getQuantity(), quantity));
+            }
+            lines.put(product, quantity);
+        }
+        return lines;
+    }
+
+    private void takeStock(Map<Product, Integer> lines) {
+        Inventory.Batch batch = inventory.batch();
+        for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+            Product product = batch.setQuantity(line.getKey(), line.getKey().getQuantity() - line.getValue());
+            batch.recordMovement(product.getProductId(), -line.getValue(), product.getQuantity(),
+                    StockLedger.Reason.SALE);
+        }
+        batch.publish();
+    }
+
+    // gives back the stock reserveOrder took for orders that were never written
+    private void returnStock(List<Order> group) {
+        Inventory.Batch batch = inventory.batch();
+        for (Order order : group) {
+            for (OrderItem item : order.getItems()) {
+                Product current = batch.find(item.getProduct().getProductId());
+                if (current == null) {
+                    continue; // removed since
+                }
+                Product product = batch.setQuantity(current, current.getQuantity() + item.getQuantity());
+                batch.recordMovement(product.getProductId(), item.getQuantity(), product.getQuantity(),
+                        StockLedger.Reason.ADJUST);
+            }
+        }
+        batch.publish();
+    }
+
+    // ===================== Transfers =====================
+    public String getBranch() {
+        return FederatedInventory.localBranch();
+    }
+
+    /**
+     * Reserves stock for transfers to other branches, all in one batch; see
+     * {@link Transfers}. A request whose reference was already reserved
+     * returns that transfer.
+     */
+    public List<Transfer> reserveTransfers(List<Transfer.Request> requests) {
+        lock.lock();
+        try {
+            return requireTransfers().reserve(requests);
+        } catch (IOException e) {
+            throw transferFailed(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Transfer> shipTransfers(List<Long> ids) {
+        lock.lock();
+        try {
+            return requireTransfers().ship(ids);
+        } catch (IOException e) {
+            throw transferFailed(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Transfer> cancelTransfers(List<Long> ids) {
+        lock.lock();
+        try {
+            return requireTransfers().cancel(ids);
+        } catch (IOException e) {
+            throw transferFailed(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Receives everything the branch has shipped here and this branch has
+     * not received yet. Returns the transfers received now.
+     */
+    public List<Transfer> receiveTransfers(String fromBranch) {
+        requireTransfers();
+        String location = branches.getLocation(fromBranch);
+        if (location == null) {
+            throw new IllegalArgumentException("Unknown branch: " + fromBranch);
+        }
+        List<Transfer> shipped;
+        try {
+            shipped = Transfers.fetchShipped(location, getBranch());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read transfers from " + fromBranch + ": " + e.getMessage());
+        }
+        lock.lock();
+        try {
+            return transfers.receive(shipped);
+        } catch (IOException e) {
+            throw transferFailed(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Transfer> getTransfers() {
+        lock.lock();
+        try {
+            return requireTransfers().getOutgoing();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Transfer> getReceivedTransfers() {
+        lock.lock();
+        try {
+            return requireTransfers().getReceived();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    byte[] getShippedTransfersJournal(String to) {
+        lock.lock();
+        try {
+            return requireTransfers().shippedJournal(to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Transfers requireTransfers() {
+        if (transfers == null) {
+            throw new IllegalStateException("Transfers are not available, the transfer journal could not be opened");
+        }
+        return transfers;
+    }
+
+    private static IllegalStateException transferFailed(IOException e) {
+        return new IllegalStateException("Failed to write the transfer journal: " + e.getMessage());
+    }
+
+    // ===================== Stock history =====================
+    /**
+     * Quantity of a product at a past moment, from the stock ledger. -1 if
+     * the moment is before the ledger was started.
+     */
+    public int getStockAt(int productId, Instant time) {
+        lock.lock();
+        try {
+            requireLedger();
+            return ledger.stockAt(productId, time);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Quantities of all products at a past moment, by product id. Products
+     * that had been deleted or renumbered away by then show 0.
+     */
+    public Map<Integer, Integer> getStockAt(Instant time) {
+        lock.lock();
+        try {
+            requireLedger();
+            return ledger.stockAt(time);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Products whose quantity differs from the stock derived from the
+     * ledger, as id to {inventory, ledger}. Empty when the two agree.
+     */
+    public Map<Integer, int[]> verifyStock() {
+        lock.lock();
+        try {
+            requireLedger();
+            ledger.flush(); // takes in what other instances recorded
+            Map<Integer, Integer> derived = ledger.currentStock();
+            Map<Integer, int[]> mismatches = new LinkedHashMap<>();
+            for (Product p : inventory.getProducts()) {
+                Integer qty = derived.remove(p.getProductId());
+                int ledgerQty = qty != null ? qty : 0;
+                if (ledgerQty != p.getQuantity()) {
+                    mismatches.put(p.getProductId(), new int[] {p.getQuantity(), ledgerQty});
+                }
+            }
+            for (Map.Entry<Integer, Integer> e : derived.entrySet()) {
+                if (e.getValue() != 0) {
+                    mismatches.put(e.getKey(), new int[] {0, e.getValue()});
+                }
+            }
+            return mismatches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void requireLedger() {
+        if (ledger == null) {
+            throw new IllegalStateException("Stock history is not available");
+        }
+    }
+
+    // ===================== Shift history =====================
+    /**
+     * Rollups of the shifts that ended at or after from and before to,
+     * oldest first.
+     */
+    public List<ShiftRollup> getShiftRollups(Instant from, Instant to) {
+        lock.lock();
+        try {
+            if (rollups == null) {
+                throw new IllegalStateException("Shift history is not available");
+            }
+            return rollups.between(from, to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ===================== Events =====================
+    /**
+     * Publisher of completed orders, stock changes, product edits and new
+     * customers. Events are published in the order the changes are made,
+     * after the change is in memory; a subscriber can never hold up the
+     * operation beyond its overflow policy, see {@link EventBus}.
+     */
+    public EventBus getEvents() {
+        return events;
+    }
+
+    // ===================== Products =====================
+    /**
+     * Immutable snapshot of the products; lock-free, see {@link Inventory#getProducts()}.
+     */
+    public List<Product> getProducts() {
+        return inventory.getProducts();
+    }
+
+    public Product getProduct(int productId) {
+        lock.lock();
+        try {
+            return inventory.getProductById(productId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getProductCount() {
+        return inventory.getProducts().size();
+    }
+
+    public int getLowStockCount() {
+        int count = 0;
+        for (Product p : inventory.getProducts()) {
+            if (p.getQuantity() < LOW_STOCK) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stock of every product whose name contains name, at this branch and
+     * at the branches in branches.txt. Does not take the service lock.
+     */
+    public FederatedInventory.Lookup findAtBranches(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Please enter a product name");
+        }
+        return branches.find(name);
+    }
+
+    /**
+     * Adds a Medicine or a Cosmetic under the next free id. A cosmetic
+     * without a skin type is suitable for "All".
+     */
+    public Product addProduct(String type, String name, double price, int quantity,
+            boolean prescriptionRequired, String skinType) {
+        lock.lock();
+        try {
+            validateProduct(name, price, quantity);
+            int newId = getNextProductId();
+            Product product;
+            if ("Medicine".equals(type)) {
+                product = new Medicine(prescriptionRequired, newId, name, price, quantity);
+            } else if ("Cosmetic".equals(type)) {
+                product = new Cosmetic(skinTypeOrAll(skinType), newId, name, price, quantity);
+            } else {
+                throw new IllegalArgumentException("Unknown product type: " + type);
+            }
+            inventory.addProduct(product);
+            if (events.hasSubscribers()) {
+                events.publish(DomainEvent.productUpdated(product));
+            }
+            return product;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A detached copy of a product, stamp included, for an editor to fill
+     * its form from and later pass to
+     * {@link #updateProduct(Product, String, String, double, int, boolean, String)}.
+     * Null if there is no such product.
+     */
+    public Product getProductCopy(int productId) {
+        lock.lock();
+        try {
+            Product p = inventory.getProductById(productId);
+            return p != null ? p.copy() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Compare-and-set update: applies the edit only if the product still
+     * has the stamp of the copy it was loaded from (see
+     * {@link #getProductCopy}). Otherwise nothing is written and a
+     * {@link ProductConflictException} lists the fields that changed since.
+     * Editors hold no lock while the user types; a sale, restock or another
+     * editor's save in the meantime is a conflict.
+     */
+    public Product updateProduct(Product loaded, String type, String name, double price, int quantity,
+            boolean prescriptionRequired, String skinType) {
+        lock.lock();
+        try {
+            validateProduct(name, price, quantity);
+            Product product = inventory.getProductById(loaded.getProductId());
+            if (product == null) {
+                throw new IllegalArgumentException("Product not found in inventory!");
+            }
+            if (product.getVersion() != loaded.getVersion()) {
+                String special = "Medicine".equals(type) ? String.valueOf(prescriptionRequired) : skinTypeOrAll(skinType);
+                CONFLICTS.increment();
+                throw new ProductConflictException(loaded, product.copy(),
+                        ProductConflictException.diff(loaded, product, name, price, quantity, special));
+            }
+            return applyUpdate(product, type, name, price, quantity, prescriptionRequired, skinType);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Product applyUpdate(Product product, String type, String name, double price, int quantity,
+            boolean prescriptionRequired, String skinType) {
+        int productId = product.getProductId();
+        boolean typeMatches = ("Medicine".equals(type) && product instanceof Medicine)
+                || ("Cosmetic".equals(type) && product instanceof Cosmetic);
+        if (!typeMatches) {
+            throw new IllegalArgumentException("Cannot change product type from "
+                    + product.getClass().getSimpleName() + " to " + type);
+        }
+
+        Product updated = product.copy();
+        updated.setName(name);
+        updated.setPrice(price);
+        updated.setQuantity(quantity);
+        if (updated instanceof Medicine) {
+            ((Medicine) updated).setPrescriptionRequired(prescriptionRequired);
+        } else {
+            ((Cosmetic) updated).setSuitableForSkinType(skinTypeOrAll(skinType));
+        }
+        updated.markChanged();
+        Inventory.Batch batch = inventory.batch();
+        batch.replace(product, updated);
+        batch.recordMovement(productId, quantity - product.getQuantity(), quantity, StockLedger.Reason.ADJUST);
+        batch.publish();
+        if (events.hasSubscribers()) {
+            events.publish(DomainEvent.productUpdated(updated));
+        }
+        inventory.saveToFile();
+        System.out.println("Product updated successfully: ID=" + productId + ", Name=" + name);
+        return updated;
+    }
+
+    /**
+     * Removes a product and renumbers the rest so ids stay sequential.
+     * Returns false if there was nothing to remove.
+     */
+    public boolean deleteProduct(int productId) {
+        lock.lock();
+        try {
+            Inventory.Batch batch = inventory.batch();
+            if (!inventory.removeProduct(batch, productId)) {
+                return false;
+            }
+            List<Product> renumbered = new ArrayList<>();
+            int newId = 1;
+            // catalog ids are fixed; only a heap inventory is renumbered
+            for (int i = 0; i < batch.size() && !inventory.isCatalogMode(); i++) {
+                Product p = batch.get(i);
+                if (p.getProductId() != newId) {
+                    // the stock moves with the product: out of the old id, into the new one
+                    batch.recordMovement(p.getProductId(), -p.getQuantity(), 0, StockLedger.Reason.RENUMBER);
+                    batch.recordMovement(newId, p.getQuantity(), p.getQuantity(), StockLedger.Reason.RENUMBER);
+                    Product moved = p.copy();
+                    moved.setProductId(newId);
+                    moved.markChanged();
+                    batch.replace(p, moved);
+                    renumbered.add(moved);
+                }
+                newId++;
+            }
+            batch.publish();
+            if (events.hasSubscribers()) {
+                for (Product p : renumbered) {
+                    events.publish(DomainEvent.productUpdated(p));
+                }
+            }
+            inventory.saveToFile();
+            System.out.println("Product deleted and IDs reindexed.");
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int getNextProductId() {
+        return inventory.getMaxProductId() + 1;
+    }
+
+    private static void validateProduct(String name, double price, int quantity) {
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Please enter product name!");
+        }
+        if (price <= 0) {
+            throw new IllegalArgumentException("Price must be greater than zero!");
+        }
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Quantity cannot be negative!");
+        }
+    }
+
+    private static String skinTypeOrAll(String skinType) {
+        return (skinType == null || skinType.trim().isEmpty()) ? "All" : skinType.trim();
+    }
+
+    // ===================== Customers =====================
+    public List<Customer> getCustomers() {
+        lock.lock();
+        try {
+            return new ArrayList<>(customers);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCustomerCount() {
+        lock.lock();
+        try {
+            return customers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Customer getCustomer(int customerId) {
+        lock.lock();
+        try {
+            return findCustomer(customerId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Customer addCustomer(String name, String phone) {
+        lock.lock();
+        try {
+            if (name == null || name.trim().isEmpty() || phone == null || phone.trim().isEmpty()) {
+                throw new IllegalArgumentException("Please enter both name and phone!");
+            }
+            Customer customer = new Customer(name.trim(), phone.trim());
+            customers.add(customer);
+            if (events.hasSubscribers()) {
+                events.publish(DomainEvent.customerAdded(customer));
+            }
+            customer.saveToFile(DataFiles.path(CUSTOMERS_FILE));
+            return customer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Customer findCustomer(int customerId) {
+        for (Customer c : customers) {
+            if (c.getCustomerid() == customerId) {
+                return c;
+            }
+        }
+        return null;
+    }
+}
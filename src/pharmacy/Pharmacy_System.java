@@ -4,55 +4,441 @@
  */
 package pharmacy;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
+ * Console client over {@link PharmacyService}. Reads menu choices from
+ * standard input, so it can also be driven by piping a script into it.
  *
  * @author Farida
  */
 public class Pharmacy_System {
 
+    private static final TimestampCodec DATE_FORMAT = TimestampCodec.system();
+
+    private final PharmacyService service;
+    private final Scanner scanner;
+    private Login currentLogin;
+
+    Pharmacy_System(PharmacyService service, Scanner scanner) {
+        this.service = service;
+        this.scanner = scanner;
+    }
+
     /**
+     * With no arguments runs the interactive console. With
+     * --batch orders.jsonl [results.jsonl] checks out the queued orders in
+     * the file instead, see {@link BatchIngest}. With --transfers plan.csv
+     * reserves and ships the transfers in the plan, one line per product:
+     * reference,toBranch,productId,quantity; lines with the same reference
+     * form one transfer, and running a plan again does nothing new. With
+     * --receive Branch receives what that branch has shipped here. With
+     * --shifts [days] lists the shifts that ended in the last days (default
+     * 30) and the revenue by cashier.
+     *
      * @param args the command line arguments
      */
-    public static void main(String[] args) {
-
- Scanner scanner = new Scanner(System.in);
-//
-//        System.out.println("=== Pharmacy Login System ===");
-//
-//        System.out.print("Enter username: ");
-//        String username = scanner.nextLine();
-//
-//        System.out.print("Enter password: ");
-//        String password = scanner.nextLine();
-//
-//        Login login = new Login(username, password);
-//
-//        if (login.login()) {
-//            System.out.println("Welcome, " + login.getUsername() + "!");
-//            System.out.print("Do you want to logout? (y/n): ");
-//            String choice = scanner.nextLine();
-//            if (choice.equalsIgnoreCase("y")) {
-//                login.logout();
-//            }
-//        } else {
-//            System.out.println("Access denied.");
-//        }
-//
-//        scanner.close();
-//        Customer customer = new Customer("Farida", "01012345678");
-//        Customer customer2 = new Customer("Haneen", "01012345678");
-//        Customer customer3 = new Customer("Ahmed", "01012345678");
-//
-//        customer3.getCustomerinfo();
-////
-////        customer.saveToFile("customers.txt");
-////        customer2.saveToFile("customers.txt");
-//        customer3.saveToFile("customers.txt");
-//
-//        System.out.println("Customer data saved to file.");
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            if (args.length < 2) {
+                System.err.println("Usage: Pharmacy_System --batch orders.jsonl [results.jsonl]");
+                System.exit(2);
+            }
+            runBatch(Paths.get(args[1]), args.length > 2 ? Paths.get(args[2]) : Paths.get(args[1] + ".results"));
+            return;
+        }
+        if (args.length > 0 && (args[0].equals("--transfers") || args[0].equals("--receive"))) {
+            if (args.length < 2) {
+                System.err.println("Usage: Pharmacy_System --transfers plan.csv | --receive Branch");
+                System.exit(2);
+            }
+            runTransfers(args[0], args[1]);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--shifts")) {
+            if (args.length > 1 && !args[1].matches("\\d{1,5}")) {
+                System.err.println("Usage: Pharmacy_System --shifts [days]");
+                System.exit(2);
+            }
+            runShifts(args.length > 1 ? Integer.parseInt(args[1]) : 30);
+            return;
+        }
+        Scanner scanner = new Scanner(System.in);
+        PharmacyService service = new PharmacyService();
+        Metrics.startLog();
+        FlightRecording.init();
+
+        new Pharmacy_System(service, scanner).run();
+
+        service.close();
+        scanner.close();
+    }
+
+    private static void runBatch(Path input, Path results) throws IOException {
+        PharmacyService service = new PharmacyService();
+        BatchIngest batch = BatchIngest.fromSystemProperties(service);
+        batch.run(input, results);
+        service.close();
+        Log.flush();
+        System.out.println("Batch " + input + ": " + batch.getAccepted() + " orders accepted, "
+                + batch.getRejected() + " rejected. Results in " + results);
+    }
+
+    private static void runTransfers(String mode, String arg) throws IOException {
+        PharmacyService service = new PharmacyService();
+        try {
+            if (mode.equals("--receive")) {
+                List<Transfer> received = service.receiveTransfers(arg);
+                int units = 0;
+                for (Transfer t : received) {
+                    units += t.getUnits();
+                }
+                System.out.println("Received " + received.size() + " transfers (" + units + " units) from " + arg);
+                return;
+            }
+            Map<String, Transfer.Request> requests = new LinkedHashMap<>();
+            int lineNo = 0;
+            for (String line : Files.readAllLines(Paths.get(arg))) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split(",");
+                if (parts.length != 4) {
+                    throw new IllegalArgumentException("Line " + lineNo + ": expected reference,toBranch,productId,quantity");
+                }
+                requests.computeIfAbsent(parts[0].trim(), ref -> new Transfer.Request(ref, parts[1].trim()))
+                        .add(Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+            }
+            List<Transfer> reserved = service.reserveTransfers(new ArrayList<>(requests.values()));
+            List<Long> ids = new ArrayList<>(reserved.size());
+            int units = 0;
+            for (Transfer t : reserved) {
+                ids.add(t.getId());
+                units += t.getUnits();
+            }
+            service.shipTransfers(ids);
+            System.out.println("Shipped " + reserved.size() + " transfers (" + units + " units) from " + arg);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("[ERR] " + e.getMessage());
+        } finally {
+            service.close();
+            Log.flush();
+        }
+    }
+
+    private static void runShifts(int days) {
+        PharmacyService service = new PharmacyService();
+        try {
+            Instant to = Instant.now();
+            List<ShiftRollup> shifts = service.getShiftRollups(to.minus(Duration.ofDays(days)), to);
+            System.out.println("Shifts ended in the last " + days + " days: " + shifts.size());
+            Map<String, Double> byCashier = new LinkedHashMap<>();
+            for (ShiftRollup s : shifts) {
+                String name = s.getShiftType() != null ? s.getShiftType().getDisplayName() : "Shift";
+                StringBuilder top = new StringBuilder();
+                for (ShiftRollup.TopProduct p : s.getTopProducts()) {
+                    top.append(top.length() > 0 ? ", " : "  top: ").append(p.getName()).append(" x ").append(p.getUnits());
+                }
+                System.out.printf("  %s - %s  %-13s  %-12s %4d orders %5d items %10s%s%n",
+                        DATE_FORMAT.format(s.getStart()), DATE_FORMAT.format(s.getEnd()), name, s.getCashier(),
+                        s.getOrderCount(), s.getItemCount(), String.format("$%.2f", s.getRevenue()), top);
+                byCashier.merge(s.getCashier(), s.getRevenue(), Double::sum);
+            }
+            System.out.println("Revenue by cashier:");
+            for (Map.Entry<String, Double> e : byCashier.entrySet()) {
+                System.out.printf("  %-12s %10s%n", e.getKey(), String.format("$%.2f", e.getValue()));
+            }
+        } catch (IllegalStateException e) {
+            System.out.println("[ERR] " + e.getMessage());
+        } finally {
+            service.close();
+            Log.flush();
+        }
+    }
+
+    void run() {
+        System.out.println("=== Pharmacy Login System ===");
+        while (currentLogin == null) {
+            String username = prompt("Enter username: ");
+            if (username == null) {
+                return;
+            }
+            String password = prompt("Enter password: ");
+            if (password == null) {
+                return;
+            }
+            if (service.authenticate(username, password)) {
+                service.resumeShift();
+                currentLogin = new Login(username, password);
+                currentLogin.login();
+            } else {
+                System.out.println("Invalid username or password!");
+            }
+        }
+
+        while (currentLogin != null) {
+            System.out.println();
+            System.out.println("=== " + service.getCurrentShift().getDisplayName() + " - " + currentLogin.getUsername() + " ===");
+            System.out.println("1. List products");
+            System.out.println("2. List customers");
+            System.out.println("3. Add customer");
+            System.out.println("4. Add product");
+            System.out.println("5. Checkout");
+            System.out.println("6. Shift orders");
+            System.out.println("7. End shift");
+            System.out.println("8. Stock history");
+            System.out.println("9. Find at branches");
+            System.out.println("10. Transfers");
+            System.out.println("0. Logout");
+            String choice = prompt("Choice: ");
+            if (choice == null) {
+                logout();
+                return;
+            }
+            try {
+                switch (choice) {
+                    case "1":
+                        listProducts();
+                        break;
+                    case "2":
+                        listCustomers();
+                        break;
+                    case "3":
+                        addCustomer();
+                        break;
+                    case "4":
+                        addProduct();
+                        break;
+                    case "5":
+                        checkout();
+                        break;
+                    case "6":
+                        listShiftOrders();
+                        break;
+                    case "7":
+                        endShift();
+                        break;
+                    case "8":
+                        stockHistory();
+                        break;
+                    case "9":
+                        findAtBranches();
+                        break;
+                    case "10":
+                        transfers();
+                        break;
+                    case "0":
+                        logout();
+                        break;
+                    default:
+                        System.out.println("Unknown choice: " + choice);
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Please enter a valid number!");
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private String prompt(String label) {
+        System.out.print(label);
+        if (!scanner.hasNextLine()) {
+            System.out.println();
+            return null;
+        }
+        return scanner.nextLine().trim();
+    }
+
+    private String require(String label) {
+        String value = prompt(label);
+        if (value == null) {
+            throw new IllegalStateException("Input ended");
+        }
+        return value;
+    }
 
+    private void listProducts() {
+        System.out.printf("%-5s %-25s %-10s %10s %6s  %s%n", "ID", "Name", "Type", "Price", "Qty", "Special");
+        for (Product p : service.getProducts()) {
+            String special;
+            if (p instanceof Medicine) {
+                special = ((Medicine) p).isPrescriptionRequired() ? "Prescription Required" : "OTC";
+            } else if (p instanceof Cosmetic) {
+                special = "Skin: " + ((Cosmetic) p).getSuitableForSkinType();
+            } else {
+                special = "N/A";
+            }
+            System.out.printf("%-5d %-25s %-10s %10s %6d  %s%n", p.getProductId(), p.getName(),
+                    p.getClass().getSimpleName(), String.format("$%.2f", p.getPrice()), p.getQuantity(), special);
+        }
+        System.out.println("Low stock items: " + service.getLowStockCount());
     }
 
+    private void listCustomers() {
+        for (Customer c : service.getCustomers()) {
+            System.out.printf("%-5d %-25s %s%n", c.getCustomerid(), c.getName(), c.getPhone());
+        }
+    }
+
+    private void addCustomer() {
+        String name = require("Name: ");
+        String phone = require("Phone: ");
+        Customer customer = service.addCustomer(name, phone);
+        System.out.println("Customer added with ID " + customer.getCustomerid());
+    }
+
+    private void addProduct() {
+        String type = require("Type (Medicine/Cosmetic): ");
+        String name = require("Name: ");
+        double price = Double.parseDouble(require("Price: "));
+        int quantity = Integer.parseInt(require("Quantity: "));
+        boolean prescriptionRequired = false;
+        String skinType = "";
+        if ("Medicine".equalsIgnoreCase(type)) {
+            type = "Medicine";
+            prescriptionRequired = require("Prescription required (y/n): ").equalsIgnoreCase("y");
+        } else if ("Cosmetic".equalsIgnoreCase(type)) {
+            type = "Cosmetic";
+            skinType = require("Skin type: ");
+        }
+        Product product = service.addProduct(type, name, price, quantity, prescriptionRequired, skinType);
+        System.out.println("Product added with ID " + product.getProductId());
+    }
+
+    private void checkout() {
+        int customerId = Integer.parseInt(require("Customer ID: "));
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        System.out.println("Enter items as <product id> <quantity>, empty line to finish");
+        String line;
+        while (!(line = require("Item: ")).isEmpty()) {
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                System.out.println("Expected <product id> <quantity>");
+                continue;
+            }
+            quantities.merge(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer::sum);
+        }
+        Order order = service.checkout(customerId, quantities, currentLogin.getUsername());
+        System.out.printf("Order processed successfully! Order ID: %d, Total: $%.2f%n",
+                order.getOrderId(), order.getTotalAmount());
+    }
+
+    private void listShiftOrders() {
+        List<Order> orders = service.getShiftOrders();
+        for (Order o : orders) {
+            System.out.printf("#%-6d %-20s %s %10s  %s%n", o.getOrderId(), o.getCustomer().getName(),
+                    DATE_FORMAT.format(o.getOrderDate()), String.format("$%.2f", o.getTotalAmount()), o.getSoldBy());
+            for (OrderItem item : service.getOrderItems(o)) {
+                System.out.printf("        %s x%d%n", item.getProduct().getName(), item.getQuantity());
+            }
+        }
+        System.out.println(orders.size() + " orders in " + service.getCurrentShift().getDisplayName());
+    }
+
+    private void stockHistory() {
+        int productId = Integer.parseInt(require("Product ID: "));
+        String when = require("At (yyyy-MM-dd HH:mm:ss): ");
+        Instant at;
+        try {
+            // the whole second the user typed, as listed in the shift orders
+            at = DATE_FORMAT.parseInstant(when).plusMillis(999);
+        } catch (DateTimeParseException e) {
+            System.out.println("Please enter a time as yyyy-MM-dd HH:mm:ss");
+            return;
+        }
+        int quantity = service.getStockAt(productId, at);
+        if (quantity < 0) {
+            System.out.println("No stock history before the ledger was started");
+        } else {
+            System.out.println("Stock of product " + productId + " at " + when + ": " + quantity);
+        }
+    }
+
+    private void findAtBranches() {
+        FederatedInventory.Lookup lookup = service.findAtBranches(require("Product name: "));
+        if (lookup.getMatches().isEmpty()) {
+            System.out.println("No branch has a matching product");
+        } else {
+            System.out.printf("%-20s %-5s %-25s %10s %6s%n", "Branch", "ID", "Name", "Price", "Qty");
+            for (FederatedInventory.BranchStock b : lookup.getMatches()) {
+                System.out.printf("%-20s %-5d %-25s %10s %6d%s%n", b.getBranch(), b.getProductId(), b.getName(),
+                        String.format("$%.2f", b.getPrice()), b.getQuantity(), b.isStale() ? "  (last known)" : "");
+            }
+            System.out.println("Total available: " + lookup.getTotalQuantity());
+        }
+        for (String branch : lookup.getUnavailable()) {
+            System.out.println("[WARN] Could not reach " + branch);
+        }
+    }
+
+    private void transfers() {
+        System.out.println("1. List  2. New transfer  3. Ship  4. Cancel  5. Receive from branch");
+        switch (require("Choice: ")) {
+            case "1":
+                for (Transfer t : service.getTransfers()) {
+                    System.out.println(t);
+                }
+                for (Transfer t : service.getReceivedTransfers()) {
+                    System.out.println(t);
+                }
+                break;
+            case "2": {
+                Transfer.Request request = new Transfer.Request(
+                        currentLogin.getUsername() + "-" + System.currentTimeMillis(), require("To branch: "));
+                do {
+                    request.add(Integer.parseInt(require("Product ID: ")), Integer.parseInt(require("Quantity: ")));
+                } while (require("Add another product? (y/n): ").equalsIgnoreCase("y"));
+                System.out.println("Reserved " + service.reserveTransfers(List.of(request)).get(0));
+                break;
+            }
+            case "3":
+                long shipId = Long.parseLong(require("Transfer ID: "));
+                System.out.println("Shipped " + service.shipTransfers(List.of(shipId)).get(0));
+                break;
+            case "4":
+                long cancelId = Long.parseLong(require("Transfer ID: "));
+                System.out.println("Cancelled " + service.cancelTransfers(List.of(cancelId)).get(0));
+                break;
+            case "5": {
+                List<Transfer> received = service.receiveTransfers(require("From branch: "));
+                System.out.println(received.isEmpty() ? "Nothing to receive" : "Received:");
+                for (Transfer t : received) {
+                    System.out.println(t);
+                }
+                break;
+            }
+            default:
+                System.out.println("Unknown choice");
+        }
+    }
+
+    private void endShift() {
+        String answer = require("End " + service.getCurrentShift().getDisplayName() + "? (y/n): ");
+        if (!answer.equalsIgnoreCase("y")) {
+            return;
+        }
+        ShiftType next = service.endShift(currentLogin.getUsername());
+        System.out.println("Shift switched to " + next.getDisplayName() + ". Please log in again for the new shift");
+        logout();
+    }
+
+    private void logout() {
+        service.saveState();
+        currentLogin.logout();
+        currentLogin = null;
+    }
 }
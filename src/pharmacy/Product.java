@@ -12,6 +12,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -23,6 +24,11 @@ public class Product {
     protected double price;
     protected int quantity;
     private static final String FILE_NAME = "products.txt";
+    private static final Log LOG = Log.get(Product.class);
+    // one counter for all products, so a stamp is never reused, not even by
+    // another product that is later renumbered into the same id
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    protected long version;
     
     // added default constructor to make an easy to invoke wout args
     public Product() {}
@@ -78,6 +84,33 @@ public class Product {
         this.quantity = quantity;
     }
     
+    /**
+     * Change stamp of this product, for compare-and-set updates. Changes
+     * made through {@link Inventory} and {@link PharmacyService} take a new
+     * stamp; 0 means unchanged since the stamps were introduced.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
+        VERSIONS.accumulateAndGet(version, Math::max);
+    }
+
+    void markChanged() {
+        version = VERSIONS.incrementAndGet();
+    }
+
+    /**
+     * Detached copy, stamp included, to compare against later.
+     */
+    public Product copy() {
+        Product p = new Product(productId, name, price, quantity);
+        p.version = version;
+        return p;
+    }
+
     public boolean isAvailable(int qty){
         return quantity >= qty;
     }
@@ -85,9 +118,9 @@ public class Product {
     public void reduceQuantity(int qty){
         if (isAvailable(qty)) {
             quantity -= qty;
-            System.out.println("[INFO]\n" + name + " quantity reduced by " + qty + ". Remaining: " + quantity);
+            LOG.info("quantity.reduced", "product", name, "by", qty, "remaining", quantity);
         } else {
-            System.out.println("[WARNING] Not enough stock for product: " + name);
+            LOG.warn("stock.insufficient", "product", name, "requested", qty, "available", quantity);
         }
     }
     
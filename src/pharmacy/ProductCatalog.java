@@ -0,0 +1,253 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Read-only product catalog stored as fixed-width binary records and mapped
+ * into memory with {@link FileChannel#map}. Opening the catalog costs one
+ * mmap call; records are only decoded when they are read.
+ *
+ * Layout: a 16 byte header (magic, version, record count, record size)
+ * followed by records sorted by product id:
+ * <pre>
+ *   int id | double price | int quantity | byte type | byte prescription
+ *   | byte nameLength | byte specialLength | name[76] | special[32]
+ * </pre>
+ *
+ * @author elkhedewy-group
+ */
+public class ProductCatalog {
+    private static final int MAGIC = 0x50484354; // "PHCT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 128;
+    private static final int NAME_SIZE = 76;
+    private static final int SPECIAL_SIZE = 32;
+
+    private static final byte TYPE_PRODUCT = 0;
+    private static final byte TYPE_MEDICINE = 1;
+    private static final byte TYPE_COSMETIC = 2;
+
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    private ProductCatalog(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != RECORD_SIZE) {
+            throw new IllegalArgumentException("Not a product catalog file");
+        }
+        this.count = buffer.getInt(8);
+    }
+
+    public static ProductCatalog open(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new ProductCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the given products as a catalog file, sorted by product id.
+     */
+    public static void write(List<Product> products, String fileName) throws IOException {
+        List<Product> sorted = new ArrayList<>(products);
+        sorted.sort((a, b) -> Integer.compare(a.getProductId(), b.getProductId()));
+
+        Path path = Paths.get(fileName);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(sorted.size()).putInt(RECORD_SIZE).flip();
+            channel.write(header);
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE * 512);
+            for (Product p : sorted) {
+                if (!record.hasRemaining()) {
+                    record.flip();
+                    channel.write(record);
+                    record.clear();
+                }
+                byte type = TYPE_PRODUCT;
+                boolean prescription = false;
+                String special = "";
+                if (p instanceof Medicine) {
+                    type = TYPE_MEDICINE;
+                    prescription = ((Medicine) p).isPrescriptionRequired();
+                } else if (p instanceof Cosmetic) {
+                    type = TYPE_COSMETIC;
+                    special = ((Cosmetic) p).getSuitableForSkinType();
+                }
+                byte[] name = encode(p.getName(), NAME_SIZE);
+                byte[] spec = encode(special, SPECIAL_SIZE);
+
+                int start = record.position();
+                record.putInt(p.getProductId())
+                        .putDouble(p.getPrice())
+                        .putInt(p.getQuantity())
+                        .put(type)
+                        .put((byte) (prescription ? 1 : 0))
+                        .put((byte) name.length)
+                        .put((byte) spec.length)
+                        .put(name);
+                record.position(start + 20 + NAME_SIZE);
+                record.put(spec);
+                record.position(start + RECORD_SIZE);
+            }
+            record.flip();
+            channel.write(record);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int idAt(int index) {
+        return buffer.getInt(offset(index));
+    }
+
+    /**
+     * Record index of the given product id, or -1 if it is not in the catalog.
+     */
+    public int find(int productId) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int id = idAt(mid);
+            if (id < productId) {
+                low = mid + 1;
+            } else if (id > productId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes a record into a new heap product.
+     */
+    public Product materialize(int index) {
+        View view = new View();
+        view.moveTo(index);
+        switch (view.getType()) {
+            case TYPE_MEDICINE:
+                return new Medicine(view.isPrescriptionRequired(), view.getProductId(), view.getName(),
+                        view.getPrice(), view.getQuantity());
+            case TYPE_COSMETIC:
+                return new Cosmetic(view.getSpecial(), view.getProductId(), view.getName(),
+                        view.getPrice(), view.getQuantity());
+            default:
+                return new Product(view.getProductId(), view.getName(), view.getPrice(), view.getQuantity());
+        }
+    }
+
+    /**
+     * Visits every record through a single reused flyweight.
+     */
+    public void forEach(Consumer<View> action) {
+        View view = new View();
+        for (int i = 0; i < count; i++) {
+            view.moveTo(i);
+            action.accept(view);
+        }
+    }
+
+    public View cursor() {
+        return new View();
+    }
+
+    /**
+     * Flyweight over one catalog record. Fields are read straight from the
+     * mapped buffer, so a view must not be kept after it was moved.
+     */
+    public class View {
+        private int base;
+
+        public View moveTo(int index) {
+            base = offset(index);
+            return this;
+        }
+
+        public int getProductId() {
+            return buffer.getInt(base);
+        }
+
+        public double getPrice() {
+            return buffer.getDouble(base + 4);
+        }
+
+        public int getQuantity() {
+            return buffer.getInt(base + 12);
+        }
+
+        byte getType() {
+            return buffer.get(base + 16);
+        }
+
+        public boolean isMedicine() {
+            return getType() == TYPE_MEDICINE;
+        }
+
+        public boolean isCosmetic() {
+            return getType() == TYPE_COSMETIC;
+        }
+
+        public boolean isPrescriptionRequired() {
+            return buffer.get(base + 17) != 0;
+        }
+
+        public String getName() {
+            return decode(base + 20, buffer.get(base + 18) & 0xFF);
+        }
+
+        public String getSpecial() {
+            return decode(base + 20 + NAME_SIZE, buffer.get(base + 19) & 0xFF);
+        }
+    }
+
+    private int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    private String decode(int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(String value, int maxBytes) {
+        String s = value == null ? "" : value;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        // cut on a character boundary so the stored prefix stays valid UTF-8
+        while (bytes.length > maxBytes) {
+            s = s.substring(0, s.length() - 1);
+            bytes = s.getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts inventory.txt (or the file given as first argument) into a
+     * catalog file (second argument, default inventory.dat).
+     */
+    public static void main(String[] args) throws IOException {
+        String target = args.length > 1 ? args[1] : "inventory.dat";
+        Inventory inventory = args.length > 0 ? new Inventory(args[0]) : new Inventory();
+        write(inventory.getProducts(), target);
+        System.out.println("[INFO] Wrote " + inventory.getProducts().size() + " products to " + target);
+    }
+}
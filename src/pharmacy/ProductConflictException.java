@@ -0,0 +1,91 @@
+package pharmacy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by {@link PharmacyService#updateProduct(Product, String, String,
+ * double, int, boolean, String)} when the product changed after the editor
+ * loaded it. Carries the product as it is now and one line per field that
+ * changed in the meantime, so the editor can redo the edit on top of it.
+ *
+ * @author elkhedewy-group
+ */
+@SuppressWarnings("serial") // never serialized
+public class ProductConflictException extends IllegalStateException {
+    private final Product current;
+    private final List<String> changes;
+
+    ProductConflictException(Product loaded, Product current, List<String> changes) {
+        super("Product " + loaded.getProductId() + " was changed by someone else after you loaded it:\n"
+                + String.join("\n", changes));
+        this.current = current;
+        this.changes = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * A detached copy of the product as it is now.
+     */
+    public Product getCurrent() {
+        return current;
+    }
+
+    /**
+     * "field: loaded -> now" lines, with the value the editor entered where
+     * it differs from both.
+     */
+    public List<String> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Field by field comparison of what the editor loaded, what is stored
+     * now and what the editor wants to write.
+     */
+    static List<String> diff(Product loaded, Product current, String name, double price, int quantity,
+            String special) {
+        List<String> changes = new ArrayList<>();
+        if (loaded.getClass() != current.getClass()) {
+            changes.add("Type: " + loaded.getClass().getSimpleName() + " -> " + current.getClass().getSimpleName());
+        }
+        compare(changes, "Name", loaded.getName(), current.getName(), name);
+        compare(changes, "Price", String.format("%.2f", loaded.getPrice()), String.format("%.2f", current.getPrice()),
+                String.format("%.2f", price));
+        compare(changes, "Quantity", String.valueOf(loaded.getQuantity()), String.valueOf(current.getQuantity()),
+                String.valueOf(quantity));
+        compare(changes, specialName(current), special(loaded), special(current), special);
+        if (changes.isEmpty()) {
+            changes.add("No visible field changed (the product was saved again)");
+        }
+        return changes;
+    }
+
+    private static void compare(List<String> changes, String field, String loaded, String current, String mine) {
+        if (loaded.equals(current)) {
+            return;
+        }
+        String line = field + ": " + loaded + " -> " + current;
+        if (!mine.equals(loaded) && !mine.equals(current)) {
+            line += " (you entered " + mine + ")";
+        }
+        changes.add(line);
+    }
+
+    static String special(Product p) {
+        if (p instanceof Medicine) {
+            return String.valueOf(((Medicine) p).isPrescriptionRequired());
+        }
+        if (p instanceof Cosmetic) {
+            return ((Cosmetic) p).getSuitableForSkinType();
+        }
+        return "";
+    }
+
+    private static String specialName(Product p) {
+        if (p instanceof Medicine) {
+            return "Prescription required";
+        }
+        return p instanceof Cosmetic ? "Skin type" : "Special";
+    }
+}
@@ -0,0 +1,157 @@
+package pharmacy;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of products that {@link Inventory} publishes after every
+ * change, so readers can iterate without a lock and never see a
+ * ConcurrentModificationException.
+ *
+ * Elements are stored in chunks of 64. A new snapshot shares every chunk
+ * in front of the first changed position with the old one, so appending a
+ * product copies one chunk plus the chunk table instead of the whole list.
+ * Changes are batched with a {@link Builder}: any number of adds and
+ * removes, one new snapshot.
+ *
+ * The products in it are fixed too: a change to a product publishes a new
+ * snapshot holding a changed copy in its place, so a reader sees each
+ * product either wholly before or wholly after an edit. Their fields are
+ * plain, and are safe to read because the snapshot is published through a
+ * volatile write after they were set.
+ *
+ * @author elkhedewy-group
+ */
+final class ProductSnapshot extends AbstractList<Product> implements RandomAccess {
+    private static final int SHIFT = 6;
+    private static final int CHUNK = 1 << SHIFT;
+    private static final int MASK = CHUNK - 1;
+    static final ProductSnapshot EMPTY = new ProductSnapshot(new Product[0][], 0);
+
+    private final Product[][] chunks;
+    private final int size;
+
+    private ProductSnapshot(Product[][] chunks, int size) {
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    static ProductSnapshot of(List<Product> products) {
+        Builder b = EMPTY.toBuilder();
+        for (Product p : products) {
+            b.add(p);
+        }
+        return b.build();
+    }
+
+    @Override
+    public Product get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return chunks[index >>> SHIFT][index & MASK];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    ProductSnapshot append(Product p) {
+        return toBuilder().add(p).build();
+    }
+
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Collects changes against a snapshot. Everything before the first
+     * changed chunk stays shared; only the tail after it is copied.
+     */
+    static final class Builder {
+        private final ProductSnapshot base;
+        private int shared;
+        private final List<Product> tail = new ArrayList<>();
+
+        private Builder(ProductSnapshot base) {
+            this.base = base;
+            this.shared = base.size;
+        }
+
+        int size() {
+            return shared + tail.size();
+        }
+
+        Product get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+            }
+            return index < shared ? base.get(index) : tail.get(index - shared);
+        }
+
+        Builder add(Product p) {
+            detachFrom(size());
+            tail.add(p);
+            return this;
+        }
+
+        Builder remove(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+            }
+            detachFrom(index);
+            tail.remove(index - shared);
+            return this;
+        }
+
+        Builder set(int index, Product p) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+            }
+            detachFrom(index);
+            tail.set(index - shared, p);
+            return this;
+        }
+
+        /**
+         * Copies the chunk holding index, and everything after it, into the
+         * tail so it can be changed.
+         */
+        private void detachFrom(int index) {
+            int start = (index >>> SHIFT) << SHIFT;
+            if (start >= shared) {
+                return;
+            }
+            List<Product> moved = new ArrayList<>(shared - start + tail.size());
+            for (int i = start; i < shared; i++) {
+                moved.add(base.get(i));
+            }
+            moved.addAll(tail);
+            tail.clear();
+            tail.addAll(moved);
+            shared = start;
+        }
+
+        ProductSnapshot build() {
+            if (shared == base.size && tail.isEmpty()) {
+                return base;
+            }
+            int size = size();
+            Product[][] chunks = Arrays.copyOf(base.chunks, (size + MASK) >>> SHIFT);
+            int i = shared;
+            for (Product p : tail) {
+                int c = i >>> SHIFT;
+                if ((i & MASK) == 0) {
+                    chunks[c] = new Product[Math.min(CHUNK, size - i)];
+                }
+                chunks[c][i & MASK] = p;
+                i++;
+            }
+            return new ProductSnapshot(chunks, size);
+        }
+    }
+}
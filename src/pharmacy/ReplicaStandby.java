@@ -0,0 +1,203 @@
+package pharmacy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Hot standby replication, standby side: accepts a primary's
+ * {@link Replicator} stream and applies it to this process's data
+ * directory, acknowledging each batch once it is on disk
+ * (-Dpharmacy.replica.fsync=false skips the fsync, for tests).
+ *
+ * The last applied batch is written to replica_state.txt. To take over,
+ * stop the standby and start the pharmacy (GUI, console or server) with
+ * -Dpharmacy.data.dir pointing at the standby's directory.
+ *
+ * Usage:
+ *   java -Dpharmacy.data.dir=standby pharmacy.ReplicaStandby [port]
+ *
+ * @author elkhedewy-group
+ */
+public final class ReplicaStandby {
+    static final int DEFAULT_PORT = 7471;
+
+    private static final Log LOG = Log.get(ReplicaStandby.class);
+
+    private final Path root;
+    private final boolean fsync;
+    private long lastBatch;
+    private long lastApplied;
+
+    public ReplicaStandby(Path root, boolean fsync) {
+        this.root = root.toAbsolutePath().normalize();
+        this.fsync = fsync;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ReplicaStandby standby = new ReplicaStandby(Paths.get(DataFiles.path("")),
+                Boolean.parseBoolean(System.getProperty("pharmacy.replica.fsync", "true")));
+        Files.createDirectories(standby.root);
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("[INFO] Standby for " + standby.root + " listening on port " + server.getLocalPort());
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    standby.serve(socket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies batches from one primary until it disconnects.
+     */
+    void serve(Socket socket) {
+        String primary = socket.getRemoteSocketAddress().toString();
+        System.out.println("[INFO] Primary connected from " + primary);
+        LOG.info("standby.connected", "primary", primary);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (magic != Replicator.MAGIC) {
+                    throw new IOException("Not a replication stream");
+                }
+                long id = in.readLong();
+                int count = in.readInt();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                apply(id, count, payload);
+                out.writeLong(id);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("[ERR] Replication from " + primary + " failed: " + e.getMessage());
+            LOG.error("standby.failed", "error", String.valueOf(e.getMessage()));
+        }
+        System.out.println("[WARN] Primary " + primary + " disconnected after batch " + lastBatch
+                + ". To take over, start the pharmacy with -Dpharmacy.data.dir=" + root);
+        LOG.warn("standby.disconnected", "primary", primary, "batch", lastBatch);
+    }
+
+    void apply(long id, int count, byte[] payload) throws IOException {
+        DataInputStream ops = new DataInputStream(new ByteArrayInputStream(payload));
+        for (int i = 0; i < count; i++) {
+            byte kind = ops.readByte();
+            String rel = ops.readUTF();
+            long offset = ops.readLong();
+            byte[] bytes = new byte[ops.readInt()];
+            ops.readFully(bytes);
+            switch (kind) {
+                case Replicator.APPEND:
+                    append(resolve(rel), offset, bytes);
+                    break;
+                case Replicator.REPLACE:
+                    replace(resolve(rel), bytes);
+                    break;
+                case Replicator.DELETE:
+                    Files.deleteIfExists(resolve(rel));
+                    break;
+                case Replicator.MANIFEST:
+                    keepOnly(new HashSet<>(Arrays.asList(new String(bytes, StandardCharsets.UTF_8).split("\n"))));
+                    System.out.println("[INFO] Standby in sync with the primary at batch " + id);
+                    break;
+                default:
+                    throw new IOException("Unknown operation " + kind + " in batch " + id);
+            }
+        }
+        lastBatch = id;
+        lastApplied = System.currentTimeMillis();
+        Files.write(root.resolve(Replicator.STATE_FILE), ("BATCH=" + lastBatch + "\nAPPLIED=" + lastApplied + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        LOG.debug("standby.applied", "batch", id, "operations", count);
+    }
+
+    private Path resolve(String rel) throws IOException {
+        Path p = root.resolve(rel).normalize();
+        if (rel.isEmpty() || !p.startsWith(root) || p.equals(root) || Replicator.excluded(rel)) {
+            throw new IOException("Refusing to write " + rel);
+        }
+        return p;
+    }
+
+    private void append(Path p, long offset, byte[] bytes) throws IOException {
+        Files.createDirectories(p.getParent());
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (ch.size() < offset) {
+                // a gap: the primary reconnects and sends everything again
+                throw new IOException(root.relativize(p) + " has " + ch.size() + " bytes, batch appends at " + offset);
+            }
+            ch.truncate(offset);
+            write(ch, offset, bytes);
+        }
+    }
+
+    /** Writes a temporary file and renames it over p, so p is never half written. */
+    private void replace(Path p, byte[] bytes) throws IOException {
+        Files.createDirectories(p.getParent());
+        Path tmp = p.resolveSibling(p.getFileName() + Replicator.TEMP_SUFFIX);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(ch, 0, bytes);
+        }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void write(FileChannel ch, long offset, byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+        if (fsync) {
+            ch.force(false);
+        }
+    }
+
+    /** Deletes files the primary no longer has. */
+    private void keepOnly(Set<String> files) throws IOException {
+        List<Path> stale = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) walk::iterator) {
+                String rel = root.relativize(p).toString().replace(File.separatorChar, '/');
+                if (Files.isRegularFile(p) && !files.contains(rel) && !Replicator.excluded(rel)) {
+                    stale.add(p);
+                }
+            }
+        }
+        for (Path p : stale) {
+            Files.delete(p);
+        }
+        if (!stale.isEmpty()) {
+            LOG.info("standby.pruned", "files", stale.size());
+        }
+    }
+}
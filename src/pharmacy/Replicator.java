@@ -0,0 +1,513 @@
+package pharmacy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Hot standby replication, primary side: streams every change to the data
+ * directory to a {@link ReplicaStandby} over TCP, so another disk or
+ * machine holds a copy of the flat files that can take over if this one
+ * is lost.
+ *
+ * The write journal is kept per file. Code that writes a data file reports
+ * it through {@link DataFiles#changed} and the replicator ships what is
+ * new, in batches:
+ * <ul>
+ *   <li>files that were only appended to (orders, order details, shift
+ *   summaries, customers, the stock ledger, the change feed) from the
+ *   offset the standby already has;</li>
+ *   <li>files that were rewritten (the inventory, the shift state and the
+ *   shift's order list) whole, read under the service lock so the standby
+ *   never gets half of a rewrite;</li>
+ *   <li>files that are gone (a shift's order list once it is archived) as a
+ *   delete.</li>
+ * </ul>
+ * Changes made while a batch is in flight go into the next one, so a busy
+ * primary sends fewer, bigger batches. The standby acknowledges a batch
+ * once it is applied and on its disk; the next one is not sent before.
+ *
+ * On connect, and again after any error, the whole data directory is sent
+ * (logs excluded) with a manifest, and the standby deletes files not in it.
+ *
+ * Lag is the time from the first change in a batch to its
+ * acknowledgement, recorded in the "replica.lag" timer. The
+ * "replica.lagMillis" gauge is the age of the oldest change the standby
+ * has not acknowledged yet, 0 when it is caught up.
+ *
+ * Turned on with -Dpharmacy.replica.target=host:port. Batches wait
+ * -Dpharmacy.replica.batchMillis (default 5) for more changes and carry
+ * up to -Dpharmacy.replica.batchBytes (default 4 MB).
+ *
+ * @author elkhedewy-group
+ */
+final class Replicator implements DataFiles.ChangeListener {
+    static final int MAGIC = 0x50485250;
+    static final byte APPEND = 1;
+    static final byte REPLACE = 2;
+    static final byte DELETE = 3;
+    static final byte MANIFEST = 4;
+    static final String STATE_FILE = "replica_state.txt";
+    static final String TEMP_SUFFIX = ".repl";
+
+    private static final Log LOG = Log.get(Replicator.class);
+    private static final Metrics.Timer LAG = Metrics.timer("replica.lag");
+    private static final Metrics.Counter BATCHES = Metrics.counter("replica.batches");
+    private static final Metrics.Counter BYTES = Metrics.counter("replica.bytes");
+    private static final Metrics.Counter RECONNECTS = Metrics.counter("replica.reconnects");
+
+    private final Path root;
+    private final String host;
+    private final int port;
+    private final ReentrantLock serviceLock;
+    private final long batchMillis;
+    private final int batchBytes;
+    private final ReentrantLock journalLock = new ReentrantLock();
+    private final Condition changes = journalLock.newCondition();
+    private Map<String, Boolean> dirty = new LinkedHashMap<>(); // relative path -> append only
+    private long dirtySince;
+    private volatile long inFlightSince;
+    private final Map<String, Long> shipped = new HashMap<>(); // bytes the standby has, per file
+    private long batchId;
+    private volatile boolean closed;
+    private volatile Socket socket;
+    private final Thread thread;
+
+    Replicator(Path root, String host, int port, ReentrantLock serviceLock, long batchMillis, int batchBytes) {
+        this.root = root.toAbsolutePath().normalize();
+        this.host = host;
+        this.port = port;
+        this.serviceLock = serviceLock;
+        this.batchMillis = batchMillis;
+        this.batchBytes = batchBytes;
+        this.thread = new Thread(this::run, "pharmacy-replicator");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts replicating to -Dpharmacy.replica.target, or returns null when
+     * it is not set or not a host:port.
+     */
+    static Replicator fromSystemProperties(ReentrantLock serviceLock) {
+        String target = System.getProperty("pharmacy.replica.target");
+        if (target == null || target.isEmpty()) {
+            return null;
+        }
+        int colon = target.lastIndexOf(':');
+        int port;
+        try {
+            port = Integer.parseInt(target.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            System.out.println("[ERR] pharmacy.replica.target must be host:port, was " + target + "; replication is off");
+            return null;
+        }
+        String host = colon > 0 ? target.substring(0, colon) : "localhost";
+        Replicator replicator = new Replicator(Paths.get(DataFiles.path("")), host, port, serviceLock,
+                Math.max(0, Long.getLong("pharmacy.replica.batchMillis", 5)),
+                Math.max(64 * 1024, Integer.getInteger("pharmacy.replica.batchBytes", 4 << 20)));
+        replicator.start();
+        return replicator;
+    }
+
+    void start() {
+        DataFiles.setListener(this);
+        Metrics.gauge("replica.lagMillis", this::getLagMillis);
+        thread.start();
+    }
+
+    /**
+     * Age of the oldest change the standby has not acknowledged, 0 when it
+     * has everything.
+     */
+    long getLagMillis() {
+        long since = inFlightSince;
+        if (since == 0) {
+            journalLock.lock();
+            try {
+                since = dirtySince;
+            } finally {
+                journalLock.unlock();
+            }
+        }
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    @Override
+    public void changed(String path, boolean appendOnly) {
+        String rel = relative(path);
+        if (rel == null) {
+            return;
+        }
+        journalLock.lock();
+        try {
+            if (dirty.isEmpty()) {
+                dirtySince = System.nanoTime();
+                changes.signal();
+            }
+            dirty.merge(rel, appendOnly, Boolean::logicalAnd);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * Ships what is still pending, waiting up to 5 seconds for the standby,
+     * and stops.
+     */
+    void close() {
+        closed = true;
+        DataFiles.setListener(null);
+        journalLock.lock();
+        try {
+            changes.signal();
+        } finally {
+            journalLock.unlock();
+        }
+        try {
+            thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            System.out.println("[WARN] Standby did not acknowledge the last changes within 5 seconds");
+            thread.interrupt();
+            closeSocket();
+        }
+    }
+
+    private String relative(String path) {
+        Path p = Paths.get(path).toAbsolutePath().normalize();
+        if (!p.startsWith(root) || p.equals(root)) {
+            return null; // e.g. a change feed kept outside the data directory
+        }
+        String rel = root.relativize(p).toString().replace(File.separatorChar, '/');
+        return excluded(rel) ? null : rel;
+    }
+
+    /**
+     * Files that belong to one process and are never replicated: its logs,
+     * and the standby's own state and temporary files.
+     */
+    static boolean excluded(String rel) {
+        String name = rel.substring(rel.lastIndexOf('/') + 1);
+        return name.startsWith(System.getProperty("pharmacy.log.file", "pharmacy.log"))
+                || name.startsWith(Metrics.LOG_FILE) || name.equals(STATE_FILE) || name.endsWith(TEMP_SUFFIX)
+                || name.endsWith(DataLocks.SUFFIX) || name.endsWith(DataLocks.TEMP_SUFFIX);
+    }
+
+    // ===================== Streaming =====================
+    private void run() {
+        long backoff = 500;
+        boolean wasConnected = false;
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(host, port), 5000);
+                s.setTcpNoDelay(true);
+                socket = s;
+                Batch batch = new Batch(new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16)),
+                        new DataInputStream(new BufferedInputStream(s.getInputStream())));
+                System.out.println("[INFO] Replicating to standby at " + host + ":" + port);
+                LOG.info("replica.connected", "target", host + ":" + port);
+                wasConnected = true;
+                backoff = 500;
+                fullSync(batch);
+                Map<String, Boolean> next;
+                while ((next = awaitChanges()) != null) {
+                    ship(next, batch);
+                }
+                return;
+            } catch (IOException e) {
+                inFlightSince = 0;
+                if (closed) {
+                    return;
+                }
+                RECONNECTS.increment();
+                LOG.warn("replica.disconnected", "target", host + ":" + port, "error", String.valueOf(e.getMessage()));
+                if (wasConnected) {
+                    System.out.println("[WARN] Lost the standby at " + host + ":" + port + ": " + e.getMessage()
+                            + "; retrying");
+                    wasConnected = false;
+                }
+            } finally {
+                socket = null;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, 10_000);
+        }
+    }
+
+    /**
+     * Waits for changes, gives more of them batchMillis to arrive, and takes
+     * them all. Returns null once closed with nothing left to ship.
+     */
+    private Map<String, Boolean> awaitChanges() {
+        journalLock.lock();
+        try {
+            while (dirty.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                changes.await();
+            }
+        } catch (InterruptedException e) {
+            return null;
+        } finally {
+            journalLock.unlock();
+        }
+        if (batchMillis > 0 && !closed) {
+            try {
+                Thread.sleep(batchMillis);
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+        return takeChanges();
+    }
+
+    private Map<String, Boolean> takeChanges() {
+        journalLock.lock();
+        try {
+            Map<String, Boolean> taken = dirty;
+            dirty = new LinkedHashMap<>();
+            inFlightSince = dirtySince != 0 ? dirtySince : System.nanoTime();
+            dirtySince = 0;
+            return taken;
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * Sends every file in the data directory, then the manifest. Rewritten
+     * files are only read under the service lock here if they change while
+     * being copied: the write reports them again and the next batch sends
+     * them whole.
+     */
+    private void fullSync(Batch batch) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        serviceLock.lock();
+        try {
+            takeChanges();
+            try (Stream<Path> files = Files.walk(root)) {
+                for (Path p : (Iterable<Path>) files::iterator) {
+                    String rel = root.relativize(p).toString().replace(File.separatorChar, '/');
+                    if (Files.isRegularFile(p) && !excluded(rel)) {
+                        sizes.put(rel, Files.size(p));
+                    }
+                }
+            }
+        } finally {
+            serviceLock.unlock();
+        }
+        shipped.clear();
+        long bytes = 0;
+        for (Map.Entry<String, Long> e : sizes.entrySet()) {
+            bytes += sendRange(batch, e.getKey(), 0, written(e.getKey(), 0, e.getValue()), REPLACE);
+        }
+        byte[] manifest = String.join("\n", sizes.keySet()).getBytes(StandardCharsets.UTF_8);
+        batch.op(MANIFEST, "", 0, manifest, manifest.length);
+        batch.send();
+        inFlightSince = 0;
+        LOG.info("replica.synced", "files", sizes.size(), "bytes", bytes, "ms",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void ship(Map<String, Boolean> changed, Batch batch) throws IOException {
+        Map<String, byte[]> rewritten = new LinkedHashMap<>();
+        serviceLock.lock();
+        try {
+            for (Map.Entry<String, Boolean> e : changed.entrySet()) {
+                if (!e.getValue()) {
+                    Path p = root.resolve(e.getKey());
+                    rewritten.put(e.getKey(), Files.isRegularFile(p) ? Files.readAllBytes(p) : null);
+                }
+            }
+        } finally {
+            serviceLock.unlock();
+        }
+        for (Map.Entry<String, Boolean> e : changed.entrySet()) {
+            String rel = e.getKey();
+            if (!e.getValue()) {
+                byte[] content = rewritten.get(rel);
+                if (content == null) {
+                    batch.op(DELETE, rel, 0, new byte[0], 0);
+                    shipped.remove(rel);
+                } else {
+                    batch.op(REPLACE, rel, 0, content, content.length);
+                    shipped.put(rel, (long) content.length);
+                }
+                continue;
+            }
+            Path p = root.resolve(rel);
+            if (!Files.isRegularFile(p)) {
+                batch.op(DELETE, rel, 0, new byte[0], 0);
+                shipped.remove(rel);
+                continue;
+            }
+            long size = Files.size(p);
+            long from = shipped.getOrDefault(rel, 0L);
+            if (size < from) {
+                sendRange(batch, rel, 0, written(rel, 0, size), REPLACE); // truncated after all
+            } else if (size > from) {
+                long to = written(rel, from, size);
+                if (to > from) {
+                    sendRange(batch, rel, from, to, APPEND);
+                }
+            }
+        }
+        batch.send();
+        inFlightSince = 0;
+    }
+
+    /**
+     * How much of a file, up to size, can be sent from from. Appends made
+     * through {@link DataLocks} fill their reserved regions in any order,
+     * and a region still being written reads as zeros; once every region
+     * reserved before size was taken is written, all of it can. If the
+     * writers take longer than the wait limit nothing past from is sent
+     * and the file stays changed for the next batch.
+     */
+    private long written(String rel, long from, long size) {
+        Path p = root.resolve(rel);
+        if (size <= from || !Files.exists(p.resolveSibling(p.getFileName() + DataLocks.SUFFIX))) {
+            return size;
+        }
+        try {
+            if (DataLocks.get().awaitAppends(p.toString(), from)) {
+                return size;
+            }
+        } catch (IOException e) {
+            LOG.warn("replica.appendsUnreadable", "file", rel, "error", String.valueOf(e.getMessage()));
+        }
+        changed(p.toString(), true);
+        return from;
+    }
+
+    /**
+     * Sends bytes [from, to) of a file, in pieces that fit a batch. The
+     * first piece is a REPLACE when the whole file is being sent. Returns the
+     * bytes sent; a file that shrank meanwhile is sent as far as it goes.
+     */
+    private long sendRange(Batch batch, String rel, long from, long to, byte kind) throws IOException {
+        Path p = root.resolve(rel);
+        long position = from;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            do {
+                int n = (int) Math.min(to - position, batchBytes);
+                ByteBuffer buf = ByteBuffer.allocate(n);
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, position + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                batch.op(kind, rel, position, buf.array(), buf.position());
+                position += buf.position();
+                kind = APPEND;
+                if (buf.position() < n) {
+                    break;
+                }
+            } while (position < to);
+        } catch (NoSuchFileException e) {
+            batch.op(DELETE, rel, 0, new byte[0], 0);
+            shipped.remove(rel);
+            return 0;
+        }
+        shipped.put(rel, position);
+        return position - from;
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+
+    /**
+     * Collects operations and sends them as one frame once full or when
+     * asked, then waits for the standby's acknowledgement:
+     *   int magic, long batch id, int operations, int payload length, payload
+     * with each operation as
+     *   byte kind, UTF path, long offset, int length, bytes
+     * and the acknowledgement the batch id.
+     */
+    private final class Batch {
+        private final DataOutputStream out;
+        private final DataInputStream in;
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream(1 << 16);
+        private final DataOutputStream ops = new DataOutputStream(payload);
+        private int count;
+
+        Batch(DataOutputStream out, DataInputStream in) {
+            this.out = out;
+            this.in = in;
+        }
+
+        void op(byte kind, String rel, long offset, byte[] bytes, int length) throws IOException {
+            ops.writeByte(kind);
+            ops.writeUTF(rel);
+            ops.writeLong(offset);
+            ops.writeInt(length);
+            ops.write(bytes, 0, length);
+            count++;
+            if (payload.size() >= batchBytes) {
+                send();
+            }
+        }
+
+        void send() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            long id = ++batchId;
+            out.writeInt(MAGIC);
+            out.writeLong(id);
+            out.writeInt(count);
+            out.writeInt(payload.size());
+            payload.writeTo(out);
+            out.flush();
+            long ack = in.readLong();
+            if (ack != id) {
+                throw new IOException("Standby acknowledged batch " + ack + ", expected " + id);
+            }
+            long since = inFlightSince;
+            if (since != 0) {
+                LAG.recordSince(since);
+            }
+            BATCHES.increment();
+            BYTES.add(payload.size());
+            payload.reset();
+            count = 0;
+        }
+    }
+}
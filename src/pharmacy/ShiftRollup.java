@@ -0,0 +1,152 @@
+package pharmacy;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one shift came to: when it ran, who ended it, its orders, items and
+ * revenue, and its best sellers. Kept one per shift in {@link ShiftRollups}.
+ *
+ * @author elkhedewy-group
+ */
+public final class ShiftRollup {
+    /** Best sellers kept per shift. */
+    static final int TOP_PRODUCTS = 3;
+
+    private final Instant start;
+    private final Instant end;
+    private final ShiftType shiftType;
+    private final String cashier;
+    private final int orderCount;
+    private final int itemCount;
+    private final long revenueCents;
+    private final List<TopProduct> topProducts;
+
+    ShiftRollup(Instant start, Instant end, ShiftType shiftType, String cashier, int orderCount, int itemCount,
+            long revenueCents, List<TopProduct> topProducts) {
+        this.start = start;
+        this.end = end;
+        this.shiftType = shiftType;
+        this.cashier = cashier;
+        this.orderCount = orderCount;
+        this.itemCount = itemCount;
+        this.revenueCents = revenueCents;
+        this.topProducts = Collections.unmodifiableList(topProducts);
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    /** Null for shifts imported from summaries that did not name it. */
+    public ShiftType getShiftType() {
+        return shiftType;
+    }
+
+    public String getCashier() {
+        return cashier;
+    }
+
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    /** Order lines sold, as the text summary counts them. */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public double getRevenue() {
+        return revenueCents / 100.0;
+    }
+
+    long getRevenueCents() {
+        return revenueCents;
+    }
+
+    /** Up to {@link #TOP_PRODUCTS} products by units sold, best first. */
+    public List<TopProduct> getTopProducts() {
+        return topProducts;
+    }
+
+    @Override
+    public String toString() {
+        return (shiftType != null ? shiftType.getDisplayName() : "Shift") + " " + start + " - " + end + " ("
+                + cashier + ", " + orderCount + " orders, $" + String.format("%.2f", getRevenue()) + ")";
+    }
+
+    /** A best seller of a shift; the name is the one it had then. */
+    public static final class TopProduct {
+        private final int productId;
+        private final String name;
+        private final int units;
+
+        TopProduct(int productId, String name, int units) {
+            this.productId = productId;
+            this.name = name;
+            this.units = units;
+        }
+
+        public int getProductId() {
+            return productId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getUnits() {
+            return units;
+        }
+    }
+
+    /** Totals a shift's orders as they are added. */
+    static final class Builder {
+        private final ShiftType shiftType;
+        private final Instant start;
+        private final String cashier;
+        private final Map<Integer, Integer> units = new HashMap<>();
+        private final Map<Integer, String> names = new HashMap<>();
+        private int orderCount;
+        private int itemCount;
+        private long revenueCents;
+
+        Builder(ShiftType shiftType, Instant start, String cashier) {
+            this.shiftType = shiftType;
+            this.start = start;
+            this.cashier = cashier != null ? cashier : "Unknown";
+        }
+
+        Builder add(Order order, List<OrderItem> items) {
+            orderCount++;
+            itemCount += items.size();
+            revenueCents += Math.round(order.getTotalAmount() * 100);
+            for (OrderItem item : items) {
+                int id = item.getProduct().getProductId();
+                units.merge(id, item.getQuantity(), Integer::sum);
+                names.put(id, item.getProduct().getName());
+            }
+            return this;
+        }
+
+        ShiftRollup build(Instant end) {
+            List<Map.Entry<Integer, Integer>> sold = new ArrayList<>(units.entrySet());
+            sold.sort((a, b) -> a.getValue().equals(b.getValue()) ? Integer.compare(a.getKey(), b.getKey())
+                    : Integer.compare(b.getValue(), a.getValue()));
+            List<TopProduct> top = new ArrayList<>(TOP_PRODUCTS);
+            for (int i = 0; i < Math.min(TOP_PRODUCTS, sold.size()); i++) {
+                Map.Entry<Integer, Integer> e = sold.get(i);
+                top.add(new TopProduct(e.getKey(), names.get(e.getKey()), e.getValue()));
+            }
+            return new ShiftRollup(start, end, shiftType, cashier, orderCount, itemCount, revenueCents, top);
+        }
+    }
+}
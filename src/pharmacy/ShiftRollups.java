@@ -0,0 +1,309 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One fixed-size record per ended shift, so questions like revenue by
+ * cashier over a month read a handful of records instead of re-parsing
+ * shift_summaries.txt or adding up every order again.
+ *
+ * shift_rollups.dat holds 160 byte records in the order the shifts ended,
+ * after a 16 byte header (magic, version, record size):
+ * <pre>
+ *   long startMillis | long endMillis | short shiftType | short topCount | int orders | int items | int unused
+ *   | long revenueCents | byte[24] cashier | (int productId, int units, byte[24] name) * 3
+ * </pre>
+ * Text is UTF-8, cut to fit and padded with zeros; shiftType is -1 when
+ * unknown. End times never go backwards, so a time range query binary
+ * searches the records by end time and reads only the ones in range.
+ *
+ * The file is created on first open, importing the shifts already in
+ * shift_summaries.txt (without best sellers). The text file stays the
+ * readable view and is still written at the end of every shift. Appends
+ * hold the file's {@link DataLocks} lease, so instances sharing the data
+ * directory can each end shifts.
+ *
+ * @author elkhedewy-group
+ */
+public final class ShiftRollups {
+    private static final int MAGIC = 0x50485352; // "PHSR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 160;
+    private static final int TEXT_BYTES = 24;
+    private static final int TOP_OFFSET = 64;
+    private static final int TOP_SIZE = 32;
+    static final String ROLLUP_FILE = "shift_rollups.dat";
+    static final String SUMMARY_FILE = "shift_summaries.txt";
+    private static final Log LOG = Log.get(ShiftRollups.class);
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer("rollups.query");
+
+    private final FileChannel channel;
+    private final String path;
+
+    private ShiftRollups(FileChannel channel, Path path) {
+        this.channel = channel;
+        this.path = path.toString();
+    }
+
+    /**
+     * Opens the rollups in the data directory, creating them from
+     * shift_summaries.txt if they do not exist yet.
+     */
+    public static ShiftRollups open() throws IOException {
+        return open(Paths.get(DataFiles.path(ROLLUP_FILE)), Paths.get(DataFiles.path(SUMMARY_FILE)));
+    }
+
+    @SuppressWarnings("try")
+    static ShiftRollups open(Path file, Path summaries) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ShiftRollups rollups = new ShiftRollups(ch, file);
+        try (DataLocks.Lease lease = DataLocks.get().lease(rollups.path)) {
+            if (ch.size() < HEADER_SIZE) {
+                rollups.create(summaries);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                ch.read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+                    throw new IllegalArgumentException("Not a shift rollup file");
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            ch.close();
+            throw e;
+        }
+        return rollups;
+    }
+
+    private void create(Path summaries) throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+        channel.write(header, 0);
+        List<ShiftRollup> imported = parseSummaries(summaries);
+        long lastEnd = Long.MIN_VALUE;
+        for (int i = 0; i < imported.size(); i++) {
+            lastEnd = Math.max(lastEnd, imported.get(i).getEnd().toEpochMilli());
+            write(encode(imported.get(i), lastEnd), i);
+        }
+        DataFiles.changed(path, false);
+        LOG.info("rollups.created", "imported", imported.size());
+    }
+
+    // ===================== Recording =====================
+    /**
+     * Appends a shift. Its end is moved up to the last shift's end if the
+     * clock went back, to keep the records sorted for the search.
+     */
+    @SuppressWarnings("try")
+    public void append(ShiftRollup rollup) {
+        try (DataLocks.Lease lease = DataLocks.get().lease(path)) {
+            long n = size(); // a torn last record from a crash is written over
+            long end = rollup.getEnd().toEpochMilli();
+            if (n > 0) {
+                end = Math.max(end, readEnd(n - 1));
+            }
+            write(encode(rollup, end), n);
+            DataFiles.changed(path, true);
+        } catch (IOException e) {
+            LOG.error("rollups.writeFailed", "error", e.getMessage());
+        }
+    }
+
+    private void write(ByteBuffer record, long index) throws IOException {
+        long position = HEADER_SIZE + index * RECORD_SIZE;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+    }
+
+    // ===================== Queries =====================
+    /** Number of shifts recorded. */
+    public long size() throws IOException {
+        return Math.max(0, channel.size() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    /**
+     * Shifts that ended at or after from and before to, oldest first.
+     */
+    public List<ShiftRollup> between(Instant from, Instant to) {
+        long start = System.nanoTime();
+        try {
+            long n = size();
+            long first = endedBefore(from.toEpochMilli(), n);
+            long last = Math.max(first, endedBefore(to.toEpochMilli(), n));
+            List<ShiftRollup> shifts = new ArrayList<>((int) Math.min(last - first, 4096));
+            ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 256);
+            while (first < last) {
+                int batch = (int) Math.min(256, last - first);
+                chunk.clear().limit(batch * RECORD_SIZE);
+                long base = HEADER_SIZE + first * RECORD_SIZE;
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, base + chunk.position()) < 0) {
+                        throw new IOException("Truncated shift rollups");
+                    }
+                }
+                for (int i = 0; i < batch; i++) {
+                    shifts.add(decode(chunk, i * RECORD_SIZE));
+                }
+                first += batch;
+            }
+            return shifts;
+        } catch (IOException e) {
+            LOG.error("rollups.readFailed", "error", e.getMessage());
+            return new ArrayList<>();
+        } finally {
+            QUERY_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Number of the first n shifts that ended before t: binary search over
+     * the sorted end times.
+     */
+    private long endedBefore(long t, long n) throws IOException {
+        long lo = 0;
+        long hi = n;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (readEnd(mid) < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private long readEnd(long index) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        channel.read(buf, HEADER_SIZE + index * RECORD_SIZE + 8);
+        return buf.getLong(0);
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.error("rollups.closeFailed", "error", e.getMessage());
+        }
+    }
+
+    // ===================== Records =====================
+    private static ByteBuffer encode(ShiftRollup r, long end) {
+        List<ShiftRollup.TopProduct> top = r.getTopProducts();
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE);
+        buf.putLong(r.getStart().toEpochMilli()).putLong(end)
+                .putShort((short) (r.getShiftType() != null ? r.getShiftType().ordinal() : -1))
+                .putShort((short) top.size()).putInt(r.getOrderCount()).putInt(r.getItemCount()).putInt(0)
+                .putLong(r.getRevenueCents());
+        putText(buf, r.getCashier());
+        for (ShiftRollup.TopProduct p : top) {
+            buf.putInt(p.getProductId()).putInt(p.getUnits());
+            putText(buf, p.getName());
+        }
+        buf.clear(); // the whole record, unused best seller slots as zeros
+        return buf;
+    }
+
+    private static ShiftRollup decode(ByteBuffer buf, int offset) {
+        int type = buf.getShort(offset + 16);
+        int topCount = Math.min(buf.getShort(offset + 18), ShiftRollup.TOP_PRODUCTS);
+        List<ShiftRollup.TopProduct> top = new ArrayList<>(Math.max(0, topCount));
+        for (int i = 0; i < topCount; i++) {
+            int at = offset + TOP_OFFSET + i * TOP_SIZE;
+            top.add(new ShiftRollup.TopProduct(buf.getInt(at), getText(buf, at + 8), buf.getInt(at + 4)));
+        }
+        ShiftType[] types = ShiftType.values();
+        return new ShiftRollup(Instant.ofEpochMilli(buf.getLong(offset)), Instant.ofEpochMilli(buf.getLong(offset + 8)),
+                type >= 0 && type < types.length ? types[type] : null, getText(buf, offset + 40),
+                buf.getInt(offset + 20), buf.getInt(offset + 24), buf.getLong(offset + 32), top);
+    }
+
+    private static void putText(ByteBuffer buf, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, TEXT_BYTES);
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--; // do not cut a character in half
+        }
+        buf.put(bytes, 0, length);
+        buf.position(buf.position() + TEXT_BYTES - length);
+    }
+
+    private static String getText(ByteBuffer buf, int offset) {
+        byte[] bytes = new byte[TEXT_BYTES];
+        int length = 0;
+        while (length < TEXT_BYTES && buf.get(offset + length) != 0) {
+            bytes[length] = buf.get(offset + length);
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // ===================== Import =====================
+    /**
+     * The shifts summarized in shift_summaries.txt, in file order. Blocks
+     * that cannot be read are skipped.
+     */
+    static List<ShiftRollup> parseSummaries(Path file) throws IOException {
+        List<ShiftRollup> shifts = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return shifts;
+        }
+        // the summaries print times with Date.toString()
+        SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+        Map<String, String> fields = null;
+        ShiftType type = null;
+        int skipped = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith("=== ") && line.endsWith(" SUMMARY ===")) {
+                String name = line.substring(4, line.length() - 12);
+                fields = new HashMap<>();
+                type = null;
+                for (ShiftType t : ShiftType.values()) {
+                    if (t.getDisplayName().equalsIgnoreCase(name)) {
+                        type = t;
+                    }
+                }
+            } else if (line.startsWith("=====") && fields != null) {
+                try {
+                    shifts.add(new ShiftRollup(format.parse(fields.get("Start Time")).toInstant(),
+                            format.parse(fields.get("End Time")).toInstant(), type,
+                            fields.getOrDefault("Cashier", "Unknown"),
+                            Integer.parseInt(fields.get("Total Orders")),
+                            Integer.parseInt(fields.get("Total Items Sold")),
+                            Math.round(Double.parseDouble(fields.get("Total Revenue").replace("$", "")) * 100),
+                            new ArrayList<>()));
+                } catch (ParseException | RuntimeException e) {
+                    skipped++;
+                }
+                fields = null;
+            } else if (fields != null && !line.startsWith(" ")) {
+                int colon = line.indexOf(": ");
+                if (colon > 0) {
+                    fields.put(line.substring(0, colon), line.substring(colon + 2).trim());
+                }
+            }
+        }
+        if (skipped > 0) {
+            System.out.println("[WARN] Skipped " + skipped + " unreadable shift summaries in " + file.getFileName());
+        }
+        return shifts;
+    }
+}
@@ -0,0 +1,33 @@
+package pharmacy;
+
+import java.time.Instant;
+
+/**
+ * The current shift as one consistent reading: its type, when it started
+ * and how many orders it has.
+ *
+ * @author elkhedewy-group
+ */
+public final class ShiftStatus {
+    private final ShiftType shiftType;
+    private final Instant start;
+    private final int orderCount;
+
+    ShiftStatus(ShiftType shiftType, Instant start, int orderCount) {
+        this.shiftType = shiftType;
+        this.start = start;
+        this.orderCount = orderCount;
+    }
+
+    public ShiftType getShiftType() {
+        return shiftType;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public int getOrderCount() {
+        return orderCount;
+    }
+}
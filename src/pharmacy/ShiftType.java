@@ -0,0 +1,32 @@
+package pharmacy;
+
+/**
+ * The two pharmacy shifts. The file name is the prefix of the shift's
+ * order list, e.g. morning_shift_orders.txt.
+ *
+ * @author Farida
+ */
+public enum ShiftType {
+    MORNING("Morning Shift", "morning"),
+    EVENING("Evening Shift", "evening");
+
+    private final String displayName;
+    private final String fileName;
+
+    ShiftType(String displayName, String fileName) {
+        this.displayName = displayName;
+        this.fileName = fileName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public ShiftType next() {
+        return this == MORNING ? EVENING : MORNING;
+    }
+}
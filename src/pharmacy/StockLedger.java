@@ -0,0 +1,492 @@
+package pharmacy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only record of every stock movement, so the stock of any product
+ * can be answered for any past moment.
+ *
+ * stock_ledger.dat holds fixed-width events in time order after a 16 byte
+ * header (magic, version, record size):
+ * <pre>
+ *   long epochMillis | int productId | int delta | int quantityAfter | short reason | short unused
+ * </pre>
+ * stock_checkpoints.dat holds snapshots of all quantities, one every
+ * -Dpharmacy.ledger.checkpoint events (default 1024):
+ * <pre>
+ *   long eventCount | long epochMillis | int products | (int productId, int quantity) * products
+ * </pre>
+ * The first checkpoint is the inventory at the moment the ledger was
+ * created. A point-in-time query binary searches the events by time,
+ * loads the last checkpoint before that point and replays at most one
+ * interval of events on top of it.
+ *
+ * The current stock is kept in memory as the ledger's own running total,
+ * and is what checkpoints are taken from. On open it is rebuilt the same
+ * way and compared with the inventory; differences (the inventory file
+ * edited by hand, or a crash between the ledger and the inventory save)
+ * are recorded as EXTERNAL events so the ledger stays the complete story.
+ *
+ * Events are buffered and written by {@link #flush()}, which
+ * {@link Inventory#saveToFile()} calls before it writes the inventory.
+ * Not thread-safe: it is only used under the {@link PharmacyService} lock.
+ *
+ * Instances sharing the data directory share the ledger: a flush holds the
+ * ledger's {@link DataLocks} lease, first takes in what the others appended
+ * since (into the running total and the checkpoint index), then appends its
+ * own events after theirs.
+ *
+ * @author elkhedewy-group
+ */
+public final class StockLedger {
+    private static final int MAGIC = 0x50484c47; // "PHLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 24;
+    private static final int CHECKPOINT_HEADER = 20;
+    static final String LEDGER_FILE = "stock_ledger.dat";
+    static final String CHECKPOINT_FILE = "stock_checkpoints.dat";
+    private static final Log LOG = Log.get(StockLedger.class);
+    private static final Metrics.Timer QUERY_TIMER = Metrics.timer("ledger.query");
+
+    public enum Reason {
+        BASELINE, NEW, RESTOCK, SALE, ADJUST, REMOVE, RENUMBER, EXTERNAL, TRANSFER_OUT, TRANSFER_IN
+    }
+
+    private final FileChannel events;
+    private final FileChannel checkpoints;
+    private final String eventsPath;
+    private final String checkpointsPath;
+    private final int interval;
+    private final Map<Integer, Integer> current = new HashMap<>();
+    private ByteBuffer pending = ByteBuffer.allocate(RECORD_SIZE * 64);
+    private long eventCount;
+    private long lastTime;
+
+    // checkpoint index: event count, time and file offset of each checkpoint
+    private long[] cpEvents = new long[16];
+    private long[] cpTimes = new long[16];
+    private long[] cpOffsets = new long[16];
+    private int cpCount;
+    private long cpEnd;
+
+    private StockLedger(FileChannel events, Path eventsPath, FileChannel checkpoints, Path checkpointsPath,
+            int interval) {
+        this.events = events;
+        this.checkpoints = checkpoints;
+        this.eventsPath = eventsPath.toString();
+        this.checkpointsPath = checkpointsPath.toString();
+        this.interval = interval;
+    }
+
+    /**
+     * Opens the ledger in the data directory, creating it from the
+     * inventory's current quantities if it does not exist yet.
+     */
+    public static StockLedger open(Inventory inventory) throws IOException {
+        return open(Paths.get(DataFiles.path(LEDGER_FILE)), Paths.get(DataFiles.path(CHECKPOINT_FILE)),
+                Integer.getInteger("pharmacy.ledger.checkpoint", 1024), inventory.getProducts());
+    }
+
+    @SuppressWarnings("try")
+    static StockLedger open(Path ledgerFile, Path checkpointFile, int interval, List<Product> products)
+            throws IOException {
+        FileChannel ev = FileChannel.open(ledgerFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        FileChannel cp = FileChannel.open(checkpointFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        StockLedger ledger = new StockLedger(ev, ledgerFile, cp, checkpointFile, Math.max(1, interval));
+        try (DataLocks.Lease lease = DataLocks.get().lease(ledger.eventsPath)) {
+            if (ev.size() == 0 || cp.size() == 0) {
+                ledger.create(products);
+            } else {
+                ledger.load();
+                ledger.reconcile(products);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            ev.close();
+            cp.close();
+            throw e;
+        }
+        return ledger;
+    }
+
+    private void create(List<Product> products) throws IOException {
+        events.truncate(0);
+        checkpoints.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+        events.write(header, 0);
+        for (Product p : products) {
+            current.put(p.getProductId(), p.getQuantity());
+        }
+        lastTime = System.currentTimeMillis();
+        writeCheckpoint();
+        LOG.info("ledger.created", "products", current.size());
+    }
+
+    private void load() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        events.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != RECORD_SIZE) {
+            throw new IllegalArgumentException("Not a stock ledger file");
+        }
+        // a torn last record from a crash is dropped
+        eventCount = (events.size() - HEADER_SIZE) / RECORD_SIZE;
+        events.truncate(HEADER_SIZE + eventCount * RECORD_SIZE);
+
+        checkpoints.truncate(readCheckpoints(0));
+        if (cpCount == 0) {
+            throw new IllegalArgumentException("Stock ledger has no checkpoint");
+        }
+
+        current.putAll(replay(cpCount - 1, eventCount, -1));
+        lastTime = eventCount > 0 ? readTime(eventCount - 1) : cpTimes[cpCount - 1];
+    }
+
+    // indexes the checkpoints from offset on, returning where the whole ones end
+    private long readCheckpoints(long offset) throws IOException {
+        ByteBuffer cpHeader = ByteBuffer.allocate(CHECKPOINT_HEADER);
+        long size = checkpoints.size();
+        while (offset + CHECKPOINT_HEADER <= size) {
+            cpHeader.clear();
+            checkpoints.read(cpHeader, offset);
+            long count = cpHeader.getLong(0);
+            int products = cpHeader.getInt(16);
+            long next = offset + CHECKPOINT_HEADER + products * 8L;
+            if (next > size || count > eventCount) {
+                break; // torn or ahead of the events
+            }
+            addCheckpointIndex(count, cpHeader.getLong(8), offset);
+            offset = next;
+        }
+        cpEnd = offset;
+        return offset;
+    }
+
+    private void reconcile(List<Product> products) throws IOException {
+        Map<Integer, Integer> unseen = new HashMap<>(current);
+        int fixed = 0;
+        for (Product p : products) {
+            Integer ledgerQty = unseen.remove(p.getProductId());
+            int have = ledgerQty != null ? ledgerQty : 0;
+            if (have != p.getQuantity()) {
+                record(p.getProductId(), p.getQuantity() - have, Reason.EXTERNAL);
+                fixed++;
+            }
+        }
+        for (Map.Entry<Integer, Integer> e : unseen.entrySet()) {
+            if (e.getValue() != 0) {
+                record(e.getKey(), -e.getValue(), Reason.EXTERNAL);
+                fixed++;
+            }
+        }
+        if (fixed > 0) {
+            LOG.warn("ledger.reconciled", "products", fixed);
+            flush();
+        }
+    }
+
+    // ===================== Recording =====================
+    /**
+     * Records a movement of delta units of a product. Written on the next
+     * {@link #flush()}.
+     */
+    public void record(int productId, int delta, Reason reason) {
+        if (delta == 0) {
+            return;
+        }
+        int after = current.getOrDefault(productId, 0) + delta;
+        current.put(productId, after);
+        lastTime = Math.max(lastTime, System.currentTimeMillis()); // keep times sorted for the search
+        if (!pending.hasRemaining()) {
+            pending = ByteBuffer.allocate(pending.capacity() * 2).put(pending.flip());
+        }
+        pending.putLong(lastTime).putInt(productId).putInt(delta).putInt(after)
+                .putShort((short) reason.ordinal()).putShort((short) 0);
+    }
+
+    /**
+     * Appends the buffered events and takes a checkpoint if an interval
+     * has passed since the last one. Events that could not be written,
+     * e.g. because another instance held the ledger too long, stay
+     * buffered for the next flush; the running total already counts them.
+     */
+    public void flush() {
+        try (DataLocks.Lease lease = DataLocks.get().lease(eventsPath)) {
+            catchUp();
+            if (pending.position() == 0) {
+                return;
+            }
+            pending.flip();
+            int written = pending.remaining() / RECORD_SIZE;
+            try {
+                restamp();
+                // written in place after the last event: only while the lease is still ours
+                lease.write(() -> {
+                    long position = HEADER_SIZE + eventCount * RECORD_SIZE;
+                    while (pending.hasRemaining()) {
+                        position += events.write(pending, position);
+                    }
+                });
+            } catch (IOException e) {
+                // back to buffering; the next flush writes them all again from the same place
+                pending.position(pending.limit()).limit(pending.capacity());
+                throw e;
+            }
+            eventCount += written;
+            pending.clear();
+            DataFiles.changed(eventsPath, true);
+            if (eventCount - cpEvents[cpCount - 1] >= interval) {
+                lease.write(this::writeCheckpoint);
+            }
+        } catch (IOException e) {
+            LOG.error("ledger.writeFailed", "error", e.getMessage());
+        }
+    }
+
+    /**
+     * Takes in the events and checkpoints other instances appended since
+     * this one last wrote. Their events are added to the running total,
+     * which already holds this instance's pending ones.
+     */
+    private void catchUp() throws IOException {
+        long count = (events.size() - HEADER_SIZE) / RECORD_SIZE;
+        if (count <= eventCount) {
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        while (eventCount < count) {
+            int batch = (int) Math.min(4096, count - eventCount);
+            chunk.clear().limit(batch * RECORD_SIZE);
+            long base = HEADER_SIZE + eventCount * RECORD_SIZE;
+            while (chunk.hasRemaining()) {
+                if (events.read(chunk, base + chunk.position()) < 0) {
+                    throw new IOException("Truncated ledger");
+                }
+            }
+            for (int i = 0; i < batch; i++) {
+                int off = i * RECORD_SIZE;
+                lastTime = Math.max(lastTime, chunk.getLong(off));
+                current.merge(chunk.getInt(off + 8), chunk.getInt(off + 12), Integer::sum);
+            }
+            eventCount += batch;
+        }
+        readCheckpoints(cpEnd);
+    }
+
+    // pending events were stamped before other instances' events were taken in:
+    // keep times sorted after theirs and quantities counted on top of them
+    private void restamp() {
+        Map<Integer, Integer> stock = new HashMap<>(current);
+        for (int off = pending.position(); off < pending.limit(); off += RECORD_SIZE) {
+            stock.merge(pending.getInt(off + 8), -pending.getInt(off + 12), Integer::sum);
+        }
+        for (int off = pending.position(); off < pending.limit(); off += RECORD_SIZE) {
+            lastTime = Math.max(lastTime, pending.getLong(off));
+            int after = stock.merge(pending.getInt(off + 8), pending.getInt(off + 12), Integer::sum);
+            pending.putLong(off, lastTime).putInt(off + 16, after);
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(CHECKPOINT_HEADER + current.size() * 8);
+        buf.putLong(eventCount).putLong(lastTime).putInt(current.size());
+        for (Map.Entry<Integer, Integer> e : current.entrySet()) {
+            buf.putInt(e.getKey()).putInt(e.getValue());
+        }
+        buf.flip();
+        long position = cpEnd;
+        while (buf.hasRemaining()) {
+            position += checkpoints.write(buf, position);
+        }
+        addCheckpointIndex(eventCount, lastTime, cpEnd);
+        cpEnd = position;
+        DataFiles.changed(checkpointsPath, true);
+    }
+
+    private void addCheckpointIndex(long count, long time, long offset) {
+        if (cpCount == cpEvents.length) {
+            cpEvents = Arrays.copyOf(cpEvents, cpCount * 2);
+            cpTimes = Arrays.copyOf(cpTimes, cpCount * 2);
+            cpOffsets = Arrays.copyOf(cpOffsets, cpCount * 2);
+        }
+        cpEvents[cpCount] = count;
+        cpTimes[cpCount] = time;
+        cpOffsets[cpCount] = offset;
+        cpCount++;
+    }
+
+    // ===================== Queries =====================
+    /**
+     * Current quantity of a product according to the ledger.
+     */
+    public int currentStock(int productId) {
+        return current.getOrDefault(productId, 0);
+    }
+
+    /**
+     * Every product's quantity according to the ledger.
+     */
+    public Map<Integer, Integer> currentStock() {
+        return new HashMap<>(current);
+    }
+
+    public long getEventCount() {
+        return eventCount + pending.position() / RECORD_SIZE;
+    }
+
+    /**
+     * Quantities of all products at the given moment, or an empty map if it
+     * is before the ledger was started.
+     */
+    public Map<Integer, Integer> stockAt(Instant time) {
+        long start = System.nanoTime();
+        try {
+            flush();
+            long t = time.toEpochMilli();
+            if (t < cpTimes[0]) {
+                return new HashMap<>();
+            }
+            long n = eventsUpTo(t);
+            return replay(checkpointBefore(n, t), n, -1);
+        } catch (IOException e) {
+            LOG.error("ledger.readFailed", "error", e.getMessage());
+            return new HashMap<>();
+        } finally {
+            QUERY_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Quantity of one product at the given moment, or -1 if it is before
+     * the ledger was started.
+     */
+    public int stockAt(int productId, Instant time) {
+        long start = System.nanoTime();
+        try {
+            flush();
+            long t = time.toEpochMilli();
+            if (t < cpTimes[0]) {
+                return -1;
+            }
+            long n = eventsUpTo(t);
+            return replay(checkpointBefore(n, t), n, productId).getOrDefault(productId, 0);
+        } catch (IOException e) {
+            LOG.error("ledger.readFailed", "error", e.getMessage());
+            return -1;
+        } finally {
+            QUERY_TIMER.recordSince(start);
+        }
+    }
+
+    /**
+     * Number of events at or before t: binary search over the sorted times.
+     */
+    private long eventsUpTo(long t) throws IOException {
+        long lo = 0;
+        long hi = eventCount;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (readTime(mid) <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Last checkpoint taken at or before event n whose time is not after t
+     * (a checkpoint shares its time with the event it follows).
+     */
+    private int checkpointBefore(long n, long t) {
+        int lo = 0;
+        int hi = cpCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (cpEvents[mid] <= n && cpTimes[mid] <= t) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private long readTime(long index) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        events.read(buf, HEADER_SIZE + index * RECORD_SIZE);
+        return buf.getLong(0);
+    }
+
+    /**
+     * Loads checkpoint cp and applies events up to (not including) n. With
+     * productId >= 0 only that product is tracked.
+     */
+    private Map<Integer, Integer> replay(int cp, long n, int productId) throws IOException {
+        Map<Integer, Integer> stock = new HashMap<>();
+        ByteBuffer header = ByteBuffer.allocate(CHECKPOINT_HEADER);
+        checkpoints.read(header, cpOffsets[cp]);
+        int products = header.getInt(16);
+        ByteBuffer body = ByteBuffer.allocate(products * 8);
+        long position = cpOffsets[cp] + CHECKPOINT_HEADER;
+        while (body.hasRemaining()) {
+            int r = checkpoints.read(body, position + body.position());
+            if (r < 0) {
+                throw new IOException("Truncated checkpoint");
+            }
+        }
+        body.flip();
+        for (int i = 0; i < products; i++) {
+            int id = body.getInt();
+            int qty = body.getInt();
+            if (productId < 0 || id == productId) {
+                stock.put(id, qty);
+            }
+        }
+
+        long from = cpEvents[cp];
+        ByteBuffer chunk = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        while (from < n) {
+            int batch = (int) Math.min(4096, n - from);
+            chunk.clear().limit(batch * RECORD_SIZE);
+            long base = HEADER_SIZE + from * RECORD_SIZE;
+            while (chunk.hasRemaining()) {
+                if (events.read(chunk, base + chunk.position()) < 0) {
+                    throw new IOException("Truncated ledger");
+                }
+            }
+            for (int i = 0; i < batch; i++) {
+                int off = i * RECORD_SIZE;
+                int id = chunk.getInt(off + 8);
+                if (productId < 0 || id == productId) {
+                    stock.merge(id, chunk.getInt(off + 12), Integer::sum);
+                }
+            }
+            from += batch;
+        }
+        return stock;
+    }
+
+    public void close() {
+        flush();
+        try {
+            events.close();
+            checkpoints.close();
+        } catch (IOException e) {
+            LOG.error("ledger.closeFailed", "error", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package pharmacy;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoder for low-cardinality strings (status, cashier, product
+ * names). Each distinct value is stored once and referred to by its code.
+ *
+ * @author elkhedewy-group
+ */
+class StringPool {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            values.add(value);
+            codes.put(value, code);
+        }
+        return code;
+    }
+
+    String decode(int code) {
+        return values.get(code);
+    }
+
+    int size() {
+        return values.size();
+    }
+
+    long estimatedBytes() {
+        long bytes = 0;
+        for (String s : values) {
+            // String header + byte[] header + payload, plus a HashMap node
+            bytes += 24 + 16 + s.length() + 32;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,289 @@
+package pharmacy;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+/**
+ * Parser and formatter for the fixed "yyyy-MM-dd HH:mm:ss" layout used in
+ * the order and shift files. Works directly on chars or bytes and produces
+ * epoch seconds without building intermediate date objects.
+ *
+ * Timestamps are local wall-clock time of the codec's zone, like the files
+ * written by SimpleDateFormat before. Instances are immutable apart from a
+ * cached offset window, so one codec can be shared by parallel loaders.
+ *
+ * @author elkhedewy-group
+ */
+public final class TimestampCodec {
+    public static final int LENGTH = 19;
+
+    private static final TimestampCodec SYSTEM = new TimestampCodec(ZoneId.systemDefault());
+
+    private final ZoneRules rules;
+    private final boolean fixed;
+    private final int fixedOffset;
+    private volatile OffsetWindow window = new OffsetWindow(0, 0, 0);
+
+    public TimestampCodec(ZoneId zone) {
+        this.rules = zone.getRules();
+        this.fixed = rules.isFixedOffset();
+        this.fixedOffset = fixed ? rules.getOffset(Instant.EPOCH).getTotalSeconds() : 0;
+    }
+
+    public static TimestampCodec system() {
+        return SYSTEM;
+    }
+
+    // ===================== Parsing =====================
+
+    public long parseEpochSecond(CharSequence text) {
+        return parseEpochSecond(text, 0);
+    }
+
+    public long parseEpochSecond(CharSequence text, int offset) {
+        if (text.length() - offset < LENGTH
+                || text.charAt(offset + 4) != '-' || text.charAt(offset + 7) != '-'
+                || text.charAt(offset + 10) != ' '
+                || text.charAt(offset + 13) != ':' || text.charAt(offset + 16) != ':') {
+            throw new DateTimeParseException("Expected yyyy-MM-dd HH:mm:ss", text, offset);
+        }
+        int year = digits(text, offset, 4);
+        int month = digits(text, offset + 5, 2);
+        int day = digits(text, offset + 8, 2);
+        int hour = digits(text, offset + 11, 2);
+        int minute = digits(text, offset + 14, 2);
+        int second = digits(text, offset + 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            throw new DateTimeParseException("Expected yyyy-MM-dd HH:mm:ss", text, offset);
+        }
+        return toEpochSecond(year, month, day, hour, minute, second, text, offset);
+    }
+
+    public long parseEpochSecond(byte[] buffer, int offset) {
+        if (buffer.length - offset < LENGTH
+                || buffer[offset + 4] != '-' || buffer[offset + 7] != '-'
+                || buffer[offset + 10] != ' '
+                || buffer[offset + 13] != ':' || buffer[offset + 16] != ':') {
+            throw invalid(buffer, offset);
+        }
+        int year = digits(buffer, offset, 4);
+        int month = digits(buffer, offset + 5, 2);
+        int day = digits(buffer, offset + 8, 2);
+        int hour = digits(buffer, offset + 11, 2);
+        int minute = digits(buffer, offset + 14, 2);
+        int second = digits(buffer, offset + 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            throw invalid(buffer, offset);
+        }
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            throw invalid(buffer, offset);
+        }
+        long local = toLocalEpochSecond(year, month, day, hour, minute, second);
+        return local - offsetForLocal(local);
+    }
+
+    public Instant parseInstant(CharSequence text) {
+        return Instant.ofEpochSecond(parseEpochSecond(text, 0));
+    }
+
+    // ===================== Formatting =====================
+
+    /**
+     * Writes the 19 character timestamp into dst at offset.
+     */
+    public void format(long epochSecond, char[] dst, int offset) {
+        long civil = toCivil(epochSecond);
+        int year = (int) (civil >> 32);
+        int secondOfDay = (int) (civil & 0x1FFFF);
+        put(dst, offset, year, 4);
+        dst[offset + 4] = '-';
+        put(dst, offset + 5, (int) (civil >> 27) & 0x1F, 2);
+        dst[offset + 7] = '-';
+        put(dst, offset + 8, (int) (civil >> 22) & 0x1F, 2);
+        dst[offset + 10] = ' ';
+        put(dst, offset + 11, secondOfDay / 3600, 2);
+        dst[offset + 13] = ':';
+        put(dst, offset + 14, (secondOfDay / 60) % 60, 2);
+        dst[offset + 16] = ':';
+        put(dst, offset + 17, secondOfDay % 60, 2);
+    }
+
+    public void format(long epochSecond, byte[] dst, int offset) {
+        long civil = toCivil(epochSecond);
+        int year = (int) (civil >> 32);
+        int secondOfDay = (int) (civil & 0x1FFFF);
+        put(dst, offset, year, 4);
+        dst[offset + 4] = '-';
+        put(dst, offset + 5, (int) (civil >> 27) & 0x1F, 2);
+        dst[offset + 7] = '-';
+        put(dst, offset + 8, (int) (civil >> 22) & 0x1F, 2);
+        dst[offset + 10] = ' ';
+        put(dst, offset + 11, secondOfDay / 3600, 2);
+        dst[offset + 13] = ':';
+        put(dst, offset + 14, (secondOfDay / 60) % 60, 2);
+        dst[offset + 16] = ':';
+        put(dst, offset + 17, secondOfDay % 60, 2);
+    }
+
+    public StringBuilder format(long epochSecond, StringBuilder sb) {
+        char[] chars = new char[LENGTH];
+        format(epochSecond, chars, 0);
+        return sb.append(chars);
+    }
+
+    public String format(long epochSecond) {
+        char[] chars = new char[LENGTH];
+        format(epochSecond, chars, 0);
+        return new String(chars);
+    }
+
+    public String format(Instant instant) {
+        return format(instant.getEpochSecond());
+    }
+
+    // ===================== Internals =====================
+
+    private long toEpochSecond(int year, int month, int day, int hour, int minute, int second,
+            CharSequence text, int offset) {
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            throw new DateTimeParseException("Timestamp field out of range", text, offset);
+        }
+        long local = toLocalEpochSecond(year, month, day, hour, minute, second);
+        return local - offsetForLocal(local);
+    }
+
+    /**
+     * Local date and time of an instant packed as
+     * year &lt;&lt; 32 | month &lt;&lt; 27 | day &lt;&lt; 22 | second-of-day.
+     */
+    private long toCivil(long epochSecond) {
+        long local = epochSecond + offsetForInstant(epochSecond);
+        long days = Math.floorDiv(local, 86400L);
+        int secondOfDay = (int) Math.floorMod(local, 86400L);
+
+        // civil-from-days (H. Hinnant), proleptic Gregorian
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        return (year << 32) | ((long) month << 27) | ((long) day << 22) | secondOfDay;
+    }
+
+    // days-from-civil (H. Hinnant), proleptic Gregorian
+    private static long toLocalEpochSecond(int year, int month, int day, int hour, int minute, int second) {
+        int y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        int yoe = (int) (y - era * 400);
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        long days = era * 146097 + doe - 719468;
+        return days * 86400L + hour * 3600 + minute * 60 + second;
+    }
+
+    private int offsetForInstant(long epochSecond) {
+        if (fixed) {
+            return fixedOffset;
+        }
+        OffsetWindow w = window;
+        if (epochSecond >= w.start && epochSecond < w.end) {
+            return w.offset;
+        }
+        w = OffsetWindow.around(rules, epochSecond);
+        window = w;
+        return w.offset;
+    }
+
+    /**
+     * Offset for a local wall-clock second. Like SimpleDateFormat, an
+     * ambiguous time (overlap) resolves to the offset after the transition
+     * and a skipped time (gap) to the offset before it.
+     */
+    private int offsetForLocal(long localSecond) {
+        if (fixed) {
+            return fixedOffset;
+        }
+        // zone transitions are assumed to be more than a day apart
+        int after = offsetForInstant(localSecond + 86400);
+        if (offsetForInstant(localSecond - after) == after) {
+            return after;
+        }
+        return offsetForInstant(localSecond - 86400);
+    }
+
+    private static int digits(CharSequence text, int offset, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int d = text.charAt(offset + i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static int digits(byte[] buffer, int offset, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int d = buffer[offset + i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static void put(char[] dst, int offset, int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            dst[offset + i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static void put(byte[] dst, int offset, int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            dst[offset + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static DateTimeParseException invalid(byte[] buffer, int offset) {
+        int end = Math.min(buffer.length, offset + LENGTH);
+        String text = new String(buffer, offset, Math.max(0, end - offset), StandardCharsets.ISO_8859_1);
+        return new DateTimeParseException("Expected yyyy-MM-dd HH:mm:ss", text, 0);
+    }
+
+    /**
+     * Range of instants [start, end) over which the zone offset is constant.
+     */
+    private static final class OffsetWindow {
+        final long start;
+        final long end;
+        final int offset;
+
+        OffsetWindow(long start, long end, int offset) {
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+
+        static OffsetWindow around(ZoneRules rules, long epochSecond) {
+            Instant instant = Instant.ofEpochSecond(epochSecond);
+            ZoneOffsetTransition previous = rules.previousTransition(instant.plusSeconds(1));
+            ZoneOffsetTransition next = rules.nextTransition(instant);
+            long start = previous != null ? previous.toEpochSecond() : Long.MIN_VALUE;
+            long end = next != null ? next.toEpochSecond() : Long.MAX_VALUE;
+            return new OffsetWindow(start, end, rules.getOffset(instant).getTotalSeconds());
+        }
+    }
+}
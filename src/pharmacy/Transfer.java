@@ -0,0 +1,184 @@
+package pharmacy;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stock on its way from one branch to another. It is reserved at the
+ * source (taken off the source's shelves), shipped (in transit) and
+ * received at the destination, or cancelled while still reserved; see
+ * {@link Transfers}.
+ *
+ * @author elkhedewy-group
+ */
+public final class Transfer {
+    public enum State {
+        RESERVED, SHIPPED, RECEIVED, CANCELLED
+    }
+
+    private final long id;
+    private final String from;
+    private final String to;
+    private final String reference;
+    private final List<Line> lines;
+    private State state;
+
+    Transfer(long id, String from, String to, String reference, List<Line> lines, State state) {
+        this.id = id;
+        this.from = from;
+        this.to = to;
+        this.reference = reference;
+        this.lines = Collections.unmodifiableList(lines);
+        this.state = state;
+    }
+
+    /** Numbered by the source branch; with {@link #getFrom()} it is unique. */
+    public long getId() {
+        return id;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    public int getUnits() {
+        int units = 0;
+        for (Line line : lines) {
+            units += line.quantity;
+        }
+        return units;
+    }
+
+    String key() {
+        return from + ":" + id;
+    }
+
+    @Override
+    public String toString() {
+        return "Transfer " + id + " " + from + " -> " + to + " (" + lines.size() + " products, " + getUnits()
+                + " units, " + state + ")";
+    }
+
+    /**
+     * One product in a transfer, with enough of the product to create it at
+     * a destination that does not stock it yet.
+     */
+    public static final class Line {
+        private final int productId;
+        private final String name;
+        private final int quantity;
+        private final String type;
+        private final double price;
+        private final String special;
+
+        Line(int productId, String name, int quantity, String type, double price, String special) {
+            this.productId = productId;
+            this.name = name;
+            this.quantity = quantity;
+            this.type = type;
+            this.price = price;
+            this.special = special;
+        }
+
+        static Line of(Product p, int quantity) {
+            String type = p instanceof Medicine ? "Medicine" : p instanceof Cosmetic ? "Cosmetic" : "Product";
+            return new Line(p.getProductId(), p.getName(), quantity, type, p.getPrice(),
+                    ProductConflictException.special(p));
+        }
+
+        Line withProductId(int id) {
+            return new Line(id, name, quantity, type, price, special);
+        }
+
+        Product newProduct(int id) {
+            switch (type) {
+                case "Medicine":
+                    return new Medicine(Boolean.parseBoolean(special), id, name, price, 0);
+                case "Cosmetic":
+                    return new Cosmetic(special, id, name, price, 0);
+                default:
+                    return new Product(id, name, price, 0);
+            }
+        }
+
+        /** The product's id at the branch holding this record. */
+        public int getProductId() {
+            return productId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        double getPrice() {
+            return price;
+        }
+
+        String getSpecial() {
+            return special;
+        }
+    }
+
+    /**
+     * A transfer to reserve: quantities by product id at this branch, for
+     * one destination. Reserving the same reference again returns the
+     * transfer already made for it.
+     */
+    public static final class Request {
+        private final String reference;
+        private final String to;
+        private final Map<Integer, Integer> quantities = new LinkedHashMap<>();
+
+        public Request(String reference, String to) {
+            this.reference = reference;
+            this.to = to;
+        }
+
+        public Request add(int productId, int quantity) {
+            quantities.merge(productId, quantity, Integer::sum);
+            return this;
+        }
+
+        public String getReference() {
+            return reference;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public Map<Integer, Integer> getQuantities() {
+            return quantities;
+        }
+    }
+}
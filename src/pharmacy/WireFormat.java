@@ -0,0 +1,275 @@
+package pharmacy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Body codec of the HTTP API. Records are lines of comma separated fields
+ * in the same layout as the data files (a product is
+ * id,name,price,quantity,type,special), so a response can be read by eye
+ * or cut into the files. Money is written with two decimals.
+ *
+ * The encoder writes ASCII straight into one growing byte array, numbers
+ * without going through String, so a response costs about one array.
+ * The decoder walks the request bytes in place and only allocates for
+ * text fields.
+ *
+ * @author elkhedewy-group
+ */
+final class WireFormat {
+    static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+
+    private WireFormat() {
+    }
+
+    static final class Encoder {
+        private byte[] buf;
+        private int len;
+        private boolean lineStart = true;
+
+        Encoder(int capacity) {
+            buf = new byte[Math.max(capacity, 64)];
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+
+        private void separator() {
+            if (!lineStart) {
+                ensure(1);
+                buf[len++] = ',';
+            }
+            lineStart = false;
+        }
+
+        Encoder text(String s) {
+            separator();
+            int n = s.length();
+            ensure(n);
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    // rare: fall back to the charset encoder for the rest
+                    byte[] rest = s.substring(i).replace(',', ' ').replace('\n', ' ').replace('\r', ' ')
+                            .getBytes(StandardCharsets.UTF_8);
+                    ensure(rest.length);
+                    System.arraycopy(rest, 0, buf, len, rest.length);
+                    len += rest.length;
+                    return this;
+                }
+                buf[len++] = (byte) (c == ',' || c == '\n' || c == '\r' ? ' ' : c);
+            }
+            return this;
+        }
+
+        Encoder number(long v) {
+            separator();
+            writeLong(v);
+            return this;
+        }
+
+        Encoder money(double amount) {
+            separator();
+            long cents = Math.round(amount * 100);
+            if (cents < 0) {
+                ensure(1);
+                buf[len++] = '-';
+                cents = -cents;
+            }
+            writeLong(cents / 100);
+            ensure(3);
+            long c = cents % 100;
+            buf[len++] = '.';
+            buf[len++] = (byte) ('0' + c / 10);
+            buf[len++] = (byte) ('0' + c % 10);
+            return this;
+        }
+
+        Encoder bool(boolean b) {
+            return text(b ? "true" : "false");
+        }
+
+        Encoder end() {
+            ensure(1);
+            buf[len++] = '\n';
+            lineStart = true;
+            return this;
+        }
+
+        private void writeLong(long v) {
+            ensure(20);
+            if (v < 0) {
+                if (v == Long.MIN_VALUE) {
+                    byte[] b = Long.toString(v).getBytes(StandardCharsets.US_ASCII);
+                    System.arraycopy(b, 0, buf, len, b.length);
+                    len += b.length;
+                    return;
+                }
+                buf[len++] = '-';
+                v = -v;
+            }
+            int start = len;
+            do {
+                buf[len++] = (byte) ('0' + v % 10);
+                v /= 10;
+            } while (v != 0);
+            for (int i = start, j = len - 1; i < j; i++, j--) {
+                byte t = buf[i];
+                buf[i] = buf[j];
+                buf[j] = t;
+            }
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        int length() {
+            return len;
+        }
+
+        void product(Product p) {
+            number(p.getProductId()).text(p.getName()).money(p.getPrice()).number(p.getQuantity());
+            if (p instanceof Medicine) {
+                text("Medicine").bool(((Medicine) p).isPrescriptionRequired());
+            } else if (p instanceof Cosmetic) {
+                text("Cosmetic").text(((Cosmetic) p).getSuitableForSkinType());
+            } else {
+                text("Product").text("");
+            }
+            end();
+        }
+
+        void customer(Customer c) {
+            number(c.getCustomerid()).text(c.getName()).text(c.getPhone()).end();
+        }
+    }
+
+    /**
+     * Reads comma separated fields line by line. Blank lines are skipped.
+     */
+    static final class Decoder {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+        private boolean started;
+
+        Decoder(byte[] buf) {
+            this.buf = buf;
+            this.end = buf.length;
+        }
+
+        /**
+         * Moves to the start of the next non-blank line; false at the end
+         * of the body.
+         */
+        boolean nextLine() {
+            if (started) {
+                while (pos < end && buf[pos] != '\n') {
+                    pos++; // rest of the current line
+                }
+            }
+            started = true;
+            while (pos < end && (buf[pos] == '\n' || buf[pos] == '\r' || buf[pos] == ' ')) {
+                pos++;
+            }
+            return pos < end;
+        }
+
+        boolean hasField() {
+            return pos < end && buf[pos] != '\n' && buf[pos] != '\r';
+        }
+
+        int nextInt() {
+            long v = 0;
+            boolean negative = false;
+            int digits = 0;
+            while (pos < end && buf[pos] == ' ') {
+                pos++;
+            }
+            if (pos < end && buf[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+            while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+                v = v * 10 + (buf[pos++] - '0');
+                digits++;
+                if (v > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Number too large");
+                }
+            }
+            if (digits == 0) {
+                throw new IllegalArgumentException("Expected a number");
+            }
+            skipSeparator();
+            return (int) (negative ? -v : v);
+        }
+
+        String nextText() {
+            int start = pos;
+            while (pos < end && buf[pos] != ',' && buf[pos] != '\n' && buf[pos] != '\r') {
+                pos++;
+            }
+            String s = new String(buf, start, pos - start, StandardCharsets.UTF_8).trim();
+            skipSeparator();
+            return s;
+        }
+
+        /**
+         * Reads a product line as written by {@link Encoder#product}.
+         */
+        Product product() {
+            int id = nextInt();
+            String name = nextText();
+            double price = Double.parseDouble(nextText());
+            int quantity = nextInt();
+            String type = nextText();
+            String special = nextText();
+            switch (type) {
+                case "Medicine":
+                    return new Medicine(Boolean.parseBoolean(special), id, name, price, quantity);
+                case "Cosmetic":
+                    return new Cosmetic(special, id, name, price, quantity);
+                default:
+                    return new Product(id, name, price, quantity);
+            }
+        }
+
+        private void skipSeparator() {
+            while (pos < end && buf[pos] == ' ') {
+                pos++;
+            }
+            if (pos < end && buf[pos] == ',') {
+                pos++;
+            } else if (pos < end && buf[pos] != '\n' && buf[pos] != '\r') {
+                throw new IllegalArgumentException("Unexpected character '" + (char) buf[pos] + "'");
+            }
+        }
+    }
+
+    /**
+     * Parses the decimal id after prefix in path: -1 if the path has no
+     * id, -2 if what follows is not a number.
+     */
+    static int pathId(String path, String prefix) {
+        int i = prefix.length();
+        if (path.length() == i || (path.length() == i + 1 && path.charAt(i) == '/')) {
+            return -1;
+        }
+        if (path.charAt(i) != '/') {
+            return -2;
+        }
+        long v = 0;
+        for (int j = i + 1; j < path.length(); j++) {
+            char c = path.charAt(j);
+            if (c < '0' || c > '9' || v > Integer.MAX_VALUE / 10) {
+                return -2;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return (int) v;
+    }
+}